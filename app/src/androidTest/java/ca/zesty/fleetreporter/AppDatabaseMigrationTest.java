@@ -0,0 +1,97 @@
+package ca.zesty.fleetreporter;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/** Creates databases with the schema of earlier versions and checks that
+    opening them with the current AppDatabase keeps their rows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppDatabaseMigrationTest {
+    static final String NAME = "migration-test";
+    static final String SUBSCRIBER_ID = "624010123456789";
+    static final String CREATE_BALANCES = "CREATE TABLE `balances` (" +
+        "`subscriber_id` TEXT NOT NULL, `amount` INTEGER NOT NULL, " +
+        "`expiration_millis` INTEGER NOT NULL, PRIMARY KEY(`subscriber_id`))";
+    static final String INSERT_BALANCE =
+        "INSERT INTO `balances` VALUES ('" + SUBSCRIBER_ID + "', 1250, 1533081600000)";
+    static final String CREATE_OUTBOX_2 = "CREATE TABLE `outbox` (" +
+        "`seconds` INTEGER NOT NULL, `time_millis` INTEGER NOT NULL, " +
+        "`latitude` REAL NOT NULL, `longitude` REAL NOT NULL, " +
+        "`altitude` REAL NOT NULL, `speed_kmh` REAL NOT NULL, " +
+        "`bearing` REAL NOT NULL, `lat_lon_sd` REAL NOT NULL, `type` TEXT, " +
+        "`last_transition_millis` INTEGER NOT NULL, PRIMARY KEY(`seconds`))";
+    static final String CREATE_OUTBOX_3 = "CREATE TABLE `outbox` (" +
+        "`seconds` INTEGER NOT NULL, `time_millis` INTEGER NOT NULL, " +
+        "`latitude` REAL NOT NULL, `longitude` REAL NOT NULL, " +
+        "`altitude` REAL NOT NULL, `speed_kmh` REAL NOT NULL, " +
+        "`bearing` REAL NOT NULL, `lat_lon_sd` REAL NOT NULL, `type` TEXT, " +
+        "`last_transition_millis` INTEGER NOT NULL, `odometer_meters` INTEGER, " +
+        "PRIMARY KEY(`seconds`))";
+
+    private Context context;
+
+    @Before public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(NAME);
+    }
+
+    @After public void tearDown() {
+        context.deleteDatabase(NAME);
+    }
+
+    @Test public void testMigrate1To2() {
+        createDatabase(1, CREATE_BALANCES, INSERT_BALANCE);
+        AppDatabase db = AppDatabase.getDatabase(context, NAME);
+        assertEquals(1250, db.getBalanceDao().get(SUBSCRIBER_ID).amount);
+        assertEquals(0, db.getOutboxDao().getAll().size());
+        db.close();
+    }
+
+    @Test public void testMigrate2To3() {
+        createDatabase(2, CREATE_BALANCES, INSERT_BALANCE, CREATE_OUTBOX_2,
+            "INSERT INTO `outbox` VALUES (1533081600, 1533081600000, " +
+                "4.36, 18.55, 380, 0, 0, 10, 'RESTING', 1533078000000)");
+        AppDatabase db = AppDatabase.getDatabase(context, NAME);
+        assertEquals(1250, db.getBalanceDao().get(SUBSCRIBER_ID).amount);
+        List<OutboxEntity> outbox = db.getOutboxDao().getAll();
+        assertEquals(1, outbox.size());
+        assertEquals(1533081600000L, outbox.get(0).timeMillis);
+        assertNull(outbox.get(0).odometerMeters);
+        db.close();
+    }
+
+    @Test public void testMigrate3To4() {
+        createDatabase(3, CREATE_BALANCES, INSERT_BALANCE, CREATE_OUTBOX_3,
+            "INSERT INTO `outbox` VALUES (1533081600, 1533081600000, " +
+                "4.36, 18.55, 380, 0, 0, 10, 'RESTING', 1533078000000, 12345)");
+        AppDatabase db = AppDatabase.getDatabase(context, NAME);
+        assertEquals(1250, db.getBalanceDao().get(SUBSCRIBER_ID).amount);
+        List<OutboxEntity> outbox = db.getOutboxDao().getAll();
+        assertEquals(1, outbox.size());
+        assertEquals(1533081600000L, outbox.get(0).timeMillis);
+        assertEquals(Long.valueOf(12345), outbox.get(0).odometerMeters);
+        assertEquals(0, db.getUploadBatchDao().getAll().size());
+        db.close();
+    }
+
+    /** Creates the test database at the given version by running the given statements. */
+    private void createDatabase(int version, String... statements) {
+        SQLiteDatabase db = context.openOrCreateDatabase(NAME, Context.MODE_PRIVATE, null);
+        for (String sql : statements) db.execSQL(sql);
+        db.setVersion(version);
+        db.close();
+    }
+}
@@ -0,0 +1,117 @@
+package ca.zesty.fleetreporter;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A Scheduler that runs tasks from exact AlarmManager wakeups.
+
+    A Handler's delays stop counting down while the CPU is asleep, so they
+    only work if a wake lock is held all the time.  Instead, one wakeup alarm
+    is kept set for the earliest pending task; when it goes off, the due tasks
+    run on the main thread while the system holds a wake lock for the alarm
+    broadcast, and the CPU can sleep in between.  On API level 23 and up, the
+    alarm is allowed to go off while the device is idle (in Doze mode).
+ */
+public class AlarmScheduler implements Scheduler {
+    static final String TAG = "AlarmScheduler";
+    static final String ACTION_WAKEUP = "FLEET_REPORTER_WAKEUP";
+
+    private final Context mContext;
+    private final AlarmManager mAlarmManager;
+    private final PendingIntent mPendingIntent;
+    private final Map<Runnable, Long> mTaskTimes = new HashMap<>();
+    private Long mAlarmMillis = null;  // time for which the alarm is set, or null if none
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override public void onReceive(Context context, Intent intent) {
+            mAlarmMillis = null;
+            runDueTasks();
+        }
+    };
+
+    public AlarmScheduler(Context context) {
+        mContext = context;
+        mAlarmManager = new Utils(context).getAlarmManager();
+        mPendingIntent = PendingIntent.getBroadcast(context, 0,
+            new Intent(ACTION_WAKEUP).setPackage(context.getPackageName()), 0);
+        context.registerReceiver(mReceiver, new IntentFilter(ACTION_WAKEUP));
+    }
+
+    /** Cancels all tasks and stops listening for alarms. */
+    public void release() {
+        mTaskTimes.clear();
+        mAlarmManager.cancel(mPendingIntent);
+        mAlarmMillis = null;
+        mContext.unregisterReceiver(mReceiver);
+    }
+
+    @Override public void scheduleAt(Runnable task, long timeMillis) {
+        mTaskTimes.put(task, timeMillis);
+        updateAlarm();
+    }
+
+    @Override public void cancel(Runnable task) {
+        mTaskTimes.remove(task);
+        updateAlarm();
+    }
+
+    private void runDueTasks() {
+        long now = Utils.getTime();
+        List<Runnable> due = new ArrayList<>();
+        for (Map.Entry<Runnable, Long> entry : mTaskTimes.entrySet()) {
+            if (entry.getValue() <= now) due.add(entry.getKey());
+        }
+        for (Runnable task : due) {
+            mTaskTimes.remove(task);
+            task.run();
+        }
+        updateAlarm();
+    }
+
+    /** Sets the alarm for the earliest pending task, if it isn't already set for that time. */
+    private void updateAlarm() {
+        Long next = null;
+        for (Long time : mTaskTimes.values()) {
+            if (next == null || time < next) next = time;
+        }
+        if (next == null) {
+            if (mAlarmMillis != null) mAlarmManager.cancel(mPendingIntent);
+            mAlarmMillis = null;
+            return;
+        }
+        if (next.equals(mAlarmMillis)) return;
+        mAlarmMillis = next;
+
+        // Utils.getTime() is corrected to GPS time, so convert to a delay.
+        long elapsedMillis = SystemClock.elapsedRealtime() + Math.max(0, next - Utils.getTime());
+        if (Build.VERSION.SDK_INT >= 23) {
+            setExactAndAllowWhileIdle(elapsedMillis);
+        } else if (Build.VERSION.SDK_INT >= 19) {
+            setExact(elapsedMillis);
+        } else {
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, elapsedMillis, mPendingIntent);
+        }
+    }
+
+    @TargetApi(23)
+    private void setExactAndAllowWhileIdle(long elapsedMillis) {
+        mAlarmManager.setExactAndAllowWhileIdle(
+            AlarmManager.ELAPSED_REALTIME_WAKEUP, elapsedMillis, mPendingIntent);
+    }
+
+    @TargetApi(19)
+    private void setExact(long elapsedMillis) {
+        mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, elapsedMillis, mPendingIntent);
+    }
+}
@@ -1,17 +1,53 @@
 package ca.zesty.fleetreporter;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
 
-@Database(entities = {BalanceEntity.class}, exportSchema = false, version = 1)
+@Database(entities = {BalanceEntity.class, OutboxEntity.class, UploadBatchEntity.class}, exportSchema = false, version = 4)
 public abstract class AppDatabase extends RoomDatabase {
     public abstract BalanceDao getBalanceDao();
+    public abstract OutboxDao getOutboxDao();
+    public abstract UploadBatchDao getUploadBatchDao();
+
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (" +
+                "`seconds` INTEGER NOT NULL, `time_millis` INTEGER NOT NULL, " +
+                "`latitude` REAL NOT NULL, `longitude` REAL NOT NULL, " +
+                "`altitude` REAL NOT NULL, `speed_kmh` REAL NOT NULL, " +
+                "`bearing` REAL NOT NULL, `lat_lon_sd` REAL NOT NULL, `type` TEXT, " +
+                "`last_transition_millis` INTEGER NOT NULL, PRIMARY KEY(`seconds`))");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `outbox` ADD COLUMN `odometer_meters` INTEGER");
+        }
+    };
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `upload_batches` (" +
+                "`last_date` INTEGER NOT NULL, `after_date` INTEGER NOT NULL, " +
+                "`num_messages` INTEGER NOT NULL, `sample_every` INTEGER NOT NULL, " +
+                "`state` TEXT, PRIMARY KEY(`last_date`))");
+        }
+    };
 
     public static AppDatabase getDatabase(Context context) {
-        return Room.databaseBuilder(context, AppDatabase.class, "database")
+        return getDatabase(context, "database");
+    }
+
+    static AppDatabase getDatabase(Context context, String name) {
+        return Room.databaseBuilder(context, AppDatabase.class, name)
             .allowMainThreadQueries()
+            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4)
+            // Room only falls back when no migration path exists.
             .fallbackToDestructiveMigration()
             .build();
     }
@@ -0,0 +1,7 @@
+package ca.zesty.fleetreporter;
+
+/** A source of the current time, so that time can be simulated (see Utils.setClock). */
+public interface Clock {
+    /** Gets the current time in milliseconds since 1970-01-01 00:00:00 UTC. */
+    long getTime();
+}
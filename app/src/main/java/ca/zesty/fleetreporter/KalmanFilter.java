@@ -0,0 +1,168 @@
+package ca.zesty.fleetreporter;
+
+/** A LocationFixListener that smooths the stream of fixes with a constant-
+    velocity Kalman filter and passes the smoothed fixes on to another
+    LocationFixListener (normally the MotionListener).
+
+    Each fix is treated as a measurement of position, with latLonSd as its
+    noise, and of velocity, from the reported speed and bearing.  Some
+    receivers report no speed, or one derived from noisy positions, so a
+    reported velocity more than SPEED_GATE_SDS standard deviations from the
+    prediction is discarded and only the position is used; with the velocity
+    loosely trusted instead, spurious speeds pushed the estimate away from
+    the anchor and caused false GO/STOP flips in replays.  Between fixes, the
+    velocity is allowed to change with a random acceleration of about
+    ACCELERATION_SD.  The emitted fixes carry the filtered position, speed,
+    and bearing, and a latLonSd derived from the filtered position covariance.
+    Altitude is passed through unfiltered.
+
+    The filter is tuned for fixes every second.  While resting, fixes come
+    every 10 seconds or in short bursts, and letting the process noise grow
+    with the full interval would let ordinary position jitter pass into the
+    velocity, so the stationary fixes would look like motion; the noise is
+    therefore added for at most MAX_NOISE_INTERVAL_MILLIS per step.  GPS
+    errors are correlated from one fix to the next, so averaging fixes does
+    not cancel them as the filter assumes; the emitted latLonSd is never less
+    than MIN_ACCURACY_FRACTION of the fix's own, so that a run of inaccurate
+    fixes (as when the GPS is warming up) is not passed off as accurate.
+
+    Positions are tracked as east and north offsets in meters from the last
+    filtered position, which is moved to the new estimate after every fix.
+    The noise is the same in every direction, so the east and north axes
+    share one 2 x 2 covariance matrix.  All state is kept in primitive fields,
+    so the filter allocates nothing except the fix it emits.
+ */
+public class KalmanFilter implements LocationFixListener {
+    static final double ACCELERATION_SD = 1.0;  // m/s^2
+    static final double SPEED_SD = 1.5;  // m/s
+    static final double SPEED_GATE_SDS = 2.5;  // discard reported velocities this far off
+    static final double MIN_POSITION_SD = 1.0;  // meters
+    static final double MIN_ACCURACY_FRACTION = 0.6;  // of each fix's own latLonSd
+    static final long MAX_NOISE_INTERVAL_MILLIS = 1000;  // process noise per step is capped at this
+    static final long RESET_GAP_MILLIS = 30 * 1000;  // restart after a gap this long
+
+    // The ratio of the 68% confidence radius to the standard deviation along
+    // each axis, for a circular 2-D normal distribution: sqrt(-2 ln 0.32).
+    static final double RADIUS_68_PER_SD = 1.5096;
+
+    private final LocationFixListener mTarget;
+    private boolean mInitialized = false;
+    private long mTimeMillis;  // time of the last filtered fix
+    private double mLatitude;  // degrees
+    private double mLongitude;  // degrees
+    private double mVelocityEast;  // m/s
+    private double mVelocityNorth;  // m/s
+    // Covariance of (position, velocity) along each axis, in m^2, m^2/s, m^2/s^2.
+    private double mP00, mP01, mP11;
+
+    public KalmanFilter(LocationFixListener target) {
+        mTarget = target;
+    }
+
+    @Override public void onFix(LocationFix fix) {
+        if (fix == null) {
+            mInitialized = false;
+            mTarget.onFix(null);
+            return;
+        }
+        double dt = (fix.timeMillis - mTimeMillis) / 1000.0;
+        if (!mInitialized || dt < 0 || dt * 1000 > RESET_GAP_MILLIS) {
+            reset(fix);
+        } else {
+            update(fix, dt);
+        }
+        double speed = Math.hypot(mVelocityEast, mVelocityNorth);
+        double bearing = Math.atan2(mVelocityEast, mVelocityNorth) / LocationFix.RADIANS_PER_DEGREE;
+        mTarget.onFix(new LocationFix(
+            mTimeMillis, mLatitude, mLongitude, fix.altitude,
+            speed * 3.6, bearing < 0 ? bearing + 360 : bearing,  // 1 m/s = 3.6 km/h
+            Math.max(fix.latLonSd * MIN_ACCURACY_FRACTION, Math.sqrt(mP00) * RADIUS_68_PER_SD)
+        ));
+    }
+
+    private void reset(LocationFix fix) {
+        double bearing = fix.bearing * LocationFix.RADIANS_PER_DEGREE;
+        double speed = fix.speedKmh / 3.6;
+        double positionSd = getPositionSd(fix);
+        mTimeMillis = fix.timeMillis;
+        mLatitude = fix.latitude;
+        mLongitude = fix.longitude;
+        mVelocityEast = speed * Math.sin(bearing);
+        mVelocityNorth = speed * Math.cos(bearing);
+        mP00 = positionSd * positionSd;
+        mP01 = 0;
+        mP11 = SPEED_SD * SPEED_SD;
+        mInitialized = true;
+    }
+
+    private void update(LocationFix fix, double dt) {
+        // Predict: positions advance by the velocity, and the covariance grows
+        // by the process noise of a random acceleration during dt, but for
+        // no longer than MAX_NOISE_INTERVAL_MILLIS (see above).
+        double a2 = ACCELERATION_SD * ACCELERATION_SD;
+        double tn = Math.min(dt, MAX_NOISE_INTERVAL_MILLIS / 1000.0);
+        double p00 = mP00 + 2 * dt * mP01 + dt * dt * mP11 + a2 * tn * tn * tn * tn / 4;
+        double p01 = mP01 + dt * mP11 + a2 * tn * tn * tn / 2;
+        double p11 = mP11 + a2 * tn * tn;
+        double predictedEast = mVelocityEast * dt;
+        double predictedNorth = mVelocityNorth * dt;
+
+        // Measure: the fix's offset from the last estimate, and its velocity.
+        double metersPerDegree = LocationFix.MEAN_RADIUS * LocationFix.RADIANS_PER_DEGREE;
+        double cosLatitude = Math.cos(mLatitude * LocationFix.RADIANS_PER_DEGREE);
+        double dlon = fix.longitude - mLongitude;
+        if (dlon > 180) dlon -= 360;
+        if (dlon < -180) dlon += 360;
+        double measuredEast = dlon * cosLatitude * metersPerDegree;
+        double measuredNorth = (fix.latitude - mLatitude) * metersPerDegree;
+        double bearing = fix.bearing * LocationFix.RADIANS_PER_DEGREE;
+        double speed = fix.speedKmh / 3.6;
+
+        // Update: the gain K = P (P + R)^-1, with R = diag(r, rv), or with
+        // only the position measured if the reported velocity is implausible.
+        double positionSd = getPositionSd(fix);
+        double r = positionSd * positionSd;
+        double rv = SPEED_SD * SPEED_SD;
+        double innovationVelocityEast = speed * Math.sin(bearing) - mVelocityEast;
+        double innovationVelocityNorth = speed * Math.cos(bearing) - mVelocityNorth;
+        double k00, k01, k10, k11;
+        if (innovationVelocityEast * innovationVelocityEast +
+            innovationVelocityNorth * innovationVelocityNorth <=
+            SPEED_GATE_SDS * SPEED_GATE_SDS * (p11 + rv)) {
+            double det = (p00 + r) * (p11 + rv) - p01 * p01;
+            k00 = (p00 * (p11 + rv) - p01 * p01) / det;
+            k01 = p01 * r / det;
+            k10 = p01 * rv / det;
+            k11 = (p11 * (p00 + r) - p01 * p01) / det;
+        } else {
+            k00 = p00 / (p00 + r);
+            k01 = 0;
+            k10 = p01 / (p00 + r);
+            k11 = 0;
+        }
+
+        double innovationEast = measuredEast - predictedEast;
+        double east = predictedEast + k00 * innovationEast + k01 * innovationVelocityEast;
+        mVelocityEast += k10 * innovationEast + k11 * innovationVelocityEast;
+
+        double innovationNorth = measuredNorth - predictedNorth;
+        double north = predictedNorth + k00 * innovationNorth + k01 * innovationVelocityNorth;
+        mVelocityNorth += k10 * innovationNorth + k11 * innovationVelocityNorth;
+
+        mP00 = (1 - k00) * p00 - k01 * p01;
+        mP01 = (1 - k00) * p01 - k01 * p11;
+        mP11 = (1 - k11) * p11 - k10 * p01;
+
+        // Move the origin to the new estimate.
+        mTimeMillis = fix.timeMillis;
+        mLatitude += north / metersPerDegree;
+        mLongitude += east / (cosLatitude * metersPerDegree);
+        if (mLongitude > 180) mLongitude -= 360;
+        if (mLongitude < -180) mLongitude += 360;
+    }
+
+    /** Gets the standard deviation of a fix's position along each axis, in meters. */
+    private double getPositionSd(LocationFix fix) {
+        return Math.max(MIN_POSITION_SD, fix.latLonSd / RADIUS_68_PER_SD);
+    }
+}
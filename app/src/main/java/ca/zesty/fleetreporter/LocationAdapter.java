@@ -11,17 +11,22 @@ import android.os.Bundle;
     re-emit the last fix (with an updated timestamp) on command.
  */
 public class LocationAdapter implements LocationListener {
-    private final Utils u;
     private final LocationFixListener mTarget;
+    private Prefs mPrefs;
     private LocationFix mLastFix = null;
 
     public LocationAdapter(Context context, LocationFixListener target) {
-        u = new Utils(context);
         mTarget = target;
+        mPrefs = new Prefs(new Utils(context));
+    }
+
+    /** Switches to a new snapshot of the preferences (see LocationService). */
+    public void setPrefs(Prefs prefs) {
+        mPrefs = prefs;
     }
 
     @Override public void onLocationChanged(Location location) {
-        if (u.getBooleanPref(Prefs.SIMULATE_GPS_OUTAGE)) return;
+        if (mPrefs.simulateGpsOutage) return;
 
         // The phone's clock could be inaccurate.  Whenever we get a Location,
         // we can estimate the offset between the phone's clock and GPS time,
@@ -20,6 +20,7 @@ public class LocationFix implements Parcelable {
     public final double speedKmh;  // km/h
     public final double bearing;  // degrees
     public final double latLonSd;  // 68% confidence radius of lat/lon position, meters
+    private double cosLatitude = Double.NaN;  // computed on first use by localDistanceSquaredTo
 
     public LocationFix(long timeMillis, double latitude, double longitude,
                        double altitude, double speedKmh, double bearing, double latLonSd) {
@@ -83,6 +84,28 @@ public class LocationFix implements Parcelable {
         return MEAN_RADIUS * angularDistance;
     }
 
+    /**
+     * Estimates the square of the ground distance in meters between fixes,
+     * treating the Earth as flat around this fix.  This is much cheaper than
+     * distanceTo(), since cos(latitude) is cached on this fix and no sqrt is
+     * needed to compare against a squared radius.  Within 10 km and away from
+     * the poles, the distance is accurate to 0.5%; use distanceTo() beyond that.
+     */
+    public double localDistanceSquaredTo(LocationFix other) {
+        if (Double.isNaN(cosLatitude)) cosLatitude = Math.cos(latitude * RADIANS_PER_DEGREE);
+        double dlon = other.longitude - longitude;
+        if (dlon > 180) dlon -= 360;
+        if (dlon < -180) dlon += 360;
+        double dx = dlon * cosLatitude * RADIANS_PER_DEGREE * MEAN_RADIUS;
+        double dy = (other.latitude - latitude) * RADIANS_PER_DEGREE * MEAN_RADIUS;
+        return dx * dx + dy * dy;
+    }
+
+    /** Estimates the ground distance in meters between nearby fixes (see localDistanceSquaredTo). */
+    public double localDistanceTo(LocationFix other) {
+        return Math.sqrt(localDistanceSquaredTo(other));
+    }
+
     /** Estimates the bearing at the start of the great circle from this fix to another. */
     public double bearingTo(LocationFix other) {
         double lat1 = latitude * RADIANS_PER_DEGREE;
@@ -12,7 +12,7 @@ import android.content.SharedPreferences;
 import android.location.GpsStatus;
 import android.location.LocationManager;
 import android.os.BatteryManager;
-import android.os.Handler;
+import android.os.Build;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
@@ -23,10 +23,14 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.SortedMap;
+import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -39,9 +43,15 @@ import java.util.regex.Pattern;
 
     LocationManager
         |
-        |   mMotionListener.onLocation() (~ once every LOCATION_INTERVAL_MILLIS)
-        |       LOCATION_INTERVAL_MILLIS should be short enough that we can
-        |       quickly detect when the device starts or stops moving.
+        |   mKalmanFilter.onFix() (at a rate set by mSamplingPolicy)
+        |       SamplingPolicy.FAST_INTERVAL_MILLIS should be short enough that
+        |       we can quickly detect when the device starts or stops moving.
+        |       While resting, the GPS is slowed down or duty-cycled to save
+        |       power, and mMotionTrigger brings back fast fixes when it moves.
+        |       The filter smooths the position, speed, and bearing.
+        v
+    mMotionListener.onFix()
+        |
         v
     mPoint (the latest point)
         |
@@ -55,13 +65,29 @@ import java.util.regex.Pattern;
         v
     mOutbox (the queue of all points yet to be sent by SMS)
         |
-        |   transmitPoints() (~ once every TRANSMISSION_INTERVAL_MILLIS)
-        |       TRANSMISSION_INTERVAL_MILLIS should be long enough to receive an
-        |       SMS delivery acknowledgement before attempting to retransmit,
-        |       and shorter than MotionListener.SETTLING_PERIOD_MILLIS to ensure
-        |       that the message sending rate keeps up with the generation rate.
+        |   Rather than polling, mRunnable is scheduled to run at the earliest
+        |   time that a recording, transmission, or credit check comes due
+        |   (see getNextDueMillis()), using exact alarms so the CPU can sleep
+        |   between events.  Wake locks are held only while a fix is being
+        |   evaluated or an SMS is in flight.
+        |
+        |   The outbox is mirrored in the "outbox" table of AppDatabase so
+        |   that unsent points survive a crash or relaunch of the app.
+        |
+        |   transmitPoints() (when mTransmissionScheduler says it's time)
+        |       TransmissionScheduler.BASE_INTERVAL_MILLIS should be long enough
+        |       to receive an SMS delivery acknowledgement before attempting to
+        |       retransmit, and shorter than MotionListener.SETTLING_PERIOD_MILLIS
+        |       to ensure that the message sending rate keeps up with the
+        |       generation rate.  The scheduler speeds up while a deep outbox is
+        |       draining successfully and backs off on slots that are failing.
+        |       When the outbox backs up, a larger batch of points is sent as
+        |       one concatenated multipart message to drain it quickly.
+        |       mSlotHealthTracker picks the SIM slot with the lowest expected
+        |       cost, from its success rate, latency, and SMS balance; with a
+        |       deep outbox, a second healthy slot sends other points in parallel.
         v
-    SmsManager.sendTextMessage()
+    SmsManager.sendTextMessage() or SmsManager.sendMultipartTextMessage()
  */
 public class LocationService extends BaseService implements PointListener {
     public static boolean isRunning = false;
@@ -71,24 +97,22 @@ public class LocationService extends BaseService implements PointListener {
     static final long SECOND = 1000;
     static final long MINUTE = 60 * SECOND;
     static final long HOUR = 60 * MINUTE;
-    static final long LOCATION_INTERVAL_MILLIS = SECOND;
-    static final long LOOP_INTERVAL_MILLIS = 10 * SECOND;
-    static final long TRANSMISSION_INTERVAL_MILLIS = 30 * SECOND;
+    static final long FIX_WAKE_LOCK_TIMEOUT_MILLIS = 10 * SECOND;
     static final long DEFAULT_SETTLING_PERIOD_MILLIS = 2 * MINUTE;
-    static final long ALARM_INTERVAL_MILLIS = 20 * SECOND;
-    static final long VELOCITY_MIN_INTERVAL_MILLIS = 20 * SECOND;
-    static final long VELOCITY_MAX_INTERVAL_MILLIS = 35 * SECOND;
-    static final int VELOCITY_NUM_SAMPLES = 4;
+    static final long ALARM_INTERVAL_MILLIS = 5 * MINUTE;  // each restart alarm wakes the CPU
     static final int POINTS_PER_SMS_MESSAGE = 2;
+    static final int MAX_POINTS_PER_COMPACT_SMS_MESSAGE = 10;
+    static final int SMS_MESSAGE_MAX_LENGTH = 160;
+    static final int MULTIPART_PART_MAX_LENGTH = 153;  // 160 minus the concatenation header
     static final int MAX_OUTBOX_SIZE = 48;
     static final String ACTION_POINT_RECEIVED = "FLEET_REPORTER_POINT_RECEIVED";
     static final String ACTION_SERVICE_CHANGED = "FLEET_REPORTER_SERVICE_CHANGED";
     static final String ACTION_SMS_SENT = "FLEET_REPORTER_SMS_SENT";
     static final String EXTRA_SENT_KEYS = "sent_keys";
     static final String EXTRA_SLOT = "slot";
+    static final String EXTRA_MESSAGE_ID = "message_id";
 
     // TODO(ping): These constants all depend on the mobile network provider.
-    static final long CREDIT_MANAGEMENT_INTERVAL_MILLIS = 2 * MINUTE;
     static final long SMS_LOW_THRESHOLD = 10;  // when balance falls this low, buy more
     static final long SMS_PURCHASE_TTL_MILLIS = 23 * HOUR;  // assume purchased credit expires after this duration
     static final String SMS_PURCHASE_USSD_CODE = "#100*2*1#";  // Orange 250-SMS "Kota Songo" bundle purchase
@@ -105,8 +129,8 @@ public class LocationService extends BaseService implements PointListener {
     static final String CFA_BALANCE_CHECK_USSD_CODE = "#111*1*1#";  // Orange main account balance in CFA
     static final String CFA_SLOT_1_BALANCE_CHECK_USSD_CODE = "*121#";  // Azur main account balance in CFA
 
-    private Handler mHandler = null;
     private Runnable mRunnable = null;
+    private AlarmScheduler mScheduler = null;
     private SmsStatusReceiver mSmsStatusReceiver = new SmsStatusReceiver();
     private UssdReplyReceiver mUssdReplyReceiver = new UssdReplyReceiver();
     private PointRequestReceiver mPointRequestReceiver = new PointRequestReceiver();
@@ -114,33 +138,40 @@ public class LocationService extends BaseService implements PointListener {
     private UssdRequestReceiver mUssdRequestReceiver = new UssdRequestReceiver();
     private BatteryRequestReceiver mBatteryRequestReceiver = new BatteryRequestReceiver();
 
-    private PowerManager.WakeLock mWakeLock = null;
+    private PowerManager.WakeLock mWakeLock = null;  // held while a fix is being evaluated
+    private PowerManager.WakeLock mSmsWakeLock = null;  // held while an SMS is in flight
 
+    private Prefs mPrefs = null;  // snapshot of preferences, rebuilt by mPrefsListener
+    private MotionListener mMotionListener = null;
+    private KalmanFilter mKalmanFilter = null;
     private LocationAdapter mLocationAdapter = null;
+    private SamplingPolicy mSamplingPolicy = null;
+    private SignificantMotionTrigger mMotionTrigger = null;  // null if the device has no such sensor
+    private Long mLocationIntervalMillis = null;  // current GPS update interval, or null if off
+    private boolean mSleeping = false;  // true during the sleep period (see checkWhetherToSleep)
     private NmeaListener mNmeaListener = null;
     private SharedPreferences.OnSharedPreferenceChangeListener mPrefsListener;
-    private List<Point> mVelocityPoints = new ArrayList<>();  // for calculating average velocity
     private Point mPoint = null;  // latest non-provisional point that hasn't been transmitted yet
     private LocationFix mLastFix = null;  // latest fix, possibly provisional, never null after first assigned
-    private LocationFix mDistanceAnchor = null;
-    private double mMetersTravelledSinceStop = 0;
+    private Odometer mOdometer = new Odometer();
+    private long mNextLocalMidnightMillis = 0;  // when to give mOdometer the next local date
     private Long mNoGpsSinceTimeMillis = null;
     private long mLastSmsPurchaseMillis = 0;
     private long mLastSmsBalanceCheckMillis = 0;
     private long mLastCfaBalanceCheckMillis = 0;
     private long mLastSlot1BalanceCheckMillis = 0;
-    private long mLastCreditCheckMillis = 0;
     private String mTransmitNextUssdReplyDestination = null;
 
     private String mLastReporterId;
-    private Point mLastRecordedPoint;
+    private RecordingSchedule mRecordingSchedule;
     private int mNumSimSlots;
-    private long[] mLastFailedTransmissionMillis;
-    private long[] mNextTransmissionAttemptMillis;
+    private TransmissionScheduler mTransmissionScheduler;
     private long mLastTransmittedGpsOutageMillis = 0;
     private Long mLastSmsSentMillis = null;
     private Long mSmsFailingSinceMillis = null;
-    private int mNextSimSlot = 0;
+    private SlotHealthTracker mSlotHealthTracker;
+    private long mLastMessageId = Utils.getTime();
+    private Map<Long, MultipartResult> mMultipartResults = new HashMap<>();
     private SortedMap<Long, Point> mOutbox = new TreeMap<>(new Comparator<Long>() {
         @Override public int compare(Long a, Long b) {  // sort in descending order
             return b > a ? 1 : b < a ? -1 : 0;
@@ -148,20 +179,22 @@ public class LocationService extends BaseService implements PointListener {
     });
 
     private long mLastLogTransmissionMillis = Utils.getTime();
-    private int mLastRelaunchCheckMinutes = Utils.getLocalMinutesSinceMidnight();
+    private WakeupSchedule mWakeupSchedule;
 
     @Override public void onCreate() {
         super.onCreate();
         Utils.log(TAG, "onCreate");
         Utils.initializeCrashlytics(this);
-        mHandler = new Handler();
+        mScheduler = new AlarmScheduler(this);
         mRunnable = new Runnable() {
             public void run() {
+                checkWhetherToSleep();
                 checkWhetherToRecordPoint();
                 checkWhetherToTransmitPoints();
-                checkWhetherToPurchaseCredit(0);
+                if (!mSleeping) checkWhetherToPurchaseCredit(0);
                 checkWhetherToRelaunchApp();
-                mHandler.postDelayed(mRunnable, LOOP_INTERVAL_MILLIS);
+                updateLocationRequest();
+                scheduleNextWakeup();
             }
         };
         registerReceiver(mSmsStatusReceiver, new IntentFilter(ACTION_SMS_SENT));
@@ -172,11 +205,58 @@ public class LocationService extends BaseService implements PointListener {
         registerReceiver(mLowCreditReceiver, new IntentFilter(SmsReceiver.ACTION_LOW_CREDIT));
         mWakeLock = u.getPowerManager().newWakeLock(
             PowerManager.PARTIAL_WAKE_LOCK, "LocationService");
-        mLocationAdapter = new LocationAdapter(this, new MotionListener(u, this));
+        mWakeLock.setReferenceCounted(false);
+        mSmsWakeLock = u.getPowerManager().newWakeLock(
+            PowerManager.PARTIAL_WAKE_LOCK, "LocationService:sms");
+        mSmsWakeLock.setReferenceCounted(false);
+        mPrefs = new Prefs(u);
+        Utils.setVerboseLogEnabled(mPrefs.verboseLog);
+        mOdometer.restoreState(u.getPref(Prefs.ODOMETER, null));
+        mRecordingSchedule = new RecordingSchedule(mPrefs);
+        mMotionListener = new MotionListener(u, this);
+        mKalmanFilter = new KalmanFilter(mMotionListener);
+        mLocationAdapter = new LocationAdapter(this, new LocationFixListener() {
+            @Override public void onFix(LocationFix fix) {
+                // Keep the CPU awake until the fix has been recorded and sent on.
+                mWakeLock.acquire(FIX_WAKE_LOCK_TIMEOUT_MILLIS);
+                try {
+                    mKalmanFilter.onFix(fix);
+                    if (fix != null && mSamplingPolicy.onFix(fix, mPrefs.stableMaxAccuracy)) {
+                        // A usable fix has ended an extended burst.
+                        updateLocationRequest();
+                        scheduleNextWakeup();
+                    }
+                } finally {
+                    mWakeLock.release();
+                }
+            }
+        });
+        if (Build.VERSION.SDK_INT >= 18) {
+            mMotionTrigger = SignificantMotionTrigger.create(u, new Runnable() {
+                public void run() {
+                    mSamplingPolicy.onMotionDetected(Utils.getTime());
+                    updateLocationRequest();
+                    scheduleNextWakeup();
+                }
+            });
+        }
+        mSamplingPolicy = new SamplingPolicy(mMotionTrigger != null);
+        mWakeupSchedule = new WakeupSchedule(
+            Utils.SYSTEM_CLOCK, TimeZone.getDefault(), mRecordingSchedule, mSamplingPolicy);
+        updateTimesOfDay();
         mNmeaListener = new NmeaListener();
         mPrefsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
             @Override public void onSharedPreferenceChanged(SharedPreferences preferences, String s) {
+                // Saved state changes often and has no effect on the settings.
+                if (Prefs.isStateKey(s)) return;
+                mPrefs = new Prefs(u);
+                Utils.setVerboseLogEnabled(mPrefs.verboseLog);
+                mRecordingSchedule.setPrefs(mPrefs);
+                mMotionListener.setPrefs(mPrefs);
+                mLocationAdapter.setPrefs(mPrefs);
+                updateTimesOfDay();
                 updateNotification();
+                if (isRunning) scheduleNextWakeup();
             }
         };
     }
@@ -194,23 +274,37 @@ public class LocationService extends BaseService implements PointListener {
                 Utils.logRemote(TAG, "Startup");
 
                 mNumSimSlots = u.getNumSimSlots();
-                mLastFailedTransmissionMillis = new long[mNumSimSlots];
-                mNextTransmissionAttemptMillis = new long[mNumSimSlots];
+                mTransmissionScheduler = new TransmissionScheduler(mNumSimSlots, new Random());
+                mSlotHealthTracker = new SlotHealthTracker(mNumSimSlots);
+                for (int slot = 0; slot < mNumSimSlots; slot++) {
+                    mSlotHealthTracker.setUsable(slot, u.getSmsManager(slot) != null);
+                    BalanceEntity balance = getBalance(u.getImsi(slot));
+                    if (balance != null) {
+                        mSlotHealthTracker.setBalance(slot, balance.amount, balance.expirationMillis);
+                    }
+                }
+
+                // Pick up any points that a previous run didn't get to send.
+                loadOutbox();
 
-                // Grab the CPU.
+                // The CPU is kept awake only while handling a fix or an alarm
+                // (see mScheduler) or while an SMS is in flight.
                 isRunning = true;
-                mWakeLock.acquire();
                 startForeground(NOTIFICATION_ID, buildNotification());
                 u.getPrefs().registerOnSharedPreferenceChangeListener(mPrefsListener);
 
-                // Activate the GPS receiver.
-                mNoGpsSinceTimeMillis = Utils.getTime();
-                u.getLocationManager().requestLocationUpdates(
-                    LocationManager.GPS_PROVIDER, LOCATION_INTERVAL_MILLIS, 0, mLocationAdapter);
-                u.getLocationManager().addNmeaListener(new NmeaListener());
+                // Activate the GPS receiver, unless we're starting up during the
+                // sleep period, in which case any saved motion state is kept.
+                mSleeping = isSleepPeriod();
+                mLocationIntervalMillis = null;
+                if (mSleeping) {
+                    Utils.logRemote(TAG, "Starting during the sleep period");
+                } else {
+                    startGps();
+                }
 
-                // Start periodically recording and transmitting points.
-                mHandler.postDelayed(mRunnable, 0);
+                // Start recording and transmitting points.
+                mScheduler.scheduleAt(mRunnable, Utils.getTime());
                 sendBroadcast(new Intent(ACTION_SERVICE_CHANGED));
             }
         }
@@ -220,10 +314,13 @@ public class LocationService extends BaseService implements PointListener {
     /** Cleans up when the service is about to stop. */
     @Override public void onDestroy() {
         Utils.logRemote(TAG, "onDestroy");
-        mHandler.removeCallbacks(mRunnable);
+        u.setPref(Prefs.ODOMETER, mOdometer.saveState());
+        mScheduler.release();
         u.getLocationManager().removeUpdates(mLocationAdapter);
         u.getLocationManager().removeNmeaListener(mNmeaListener);
+        if (mMotionTrigger != null) mMotionTrigger.disarm();
         if (mWakeLock.isHeld()) mWakeLock.release();
+        if (mSmsWakeLock.isHeld()) mSmsWakeLock.release();
         isRunning = false;
         unregisterReceiver(mSmsStatusReceiver);
         unregisterReceiver(mUssdReplyReceiver);
@@ -233,6 +330,7 @@ public class LocationService extends BaseService implements PointListener {
         unregisterReceiver(mLowCreditReceiver);
         u.getPrefs().unregisterOnSharedPreferenceChangeListener(mPrefsListener);
         sendBroadcast(new Intent(ACTION_SERVICE_CHANGED));
+        LogWriter.flush();
     }
 
     private void logPrefs(boolean verbose) {
@@ -278,7 +376,11 @@ public class LocationService extends BaseService implements PointListener {
     }
 
     public double getMetersTravelledSinceStop() {
-        return mMetersTravelledSinceStop;
+        return mOdometer.getTripMeters();
+    }
+
+    public double getMetersTravelledToday() {
+        return mOdometer.getDayMeters();
     }
 
     public Long getSmsFailingSinceMillis() {
@@ -305,9 +407,12 @@ public class LocationService extends BaseService implements PointListener {
         if (message.isEmpty()) message = getString(R.string.notif_reporting_your_location) + "  ";
         if (mLastSmsSentMillis != null) message += Utils.format(
             getString(R.string.fmt_notif_last_sms_sent_tm), u.describeTime(mLastSmsSentMillis)) + "  ";
+        long now = Utils.getTime();
         int minutes = (int) Math.max(
-            0, Math.ceil((getNextRecordingMillis() - Utils.getTime()) / 60000));
-        message += minutes == 0 ?
+            0, Math.ceil((mRecordingSchedule.getNextRecordingMillis(now) - now) / 60000));
+        message += mSleeping ?
+            Utils.format(getString(R.string.fmt_notif_sleeping_until_tm), u.getPref(Prefs.SLEEP_END)) :
+            minutes == 0 ?
             getString(R.string.notif_next_report_lt_1_min) :
             Utils.format(getString(R.string.fmt_notif_next_report_n_min), minutes);
 
@@ -325,13 +430,16 @@ public class LocationService extends BaseService implements PointListener {
 
     /** Receives a new Point from the MotionListener. */
     public void onPoint(Point point, boolean isProvisional) {
-        Utils.log(TAG, "onPoint" + (isProvisional ? " (provisional): " : ": ") + point);
+        if (Utils.isVerboseLogEnabled()) {
+            Utils.log(TAG, "onPoint" + (isProvisional ? " (provisional): " : ": ") + point);
+        }
 
         // Keep track of how long we haven't had a GPS fix.
         if (point == null) {
             if (mNoGpsSinceTimeMillis == null) {
                 mNoGpsSinceTimeMillis =
                     mLastFix != null ? mLastFix.timeMillis : Utils.getTime();
+                scheduleNextWakeup();
             }
             return;
         }
@@ -339,52 +447,137 @@ public class LocationService extends BaseService implements PointListener {
         mLastFix = point.fix;
 
         // Keep track of how far we've travelled.
-        if (point.type == Point.Type.GO || point.type == Point.Type.MOVING) {
-            if (mDistanceAnchor == null) {
-                mDistanceAnchor = point.fix;
-                mMetersTravelledSinceStop = 0;
-            } else {
-                double distance = mDistanceAnchor.distanceTo(point.fix);
-                if (distance > 2*point.fix.latLonSd && distance > 20) {  // meters
-                    mMetersTravelledSinceStop += distance;
-                    mDistanceAnchor = point.fix;
-                }
+        if (Utils.getTime() >= mNextLocalMidnightMillis) {
+            if (mNextLocalMidnightMillis > 0) {
+                Utils.logRemote(TAG, "Travelled %.0f m on the previous day", mOdometer.getDayMeters());
             }
-        } else {
-            mDistanceAnchor = null;
-        }
-
-        // Keep around some recent points to help us compute average velocity.
-        mVelocityPoints.add(point);
-        long now = Utils.getTime();
-        while (!mVelocityPoints.isEmpty() &&
-            mVelocityPoints.get(0).fix.timeMillis < now - VELOCITY_MAX_INTERVAL_MILLIS) {
-            mVelocityPoints.remove(0);
+            mOdometer.setLocalDate(Utils.formatLocalDate());
+            mNextLocalMidnightMillis = Utils.getNextLocalTimeOfDayMillis(0);
         }
+        mOdometer.onPoint(point);
 
         // Record the point (but don't record provisional points).
         if (!isProvisional) {
+            mSamplingPolicy.onPoint(point, Utils.getTime());
+            updateLocationRequest();
             mPoint = point;
             checkWhetherToRecordPoint();
+            scheduleNextWakeup();
         }
 
         updateNotification();
         sendBroadcast(new Intent(ACTION_POINT_RECEIVED));
     }
 
+    private boolean isSleepPeriod() {
+        return mWakeupSchedule.isSleepPeriod();
+    }
+
+    private void updateTimesOfDay() {
+        mWakeupSchedule.setTimesOfDay(u.getPref(Prefs.SLEEP_START), u.getPref(Prefs.SLEEP_END),
+            u.getPref(Prefs.DAILY_RELAUNCH_TIME));
+    }
+
+    /**
+     * Shuts down the GPS at the start of the sleep period, saving the motion
+     * state, and starts it up again at the end.  In between, nothing is
+     * recorded, and we wake up only to finish sending the outbox and then
+     * once at the end of the sleep period (or to relaunch the app).
+     */
+    private void checkWhetherToSleep() {
+        boolean sleepPeriod = isSleepPeriod();
+        if (sleepPeriod && !mSleeping) {
+            Utils.logRemote(TAG, "Sleep period started; turning off the GPS until " + u.getPref(Prefs.SLEEP_END));
+            mSleeping = true;
+            u.setPref(Prefs.MOTION_STATE, mMotionListener.saveState());
+            updateLocationRequest();
+            u.getLocationManager().removeNmeaListener(mNmeaListener);
+            if (mWakeLock.isHeld()) mWakeLock.release();
+            mPoint = null;
+            mNoGpsSinceTimeMillis = null;  // the GPS being off is not an outage
+            updateNotification();
+        } else if (!sleepPeriod && mSleeping) {
+            Utils.logRemote(TAG, "Sleep period ended; turning on the GPS");
+            mSleeping = false;
+            startGps();
+            updateNotification();
+        }
+    }
+
+    /** Turns on the GPS, resuming from the saved motion state if there is one. */
+    private void startGps() {
+        String state = u.getPref(Prefs.MOTION_STATE, null);
+        if (state != null) {
+            mMotionListener.restoreState(state, Utils.getTime());
+            u.setPref(Prefs.MOTION_STATE, null);
+        }
+        mNoGpsSinceTimeMillis = Utils.getTime();
+        mSamplingPolicy.reset();
+        updateLocationRequest();
+        u.getLocationManager().addNmeaListener(mNmeaListener);
+    }
+
+    /** Starts, stops, or changes the rate of GPS updates as mSamplingPolicy says. */
+    private void updateLocationRequest() {
+        Long intervalMillis = mSleeping ? null : mSamplingPolicy.getIntervalMillis(Utils.getTime());
+        if (mMotionTrigger != null) {
+            // While duty-cycling, we rely on the sensor to notice a departure.
+            if (!mSleeping && mSamplingPolicy.isDutyCycling()) mMotionTrigger.arm();
+            else mMotionTrigger.disarm();
+        }
+        if (intervalMillis == null ? mLocationIntervalMillis == null :
+            intervalMillis.equals(mLocationIntervalMillis)) return;
+        if (mLocationIntervalMillis == null && intervalMillis != null && mSamplingPolicy.isDutyCycling()) {
+            // The GPS is starting cold for a burst, so its first fixes may be way off.
+            mMotionListener.reanchor(Utils.getTime(), SamplingPolicy.MAX_BURST_LENGTH_MILLIS);
+        }
+        mLocationIntervalMillis = intervalMillis;
+        if (intervalMillis == null) {
+            Utils.log(TAG, "Pausing location updates");
+            u.getLocationManager().removeUpdates(mLocationAdapter);
+        } else {
+            Utils.log(TAG, "Requesting location updates every %d s", intervalMillis / SECOND);
+            u.getLocationManager().requestLocationUpdates(
+                LocationManager.GPS_PROVIDER, intervalMillis, 0, mLocationAdapter);
+        }
+    }
+
+    /** Schedules mRunnable for the earliest time that something will need doing. */
+    private void scheduleNextWakeup() {
+        Long outageReportMillis = mNoGpsSinceTimeMillis == null ? null :
+            mLastTransmittedGpsOutageMillis + mPrefs.reportingIntervalGpsOutageMillis;
+        mScheduler.scheduleAt(mRunnable, mWakeupSchedule.getNextWakeupMillis(
+            mSleeping, mPoint, outageReportMillis, getNextTransmissionMillis()));
+    }
+
+    /** Gets the earliest time that a retransmission or a send timeout is due, if the outbox isn't empty. */
+    private long getNextTransmissionMillis() {
+        long next = Long.MAX_VALUE;
+        if (!mOutbox.isEmpty()) {
+            for (int slot = 0; slot < mNumSimSlots; slot++) {
+                if (mSlotHealthTracker.isUsable(slot) && !mSlotHealthTracker.isInFlight(slot)) {
+                    next = Math.min(next, mTransmissionScheduler.getNextAttemptMillis(slot));
+                }
+            }
+            Long timeoutMillis = mSlotHealthTracker.getNextTimeoutMillis();
+            if (timeoutMillis != null) next = Math.min(next, timeoutMillis);
+        }
+        return next;
+    }
+
     /** Examines the last acquired point, and moves it to the outbox if necessary. */
     private void checkWhetherToRecordPoint() {
         String reporterId = u.getPref(Prefs.REPORTER_ID);
         if (!reporterId.equals(mLastReporterId)) {
             // If registration has changed, we should restart the recording clock.
             mLastReporterId = reporterId;
-            mLastRecordedPoint = null;
-            mNextTransmissionAttemptMillis = new long[mNumSimSlots];
+            mRecordingSchedule.reset();
+            mTransmissionScheduler = new TransmissionScheduler(mNumSimSlots, new Random());
             mLastSmsSentMillis = null;
         }
         long now = Utils.getTime();
-        if (mNoGpsSinceTimeMillis != null && now >= getNextRecordingMillis() &&
-            now >= mLastTransmittedGpsOutageMillis + u.getMinutePrefInMillis(Prefs.REPORTING_INTERVAL_GPS_OUTAGE, 30)) {
+        if (mNoGpsSinceTimeMillis != null && now >= mRecordingSchedule.getNextRecordingMillis(now) &&
+            now >= mLastTransmittedGpsOutageMillis + mPrefs.reportingIntervalGpsOutageMillis) {
             // If it's time to record a point and we have a GPS outage, notify the receiver.
             transmitGpsOutage();
             mLastTransmittedGpsOutageMillis = Utils.getTime();
@@ -392,8 +585,8 @@ public class LocationService extends BaseService implements PointListener {
         if (mPoint != null) {
             // If we've just transitioned between resting and moving, record the
             // point immediately; otherwise wait until we're next scheduled to record.
-            if (mPoint.isTransition() || Utils.getTime() >= getNextRecordingMillis()) {
-                if (Utils.isLocalTimeOfDayBetween(u.getPref(Prefs.SLEEP_START), u.getPref(Prefs.SLEEP_END))) {
+            if (mRecordingSchedule.isDue(mPoint, Utils.getTime())) {
+                if (mSleeping || isSleepPeriod()) {
                     Utils.log(TAG, "Current time is within sleep period; not recording");
                     return;
                 }
@@ -403,28 +596,14 @@ public class LocationService extends BaseService implements PointListener {
         }
     }
 
-    /** Returns the time that we're next scheduled to record a point. */
-    private long getNextRecordingMillis() {
-        // We want pref_recording_interval to be the maximum interval
-        // between fix times, so schedule the next time based on the time
-        // elapsed after the fix time, not after when the point was sent.
-        if (mLastRecordedPoint == null) return Utils.getTime();
-        return mLastRecordedPoint.fix.timeMillis + (
-            mLastRecordedPoint.type == Point.Type.RESTING || mLastRecordedPoint.type == Point.Type.STOP ?
-                u.getMinutePrefInMillis(Prefs.RECORDING_INTERVAL_RESTING, 30) :
-            mLastRecordedPoint.type == Point.Type.GO ?
-                u.getMinutePrefInMillis(Prefs.RECORDING_INTERVAL_AFTER_GO, 2) :
-                u.getMinutePrefInMillis(Prefs.RECORDING_INTERVAL_MOVING, 10)
-        );
-    }
-
     /** Records a point in the outbox, to be sent out over SMS. */
     private void recordPoint(Point point) {
-        point = adjustVelocity(point);
+        point = point.withOdometer(Math.round(mOdometer.getTotalMeters()));
+        u.applyPref(Prefs.ODOMETER, mOdometer.saveState());
         mOutbox.put(point.getSeconds(), point);
-        mLastRecordedPoint = point;
+        mRecordingSchedule.onRecord(point);
         Utils.log(TAG, "recordPoint: %s (%d queued)", point, mOutbox.size());
-        limitOutboxSize();
+        updateStoredOutbox(new Point[] {point}, limitOutboxSize());
         checkWhetherToTransmitPoints();
         updateNotification();
 
@@ -432,42 +611,66 @@ public class LocationService extends BaseService implements PointListener {
         MainActivity.postLogMessage(this, "Recorded:\n    " + point.format());
     }
 
-    /** Replaces the point's speed and bearing with smoothed values, if possible. */
-    private Point adjustVelocity(Point point) {
-        int n = mVelocityPoints.size();
-        if (n == 0) return point;
-        LocationFix start = getAverageFix(mVelocityPoints.subList(0, Math.min(n, VELOCITY_NUM_SAMPLES)));
-        LocationFix stop = getAverageFix(mVelocityPoints.subList(Math.max(0, n - VELOCITY_NUM_SAMPLES), n));
-        double interval = stop.timeMillis - start.timeMillis;
-        if (interval < VELOCITY_MIN_INTERVAL_MILLIS) return point;
-        Utils.log(TAG, "Computing adjusted velocity: %.1f s from %s to %s", interval / SECOND, start, stop);
-        double distance = start.distanceTo(stop);
-        double speedKmh = (distance/1000.0)/(interval/HOUR);
-        double bearing = start.bearingTo(stop);
-        return point.withFix(point.fix.withSpeedAndBearing(speedKmh, bearing));
-    }
-
-    private LocationFix getAverageFix(List<Point> points) {
-        double totalLat = 0;
-        double totalLon = 0;
-        long totalMillis = 0;
-        int n = 0;
-        for (Point point : points) {
-            totalLat += point.fix.latitude;
-            totalLon += point.fix.longitude;
-            totalMillis += point.fix.timeMillis;
-            n++;
-        }
-        return new LocationFix(totalMillis / n, totalLat / n, totalLon / n, 0, 0, 0, 0);
-    }
-
-    /** Transmits points in the outbox, if it's not too soon to do so. */
+    /** Transmits points in the outbox on the best available slots, if it's not too soon to do so. */
     private void checkWhetherToTransmitPoints() {
         long now = Utils.getTime();
-        if (mOutbox.size() > 0 && now >= mNextTransmissionAttemptMillis[mNextSimSlot]) {
-            Arrays.fill(mNextTransmissionAttemptMillis, now + TRANSMISSION_INTERVAL_MILLIS);
-            transmitPoints(mNextSimSlot);
+        for (int slot : mSlotHealthTracker.expireStaleSends(now)) {
+            onSmsFailed(slot, now);
+        }
+        expireMultipartResults();
+        if (mOutbox.isEmpty()) return;
+        int slot = mSlotHealthTracker.chooseSlot(now, mTransmissionScheduler);
+        if (slot < 0) return;
+        transmitPoints(slot);
+
+        // If the outbox is deep, a second healthy slot can send other points in parallel.
+        if (countPointsNotInFlight() >= TransmissionScheduler.DEEP_OUTBOX_SIZE) {
+            int otherSlot = mSlotHealthTracker.chooseSlot(now, mTransmissionScheduler);
+            if (otherSlot >= 0 && mSlotHealthTracker.isHealthy(otherSlot)) {
+                Utils.logRemote(TAG, "Outbox is deep; also transmitting on slot %d", otherSlot);
+                transmitPoints(otherSlot);
+            }
         }
+        mTransmissionScheduler.onAttempt(now, getRemainingDailyPointSms());
+        updateSmsWakeLock();
+    }
+
+    /** Records a failed or timed-out send, backing off further attempts on the slot. */
+    private void onSmsFailed(int slot, long now) {
+        if (mSmsFailingSinceMillis == null) {
+            mSmsFailingSinceMillis = now;
+        }
+        mTransmissionScheduler.onFailure(slot, now);
+    }
+
+    /** Forgets the partial results of multipart messages that are no longer in flight. */
+    private void expireMultipartResults() {
+        Iterator<Long> ids = mMultipartResults.keySet().iterator();
+        while (ids.hasNext()) {
+            long messageId = ids.next();
+            if (!mSlotHealthTracker.isMessageInFlight(messageId)) {
+                Utils.log(TAG, "Forgetting parts of message %d, which timed out", messageId);
+                ids.remove();
+            }
+        }
+    }
+
+    /** Keeps the CPU awake while any SMS is in flight, so its status is handled promptly. */
+    private void updateSmsWakeLock() {
+        if (mSlotHealthTracker.getNextTimeoutMillis() != null) {
+            // The timeout ensures the lock can't be leaked if a status never arrives.
+            mSmsWakeLock.acquire(SlotHealthTracker.SEND_TIMEOUT_MILLIS);
+        } else if (mSmsWakeLock.isHeld()) {
+            mSmsWakeLock.release();
+        }
+    }
+
+    private int countPointsNotInFlight() {
+        int count = 0;
+        for (Long key : mOutbox.keySet()) {
+            if (!mSlotHealthTracker.isKeyInFlight(key)) count++;
+        }
+        return count;
     }
 
     /** Transmits some of the pending points in the outbox over SMS. */
@@ -476,30 +679,63 @@ public class LocationService extends BaseService implements PointListener {
 
         String destination = u.getPref(Prefs.DESTINATION_NUMBER);
         if (destination == null) return;
-        String message = "";
+        boolean compact = mPrefs.compactPointEncoding;
         List<Long> sentKeys = new ArrayList<>();
+        Intent sentIntent = new Intent(ACTION_SMS_SENT)
+            .putExtra(EXTRA_SLOT, slot)
+            .putExtra(EXTRA_MESSAGE_ID, ++mLastMessageId);
+
+        // When the outbox has backed up (e.g. after a long outage), drain it
+        // with one concatenated multipart message instead of many single ones.
+        int maxParts = mTransmissionScheduler.getMaxParts(
+            mOutbox.size(), getRemainingDailyPointSms(), mSlotHealthTracker.isHealthy(slot));
+        int numParts = 1;
+        if (maxParts > 1) {
+            String message = formatPoints(compact, maxParts * MULTIPART_PART_MAX_LENGTH, mOutbox.size(), sentKeys);
+            if (sentKeys.isEmpty()) return;
+            Utils.logRemote(TAG, "transmitPoints: %d in queue; draining %s",
+                mOutbox.size(), TextUtils.join(", ", sentKeys));
+            numParts = u.sendMultipartSms(slot, destination, message,
+                sentIntent.putExtra(EXTRA_SENT_KEYS, Utils.toLongArray(sentKeys)));
+        } else {
+            String message = formatPoints(compact, SMS_MESSAGE_MAX_LENGTH,
+                compact ? MAX_POINTS_PER_COMPACT_SMS_MESSAGE : POINTS_PER_SMS_MESSAGE, sentKeys);
+            if (sentKeys.isEmpty()) return;
+            Utils.logRemote(TAG, "transmitPoints: %d in queue; sending %s",
+                mOutbox.size(), TextUtils.join(", ", sentKeys));
+            u.sendSms(slot, destination, message,
+                sentIntent.putExtra(EXTRA_SENT_KEYS, Utils.toLongArray(sentKeys)));
+        }
+        mSlotHealthTracker.onSend(slot, Utils.getTime(), mLastMessageId, Utils.toLongArray(sentKeys));
+        adjustBalance(u.getImsi(slot), -numParts, null);
+    }
+
+    /**
+     * Formats the newest points in the outbox that aren't already in flight into
+     * a message of at most maxLength characters and maxPoints points, adding
+     * their keys to sentKeys.
+     */
+    private String formatPoints(boolean compact, int maxLength, int maxPoints, List<Long> sentKeys) {
+        List<Point> points = new ArrayList<>();
+        String message = "";
         for (Long key : mOutbox.keySet()) {
-            message += mOutbox.get(key).format() + "\n";
+            if (mSlotHealthTracker.isKeyInFlight(key)) continue;
+            Point point = mOutbox.get(key);
+            points.add(point);
+            String extended = compact ? PointCodec.encode(points) :
+                message + (message.isEmpty() ? "" : "\n") + point.format();
+            if (extended.length() > maxLength && !sentKeys.isEmpty()) break;
+            message = extended;
             sentKeys.add(key);
-            if (sentKeys.size() >= POINTS_PER_SMS_MESSAGE) break;
+            if (sentKeys.size() >= maxPoints) break;
         }
-        Utils.logRemote(TAG, "transmitPoints: %d in queue; sending %s",
-            mOutbox.size(), TextUtils.join(", ", sentKeys));
-        u.sendSms(slot, destination, message.trim(), new Intent(ACTION_SMS_SENT)
-            .putExtra(EXTRA_SENT_KEYS, Utils.toLongArray(sentKeys))
-            .putExtra(EXTRA_SLOT, slot)
-        );
-        adjustBalance(u.getImsi(slot), -1, null);
-
-        // Next time, try a different slot.  If a text is successfully dispatched,
-        // SmsStatusReceiver will reset mNextSimSlot to 0.
-        mNextSimSlot = (slot + 1) % mNumSimSlots;
+        return message;
     }
 
     private void transmitGpsOutage() {
         if (dailyPointSmsLimitReached()) return;
         transmitOnAllSlots("fleet gpsoutage " + Utils.formatUtcTimeSeconds(Utils.getTime()));
-        incrementDailyPointSmsCount();
+        incrementDailyPointSmsCount(1);
     }
 
     private int getDailyPointSmsCount() {
@@ -508,19 +744,27 @@ public class LocationService extends BaseService implements PointListener {
         return date.equals(countDate) ? u.getIntPref(Prefs.POINT_SMS_COUNT, 0) : 0;
     }
 
+    private int getDailyPointSmsLimit() {
+        return u.getIntPref(Prefs.DAILY_POINT_SMS_LIMIT, 48);
+    }
+
+    private int getRemainingDailyPointSms() {
+        return Math.max(0, getDailyPointSmsLimit() - getDailyPointSmsCount());
+    }
+
     private boolean dailyPointSmsLimitReached() {
         int count = getDailyPointSmsCount();
         Utils.log(TAG, "Point SMS count so far today: " + count);
-        if (count >= u.getIntPref(Prefs.DAILY_POINT_SMS_LIMIT, 48)) {
+        if (count >= getDailyPointSmsLimit()) {
             Utils.logRemote(TAG, "Point SMS limit reached: " + count);
             return true;
         }
         return false;
     }
 
-    private void incrementDailyPointSmsCount() {
+    private void incrementDailyPointSmsCount(int numSms) {
         String localDate = Utils.formatLocalDate();
-        int count = getDailyPointSmsCount() + 1;
+        int count = getDailyPointSmsCount() + numSms;
         u.setPref(Prefs.POINT_SMS_COUNT_LOCAL_DATE, localDate);
         u.setPref(Prefs.POINT_SMS_COUNT, "" + count);
         Utils.logRemote(TAG, "SMS count for %s incremented to: %d", localDate, count);
@@ -530,14 +774,15 @@ public class LocationService extends BaseService implements PointListener {
         String destination = u.getPref(Prefs.DESTINATION_NUMBER);
         if (destination == null) return;
         for (int slot = 0; slot < mNumSimSlots; slot++) {
+            if (u.getSmsManager(slot) == null) continue;  // empty slot
             u.sendSms(slot, destination, message);
         }
     }
 
     private void checkWhetherToPurchaseCredit(int slot) {
         long now = Utils.getTime();
-        if (now < mLastCreditCheckMillis + CREDIT_MANAGEMENT_INTERVAL_MILLIS) return;
-        mLastCreditCheckMillis = now;
+        if (!mWakeupSchedule.isCreditCheckDue()) return;
+        mWakeupSchedule.onCreditCheck();
 
         if (!u.isAccessibilityServiceEnabled(UssdReceiverService.class)) {
             Utils.logRemote(TAG, "Accessibility service not enabled, skipping credit check");
@@ -595,6 +840,9 @@ public class LocationService extends BaseService implements PointListener {
         } finally {
             db.close();
         }
+        if (mSlotHealthTracker != null) {
+            mSlotHealthTracker.setBalance(u.getSlotWithImsi(subscriberId), amount, expirationMillis);
+        }
     }
 
     /**
@@ -617,23 +865,57 @@ public class LocationService extends BaseService implements PointListener {
         }
     }
 
-    /** Ensure the outbox contains no more than MAX_OUTBOX_SIZE entries. */
-    private void limitOutboxSize() {
+    /** Ensure the outbox contains no more than MAX_OUTBOX_SIZE entries, returning the keys removed. */
+    private long[] limitOutboxSize() {
+        List<Long> removedKeys = new ArrayList<>();
         while (mOutbox.size() > MAX_OUTBOX_SIZE) {
-            mOutbox.remove(mOutbox.lastKey());
+            Long key = mOutbox.lastKey();
+            mOutbox.remove(key);
+            removedKeys.add(key);
+        }
+        return Utils.toLongArray(removedKeys);
+    }
+
+    /** Loads the points that a previous run of the service left in the outbox. */
+    private void loadOutbox() {
+        AppDatabase db = AppDatabase.getDatabase(this);
+        try {
+            for (OutboxEntity entry : db.getOutboxDao().getAll()) {
+                mOutbox.put(entry.seconds, entry.toPoint());
+            }
+        } finally {
+            db.close();
+        }
+        Utils.logRemote(TAG, "Loaded %d stored points into the outbox", mOutbox.size());
+    }
+
+    /** Applies additions to and removals from the outbox to the stored copy in one transaction. */
+    private void updateStoredOutbox(Point[] addedPoints, final long[] removedKeys) {
+        final OutboxEntity[] entries = new OutboxEntity[addedPoints.length];
+        for (int i = 0; i < addedPoints.length; i++) {
+            entries[i] = OutboxEntity.fromPoint(addedPoints[i]);
+        }
+        final AppDatabase db = AppDatabase.getDatabase(this);
+        try {
+            db.runInTransaction(new Runnable() {
+                @Override public void run() {
+                    if (removedKeys.length > 0) db.getOutboxDao().delete(removedKeys);
+                    if (entries.length > 0) db.getOutboxDao().put(entries);
+                }
+            });
+        } finally {
+            db.close();
         }
     }
 
     private void checkWhetherToRelaunchApp() {
         // Relaunch daily at a configurable time (default midnight).
-        String relaunchTime = u.getPref(Prefs.DAILY_RELAUNCH_TIME);
-        int relaunchTimeMinutes = Utils.countMinutesSinceMidnight(relaunchTime);
-        int localMinutes = Utils.getLocalMinutesSinceMidnight();
-        if (mLastRelaunchCheckMinutes != relaunchTimeMinutes && localMinutes == relaunchTimeMinutes) {
-            Utils.logRemote(TAG, "Relaunching app (local time of day is %s)", relaunchTime);
+        String relaunchDate = mWakeupSchedule.checkRelaunch(u.getPref(Prefs.LAST_RELAUNCH_DATE));
+        if (relaunchDate != null) {
+            Utils.logRemote(TAG, "Relaunching app (relaunch time is %s)", u.getPref(Prefs.DAILY_RELAUNCH_TIME));
+            u.setPref(Prefs.LAST_RELAUNCH_DATE, relaunchDate);
             u.relaunchApp();
         }
-        mLastRelaunchCheckMinutes = localMinutes;
     }
 
     class SmsStatusReceiver extends BroadcastReceiver {
@@ -643,41 +925,76 @@ public class LocationService extends BaseService implements PointListener {
                 long[] keys = intent.getLongArrayExtra(EXTRA_SENT_KEYS);
                 int slot = intent.getIntExtra(EXTRA_SLOT, 0);
                 long now = Utils.getTime();
-                if (getResultCode() == Activity.RESULT_OK) {
-                    incrementDailyPointSmsCount();
+                boolean succeeded = getResultCode() == Activity.RESULT_OK;
+
+                // A multipart message has succeeded only when every part has.
+                int numParts = intent.getIntExtra(Utils.EXTRA_SMS_NUM_PARTS, 1);
+                long messageId = intent.getLongExtra(EXTRA_MESSAGE_ID, 0);
+                if (numParts > 1) {
+                    MultipartResult result = mMultipartResults.get(messageId);
+                    if (result == null) {
+                        result = new MultipartResult();
+                        mMultipartResults.put(messageId, result);
+                    }
+                    result.numPartsReported++;
+                    result.allPartsSucceeded &= succeeded;
+                    Utils.log(TAG, "Part %d of %d of message %d on slot %d %s",
+                        intent.getIntExtra(Utils.EXTRA_SMS_PART_INDEX, 0) + 1, numParts,
+                        messageId, slot, succeeded ? "sent" : "failed");
+                    if (result.numPartsReported < numParts) return;
+                    mMultipartResults.remove(messageId);
+                    succeeded = result.allPartsSucceeded;
+                }
+
+                if (!mSlotHealthTracker.onResult(slot, now, messageId, succeeded)) {
+                    // The send already timed out and the slot may have moved on to
+                    // another message, so leave the slot's state alone.  If it went
+                    // through after all, its points needn't be sent again.
+                    Utils.logRemote(TAG, "Late status for message %d on slot %d: %s",
+                        messageId, slot, succeeded ? "sent" : "failed");
+                    if (succeeded) {
+                        incrementDailyPointSmsCount(numParts);
+                        for (long key : keys) mOutbox.remove(key);
+                        updateStoredOutbox(new Point[0], keys);
+                        updateNotification();
+                    }
+                } else if (succeeded) {
+                    incrementDailyPointSmsCount(numParts);
                     for (long key : keys) {
                         Utils.logRemote(TAG, "Sent %d on slot %d; removing from outbox", key, slot);
                         mOutbox.remove(key);
                         mLastSmsSentMillis = now;
                         mSmsFailingSinceMillis = null;
-                        mNextSimSlot = 0;
                     }
+                    updateStoredOutbox(new Point[0], keys);
+                    mTransmissionScheduler.onSuccess(
+                        slot, now, mOutbox.size(), getRemainingDailyPointSms());
                     updateNotification();
                 } else {
-                    if (mSmsFailingSinceMillis == null) {
-                        mSmsFailingSinceMillis = now;
-                    }
                     Utils.logRemote(TAG, "Failed to send SMS on slot %d", slot);
-                    mLastFailedTransmissionMillis[slot] = now;
-                    mNextSimSlot = (slot + 1) % mNumSimSlots;
-                    if (now > mLastFailedTransmissionMillis[mNextSimSlot] + TRANSMISSION_INTERVAL_MILLIS) {
-                        mNextTransmissionAttemptMillis[mNextSimSlot] = now;
-                        Utils.logRemote(TAG, "Retrying on slot %d immediately", mNextSimSlot);
-                        checkWhetherToTransmitPoints();
-                    } else {
-                        Utils.logRemote(TAG, "Retrying on slot %d eventually", mNextSimSlot);
-                    }
+                    onSmsFailed(slot, now);
+                    // Retry right away if another slot is available.
+                    checkWhetherToTransmitPoints();
                 }
+                updateSmsWakeLock();
+                scheduleNextWakeup();
             }
         }
     }
 
+    /** Aggregates the sent statuses of the parts of a multipart message. */
+    static class MultipartResult {
+        int numPartsReported = 0;
+        boolean allPartsSucceeded = true;
+    }
+
     class UssdReplyReceiver extends BroadcastReceiver {
         @Override public void onReceive(Context context, Intent intent) {
             String message = intent.getStringExtra(UssdReceiverService.EXTRA_USSD_MESSAGE);
             if (mTransmitNextUssdReplyDestination != null) {
                 message = "fleet ussdreply " + message;
                 for (int slot = 0; slot < mNumSimSlots; slot++) {
+                    if (u.getSmsManager(slot) == null) continue;  // empty slot
                     u.sendSms(slot, mTransmitNextUssdReplyDestination, message);
                 }
                 mTransmitNextUssdReplyDestination = null;
@@ -717,9 +1034,10 @@ public class LocationService extends BaseService implements PointListener {
                 return;
             }
             if (mPoint == null) {
-                if (mLastRecordedPoint != null) {
-                    Utils.log(TAG, "Resending last recorded point: " + mLastRecordedPoint);
-                    mPoint = mLastRecordedPoint;
+                Point lastRecordedPoint = mRecordingSchedule.getLastRecordedPoint();
+                if (lastRecordedPoint != null) {
+                    Utils.log(TAG, "Resending last recorded point: " + lastRecordedPoint);
+                    mPoint = lastRecordedPoint;
                 } else {
                     Utils.log(TAG, "No last recorded point available to send");
                 }
@@ -727,8 +1045,9 @@ public class LocationService extends BaseService implements PointListener {
             if (mPoint != null) {
                 recordPoint(mPoint);
                 mPoint = null;
-                Arrays.fill(mNextTransmissionAttemptMillis, 0);
+                mTransmissionScheduler.allowImmediateAttempts();
                 checkWhetherToTransmitPoints();
+                scheduleNextWakeup();
             }
         }
     }
@@ -774,7 +1093,7 @@ public class LocationService extends BaseService implements PointListener {
         public void onNmeaReceived(long timestamp, String nmeaMessage) {
             String[] fields = ("" + nmeaMessage).split(",");
             String type = fields[0];
-            if (u.getBooleanPref(Prefs.SIMULATE_GPS_OUTAGE)) {
+            if (mPrefs.simulateGpsOutage) {
                 if (type.endsWith("GSA") || type.endsWith("GGA")) {
                     Utils.log(TAG, "Simulating GPS outage");
                     mLocationAdapter.onGpsSignalLost();
@@ -0,0 +1,211 @@
+package ca.zesty.fleetreporter;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/** Appends log lines to a daily log file in external storage, off the caller's thread.
+
+    Opening, appending to, and closing the log file for every line costs a
+    lot of battery and flash wear, since there are several lines per second
+    while the GPS is active.  Instead, write() just adds the line to a
+    bounded queue, without blocking or taking any locks.  A background thread
+    wakes up every DRAIN_INTERVAL_MILLIS (or sooner if the queue is filling
+    up) and appends everything in the queue to the current day's file, which
+    it keeps open.  If the queue is full or the day's file has reached
+    MAX_FILE_BYTES, lines are dropped and counted; the count is written to
+    the file when there is room again.  When a new day's file is opened, the
+    oldest log files are deleted to keep them all within MAX_TOTAL_BYTES.
+
+    Call flush() before the process might exit, to write out pending lines.
+    An uncaught exception handler does this on a crash, before passing the
+    exception on to the handler that was installed before it.
+ */
+public class LogWriter {
+    static final String TAG = "LogWriter";
+    static final int MAX_QUEUED_LINES = 1000;
+    static final long MAX_FILE_BYTES = 20 * 1024 * 1024;
+    static final long MAX_TOTAL_BYTES = 100 * 1024 * 1024;
+    static final long DRAIN_INTERVAL_MILLIS = 2000;
+
+    private static final ConcurrentLinkedQueue<Record> sQueue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger sQueueSize = new AtomicInteger(0);
+    private static final AtomicInteger sNumDropped = new AtomicInteger(0);
+    private static final Object sFileLock = new Object();
+    private static volatile Thread sThread = null;
+
+    // These are accessed only while holding sFileLock.
+    private static File sDirectory = null;
+    private static String sFileDate = null;
+    private static Writer sWriter = null;
+    private static long sFileBytes = 0;
+
+    /** Queues a line to be appended to the log file for the given date (YYYY-MM-DD). */
+    public static void write(String date, String line) {
+        if (sThread == null && !start()) return;
+        if (sQueueSize.incrementAndGet() > MAX_QUEUED_LINES) {
+            sQueueSize.decrementAndGet();
+            sNumDropped.incrementAndGet();
+            return;
+        }
+        sQueue.add(new Record(date, line));
+        if (sQueueSize.get() > MAX_QUEUED_LINES / 2) LockSupport.unpark(sThread);
+    }
+
+    /** Writes all pending lines to the file, blocking until they are written. */
+    public static void flush() {
+        drain(true);
+    }
+
+    /** Returns the number of lines that have been dropped so far. */
+    public static int getNumDropped() {
+        return sNumDropped.get();
+    }
+
+    private static synchronized boolean start() {
+        if (sThread != null) return true;
+        File directory = Utils.getExternalDirectory();
+        if (directory == null) return false;  // fails during testing due to lack of mocks
+        synchronized (sFileLock) {
+            sDirectory = directory;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL_MILLIS));
+                    drain(false);
+                }
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        sThread = thread;
+
+        // The lines leading up to a crash are the ones we most want to keep.
+        final Thread.UncaughtExceptionHandler previousHandler =
+            Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override public void uncaughtException(Thread t, Throwable e) {
+                try {
+                    flush();
+                } catch (Throwable ignored) { }
+                if (previousHandler != null) previousHandler.uncaughtException(t, e);
+            }
+        });
+        return true;
+    }
+
+    private static void drain(boolean forceFlush) {
+        synchronized (sFileLock) {
+            boolean wrote = false;
+            Record record;
+            while ((record = sQueue.poll()) != null) {
+                sQueueSize.decrementAndGet();
+                int numDropped = sNumDropped.get();
+                if (numDropped > 0 && append(record.date, Utils.format(
+                    "%s: (dropped %d log lines)", TAG, numDropped))) {
+                    sNumDropped.addAndGet(-numDropped);
+                }
+                if (!append(record.date, record.line)) sNumDropped.incrementAndGet();
+                wrote = true;
+            }
+            if (sWriter != null && (wrote || forceFlush)) {
+                try {
+                    sWriter.flush();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not flush log file: " + e);
+                    closeFile();
+                }
+            }
+        }
+    }
+
+    /** Appends a line to the file for the given date, returning false if it couldn't. */
+    private static boolean append(String date, String line) {
+        if (!date.equals(sFileDate)) {
+            closeFile();
+            File file = new File(sDirectory, Utils.format("%s-%s.txt", BuildConfig.APPLICATION_ID, date));
+            deleteOldFiles(file);
+            try {
+                sWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), "UTF-8"));
+                sFileDate = date;
+                sFileBytes = file.length();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write to " + file.getAbsolutePath());
+                return false;
+            }
+        }
+        if (sFileBytes >= MAX_FILE_BYTES) return false;
+        try {
+            sWriter.write(line);
+            sWriter.write('\n');
+            sFileBytes += line.length() + 1;
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not append to log file: " + e);
+            closeFile();
+            return false;
+        }
+    }
+
+    /** Deletes the oldest log files until they and a full-size file for today fit in MAX_TOTAL_BYTES. */
+    private static void deleteOldFiles(File currentFile) {
+        final String prefix = BuildConfig.APPLICATION_ID + "-";
+        String[] names = sDirectory.list();
+        if (names == null) return;
+        Arrays.sort(names);  // the dates in the names sort in chronological order
+        long totalBytes = 0;
+        for (String name : names) {
+            if (isLogFileName(prefix, name)) totalBytes += new File(sDirectory, name).length();
+        }
+        totalBytes += Math.max(0, MAX_FILE_BYTES - currentFile.length());
+        for (String name : names) {
+            if (totalBytes <= MAX_TOTAL_BYTES) break;
+            if (!isLogFileName(prefix, name) || name.equals(currentFile.getName())) continue;
+            File file = new File(sDirectory, name);
+            long length = file.length();
+            if (file.delete()) {
+                Log.i(TAG, "Deleted old log file " + name);
+                totalBytes -= length;
+            }
+        }
+    }
+
+    /** Matches the names of the daily files, e.g. ca.zesty.fleetreporter-2018-08-01.txt. */
+    private static boolean isLogFileName(String prefix, String name) {
+        return name.startsWith(prefix) && name.endsWith(".txt") &&
+            name.length() == prefix.length() + "YYYY-MM-DD.txt".length();
+    }
+
+    private static void closeFile() {
+        if (sWriter != null) {
+            try {
+                sWriter.close();
+            } catch (IOException e) { }
+        }
+        sWriter = null;
+        sFileDate = null;
+    }
+
+    private static class Record {
+        final String date;
+        final String line;
+
+        Record(String date, String line) {
+            this.date = date;
+            this.line = line;
+        }
+    }
+}
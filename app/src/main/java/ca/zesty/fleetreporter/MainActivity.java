@@ -115,6 +115,12 @@ public class MainActivity extends BaseActivity {
         }
     }
 
+    @Override public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        // SIM details looked up before READ_PHONE_STATE was granted are incomplete.
+        u.getSubscriptionCache().invalidate();
+    }
+
     @Override protected void onStart() {
         super.onStart();
         mSmsUploader.sendPrefs();
@@ -141,6 +147,7 @@ public class MainActivity extends BaseActivity {
         unregisterReceiver(mPointReceiver);
         unregisterReceiver(mServiceChangedReceiver);
         unregisterReceiver(mAssignmentReceiver);
+        mSmsUploader.close();
         super.onDestroy();
     }
 
@@ -152,7 +159,7 @@ public class MainActivity extends BaseActivity {
     @Override public boolean onPrepareOptionsMenu(Menu menu) {
         menu.findItem(R.id.action_register_additional_numbers).setEnabled(isRegistered());
         menu.findItem(R.id.action_send_diagnostics).setTitle(
-            u.str(R.string.fmt_send_diagnostics_n_left, mSmsUploader.countRemaining())
+            u.str(R.string.fmt_send_diagnostics_n_left, mSmsUploader.getPendingCount())
         );
         return true;
     }
@@ -167,6 +174,7 @@ public class MainActivity extends BaseActivity {
             if (!destination.isEmpty() && !reporterId.isEmpty()) {
                 String simList = "";
                 for (int slot = 0; slot < u.getNumSimSlots(); slot++) {
+                    if (u.getSmsManager(slot) == null) continue;  // empty slot
                     u.sendSms(slot, destination, "fleet activate " + reporterId);
                     simList += "\n  \u2022 SIM " + (slot + 1) + ": " + u.getCarrierName(slot);
                 }
@@ -268,7 +276,9 @@ public class MainActivity extends BaseActivity {
                 );
             } else {
                 u.setText(R.id.speed_details, s.isResting() ?
-                    u.str(R.string.stopped) + "\n" : u.str(R.string.fmt_travelled_dist, distance) + "\n" + u.str(R.string.since_last_stop));
+                    u.str(R.string.stopped) + "\n" + u.str(R.string.fmt_dist_today,
+                        Utils.describeDistance(s.getMetersTravelledToday())) :
+                    u.str(R.string.fmt_travelled_dist, distance) + "\n" + u.str(R.string.since_last_stop));
             }
         }
 
@@ -316,6 +326,7 @@ public class MainActivity extends BaseActivity {
                     mLastDestinationNumber = mobileNumber;
                     try {
                         for (int slot = 0; slot < u.getNumSimSlots(); slot++) {
+                            if (u.getSmsManager(slot) == null) continue;  // empty slot
                             u.sendSms(slot, mobileNumber, "fleet register");
                         }
                     } catch (IllegalArgumentException e) {
@@ -29,47 +29,113 @@ public class MotionListener implements LocationFixListener {
     // accuracy level if the position remains more tightly confined.
     static final double RESTING_MAX_ACCURACY_MULTIPLIER = 2;
 
-    private final Utils u;
     private final PointListener mTarget;
+    private Prefs mPrefs;
     private boolean isResting = false;  // current state, either "resting" or "moving"
     private Long mLastTransitionMillis = null;  // time of last state transition
 
-    private Long mSettlingStartMillis = null;  // non-null iff the last fix was stable
+    // onFix() runs for every GPS fix, so it avoids allocating anything except
+    // the Points it emits: the anchor is a reference to the fix that set it
+    // rather than a copy, and log messages are built only if verbose logging
+    // is enabled (see Utils.isVerboseLogEnabled()).
     private LocationFix mAnchor = null;  // center of the resting circle (time is unused)
-    private LocationFix mLastRestingFix = null;  // last fix that was in resting state
+    private long mSettlingStartMillis;  // start of the settling period; valid iff mAnchor != null
+    private LocationFix mLastRestingAnchor = null;  // anchor as of the last resting fix
+    private long mLastRestingMillis;  // time of the last resting fix; valid iff mLastRestingAnchor != null
+    private Long mReanchorDeadlineMillis = null;  // non-null while re-anchoring a restored state
 
     /** Creates a MotionListener that sends Points to a PointListener. */
     public MotionListener(Utils utils, PointListener target) {
-        u = utils;
         mTarget = target;
+        mPrefs = new Prefs(utils);
+    }
+
+    /** Switches to a new snapshot of the preferences (see LocationService). */
+    public void setPrefs(Prefs prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * Gets a string describing the resting state, to be passed to restoreState()
+     * after the GPS has been off for a while; returns null if we aren't resting.
+     */
+    public String saveState() {
+        if (!isResting || mAnchor == null || mLastRestingAnchor == null) return null;
+        return Utils.format("%d,%d,%d,%s,%s,%s,%s",
+            mLastTransitionMillis, mSettlingStartMillis, mLastRestingMillis,
+            mAnchor.latitude, mAnchor.longitude, mAnchor.altitude, mAnchor.latLonSd);
+    }
+
+    /**
+     * Resumes resting at an anchor saved by saveState().  The first fixes after
+     * the GPS comes back on are often inaccurate, which would look like a
+     * departure; so until an accurate fix arrives or the settling period has
+     * passed, inaccurate fixes are ignored (see reanchor()).  Returns false if
+     * the state can't be parsed.
+     */
+    public boolean restoreState(String state, long now) {
+        String[] parts = state == null ? new String[0] : state.split(",");
+        if (parts.length != 7) return false;
+        try {
+            long lastRestingMillis = Long.parseLong(parts[2]);
+            mAnchor = new LocationFix(lastRestingMillis,
+                Double.parseDouble(parts[3]), Double.parseDouble(parts[4]), Double.parseDouble(parts[5]),
+                0, 0, Double.parseDouble(parts[6]));
+            mLastTransitionMillis = Long.parseLong(parts[0]);
+            mSettlingStartMillis = Long.parseLong(parts[1]);
+            mLastRestingAnchor = mAnchor;
+            mLastRestingMillis = lastRestingMillis;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        isResting = true;
+        mReanchorDeadlineMillis = now + getSettlingPeriodMillis();
+        Utils.logRemote(TAG, "Restored resting state at " + mAnchor);
+        return true;
+    }
+
+    /**
+     * Ignores inaccurate fixes for up to gracePeriodMillis, or until an
+     * accurate fix arrives, if we are resting; called when the GPS has just
+     * been switched back on (e.g. for a burst of fixes while duty-cycling).
+     */
+    public void reanchor(long now, long gracePeriodMillis) {
+        if (isResting) mReanchorDeadlineMillis = now + gracePeriodMillis;
     }
 
     @Override public void onFix(LocationFix fix) {
-        String description = "" + fix;
-        if (fix != null) description += mAnchor == null ? " (no anchor)" :
-            Utils.format(" (%.0f m from anchor, settled %d s)",
-                fix.distanceTo(mAnchor), (fix.timeMillis - mSettlingStartMillis)/1000);
-        Utils.log(TAG, "onFix: " + description);
         if (fix == null) {
+            if (Utils.isVerboseLogEnabled()) Utils.log(TAG, "onFix: null");
             emitNullPoint();
             return;
         }
+        // The squared distance from the anchor as it was before this fix, or NaN if none.
+        // The resting radius is small, so a flat-earth distance is plenty accurate.
+        double anchorDistanceSq = mAnchor == null ? Double.NaN : mAnchor.localDistanceSquaredTo(fix);
+        if (Utils.isVerboseLogEnabled()) Utils.log(TAG, "onFix: " + describe(fix, anchorDistanceSq));
         if (mLastTransitionMillis == null)
             mLastTransitionMillis = fix.timeMillis;
+        if (mReanchorDeadlineMillis != null) {
+            if (fix.timeMillis < mReanchorDeadlineMillis &&
+                !isAccurate(fix) && !isContinuingToRest(anchorDistanceSq, fix)) {
+                if (Utils.isVerboseLogEnabled()) Utils.log(TAG, "Waiting for an accurate fix to re-anchor");
+                return;
+            }
+            mReanchorDeadlineMillis = null;
+        }
 
         // Decide whether we are "settling" (waiting to see if we stay within a
         // small radius around a selected anchor point for a "settling period").
         boolean enteredSettlingPeriod = false;
-        if (isStable(fix) || isContinuingToRest(mAnchor, fix)) {
-            if (mSettlingStartMillis != null && isContinuingToRest(mAnchor, fix) ||
-                withinRestingRadius(mAnchor, fix)) {
+        if (isStable(fix) || isContinuingToRest(anchorDistanceSq, fix)) {
+            if (isContinuingToRest(anchorDistanceSq, fix) || withinRestingRadius(anchorDistanceSq)) {
                 // We're staying near the anchor; leave the anchor there and
                 // keep waiting for our position to settle.
                 enteredSettlingPeriod = true;
             } else {
                 // We don't have an anchor or we've moved too far from the anchor;
                 // drop a new anchor here and start a new settling period.
-                Utils.logRemote(TAG, "Drifted too far from anchor: " + description);
+                Utils.logRemote(TAG, "Drifted too far from anchor: " + describe(fix, anchorDistanceSq));
                 mAnchor = fix;
                 mSettlingStartMillis = fix.timeMillis;
                 enteredSettlingPeriod = false;
@@ -83,9 +149,8 @@ public class MotionListener implements LocationFixListener {
                 mAnchor = fix;
             }
         } else {
-            if (mAnchor != null) Utils.logRemote(TAG, "Abandoned anchor: " + description);
+            if (mAnchor != null) Utils.logRemote(TAG, "Abandoned anchor: " + describe(fix, anchorDistanceSq));
             mAnchor = null;
-            mSettlingStartMillis = null;
         }
 
         // Decide if we need to transition to resting or moving.
@@ -99,7 +164,7 @@ public class MotionListener implements LocationFixListener {
         } else if (isResting && !nextResting) {
             // The resting segment actually ended a little bit in the past,
             // at the last fix that met the conditions for resting.
-            emitPoint(mLastRestingFix, Point.Type.GO);
+            emitPoint(mLastRestingAnchor.withTime(mLastRestingMillis), Point.Type.GO);
         } else if (isResting) {
             emitPoint(mAnchor.withTime(fix.timeMillis), Point.Type.RESTING);
         } else {
@@ -111,7 +176,15 @@ public class MotionListener implements LocationFixListener {
         isResting = nextResting;
 
         // Keep track of the last anchor that met the conditions for resting.
-        mLastRestingFix = isResting ? mAnchor.withTime(fix.timeMillis) : null;
+        mLastRestingAnchor = isResting ? mAnchor : null;
+        mLastRestingMillis = fix.timeMillis;
+    }
+
+    /** Describes a fix and its relation to the anchor, for logging. */
+    private String describe(LocationFix fix, double anchorDistanceSq) {
+        return fix + (mAnchor == null ? " (no anchor)" :
+            Utils.format(" (%.0f m from anchor, settled %d s)",
+                Math.sqrt(anchorDistanceSq), (fix.timeMillis - mSettlingStartMillis)/1000));
     }
 
     private void emitNullPoint() {
@@ -133,10 +206,14 @@ public class MotionListener implements LocationFixListener {
     }
 
     private boolean isStable(LocationFix fix) {
-        return fix.speedKmh < getStableMaxSpeed() && fix.latLonSd < getStableMaxAccuracy();
+        return fix.speedKmh < getStableMaxSpeed() && isAccurate(fix);
+    }
+
+    private boolean isAccurate(LocationFix fix) {
+        return fix.latLonSd < getStableMaxAccuracy();
     }
 
-    private boolean isContinuingToRest(LocationFix anchor, LocationFix fix) {
+    private boolean isContinuingToRest(double anchorDistanceSq, LocationFix fix) {
         // Once resting is established, the resting state can continue with a
         // looser accuracy bound in exchange for a tighter position bound.
         // The accuracy bound is allowed to flex by a factor of
@@ -145,31 +222,32 @@ public class MotionListener implements LocationFixListener {
         // This corner case was added because we observed GPS readings with
         // very little position change (< 3 m) while the accuracy value slowly
         // increased from 30 m to 80-90 m, for an entirely stationary reporter.
-        if (anchor == null || fix == null) return false;
+        if (Double.isNaN(anchorDistanceSq)) return false;
         double multiplier = Utils.clamp(
             1.0 / RESTING_MAX_ACCURACY_MULTIPLIER, RESTING_MAX_ACCURACY_MULTIPLIER,
             fix.latLonSd / getStableMaxAccuracy());
+        double radius = getRestingRadius() / multiplier;
         return fix.latLonSd < getStableMaxAccuracy() * multiplier &&
-            anchor.distanceTo(fix) < getRestingRadius() / multiplier;
+            anchorDistanceSq < radius * radius;
     }
 
-    private boolean withinRestingRadius(LocationFix fix1, LocationFix fix2) {
-        return fix1 != null && fix2 != null && fix1.distanceTo(fix2) < getRestingRadius();
+    private boolean withinRestingRadius(double anchorDistanceSq) {
+        return anchorDistanceSq < getRestingRadius() * getRestingRadius();  // false if NaN
     }
 
     private long getSettlingPeriodMillis() {
-        return u.getMinutePrefInMillis(Prefs.SETTLING_PERIOD, DEFAULT_SETTLING_PERIOD_MINUTES);
+        return mPrefs.settlingPeriodMillis;
     }
 
     private double getRestingRadius() {
-        return u.getFloatPref(Prefs.RESTING_RADIUS, DEFAULT_RESTING_RADIUS);
+        return mPrefs.restingRadius;
     }
 
     private double getStableMaxAccuracy() {
-        return u.getFloatPref(Prefs.STABLE_MAX_ACCURACY, DEFAULT_STABLE_MAX_ACCURACY);
+        return mPrefs.stableMaxAccuracy;
     }
 
     private double getStableMaxSpeed() {
-        return u.getFloatPref(Prefs.STABLE_MAX_SPEED, DEFAULT_STABLE_MAX_SPEED);
+        return mPrefs.stableMaxSpeed;
     }
 }
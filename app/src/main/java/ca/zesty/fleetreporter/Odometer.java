@@ -0,0 +1,98 @@
+package ca.zesty.fleetreporter;
+
+/** Measures the distance travelled, by adding up the lengths of the steps
+    between consecutive moving Points.
+
+    Only steps that end in a GO or MOVING point are counted, so the distance
+    stops growing as soon as the MotionListener decides that we are resting.
+    GPS jitter while moving slowly or waiting to settle is rejected by
+    skipping steps that end in a fix slower than MIN_SPEED_KMH, and glitches
+    are rejected by skipping steps whose implied speed exceeds MAX_SPEED_KMH.
+    The fixes are expected to come from the KalmanFilter, so that summing
+    every step follows curves closely without adding up position noise.
+
+    Three totals are kept: the total distance ever travelled (which goes out
+    with each transmitted point), the distance travelled on the current
+    local date, and the distance travelled since the last stop.  They are
+    saved with saveState() and restored with restoreState() so that they
+    survive restarts of the service.
+ */
+public class Odometer {
+    static final double MIN_SPEED_KMH = 3;
+    static final double MAX_SPEED_KMH = 300;
+
+    private LocationFix mLastFix = null;  // end of the last step, or null if resting
+    private double mTotalMeters = 0;
+    private double mDayMeters = 0;
+    private String mLocalDate = null;  // local date for mDayMeters, as yyyy-mm-dd
+    private double mTripMeters = 0;
+
+    /** Starts a new daily total if the local date (yyyy-mm-dd) has changed. */
+    public void setLocalDate(String localDate) {
+        if (!localDate.equals(mLocalDate)) {
+            mLocalDate = localDate;
+            mDayMeters = 0;
+        }
+    }
+
+    /** Adds the step to a Point from the MotionListener, if it was a move. */
+    public void onPoint(Point point) {
+        if (point == null) return;  // keep mLastFix; the gap is bridged by the next step
+        if (point.type == Point.Type.GO) {
+            mTripMeters = 0;
+            mLastFix = point.fix;
+        } else if (point.type == Point.Type.MOVING) {
+            if (mLastFix != null) addStep(mLastFix, point.fix);
+            mLastFix = point.fix;
+        } else {
+            mLastFix = null;
+        }
+    }
+
+    private void addStep(LocationFix start, LocationFix end) {
+        double seconds = (end.timeMillis - start.timeMillis) / 1000.0;
+        if (seconds <= 0 || end.speedKmh < MIN_SPEED_KMH) return;
+        double meters = start.localDistanceTo(end);
+        if (meters / seconds * 3.6 > MAX_SPEED_KMH) return;  // 1 m/s = 3.6 km/h
+        mTotalMeters += meters;
+        mDayMeters += meters;
+        mTripMeters += meters;
+    }
+
+    public double getTotalMeters() {
+        return mTotalMeters;
+    }
+
+    /** Gets the distance travelled on the local date last passed to setLocalDate(). */
+    public double getDayMeters() {
+        return mDayMeters;
+    }
+
+    /** Gets the distance travelled since the last stop. */
+    public double getTripMeters() {
+        return mTripMeters;
+    }
+
+    /** Gets a string describing the totals, to be passed to restoreState(). */
+    public String saveState() {
+        return Utils.format("%.1f,%.1f,%s,%.1f", mTotalMeters, mDayMeters, mLocalDate, mTripMeters);
+    }
+
+    /** Restores the totals saved by saveState(); returns false if the state can't be parsed. */
+    public boolean restoreState(String state) {
+        String[] parts = state == null ? new String[0] : state.split(",");
+        if (parts.length != 4) return false;
+        try {
+            double totalMeters = Double.parseDouble(parts[0]);
+            double dayMeters = Double.parseDouble(parts[1]);
+            double tripMeters = Double.parseDouble(parts[3]);
+            mTotalMeters = totalMeters;
+            mDayMeters = dayMeters;
+            mLocalDate = parts[2].equals("null") ? null : parts[2];
+            mTripMeters = tripMeters;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+}
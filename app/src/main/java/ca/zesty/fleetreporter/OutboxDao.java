@@ -0,0 +1,20 @@
+package ca.zesty.fleetreporter;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface OutboxDao {
+    @Query("select * from outbox order by seconds desc")
+    List<OutboxEntity> getAll();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void put(OutboxEntity... entries);
+
+    @Query("delete from outbox where seconds in (:keys)")
+    int delete(long[] keys);
+}
@@ -0,0 +1,57 @@
+package ca.zesty.fleetreporter;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+
+/** A persistent copy of a Point waiting in the outbox, keyed by its time in seconds. */
+@Entity(tableName = "outbox")
+public class OutboxEntity {
+    @PrimaryKey
+    @ColumnInfo(name = "seconds") public long seconds;
+    @ColumnInfo(name = "time_millis") public long timeMillis;
+    @ColumnInfo(name = "latitude") public double latitude;
+    @ColumnInfo(name = "longitude") public double longitude;
+    @ColumnInfo(name = "altitude") public double altitude;
+    @ColumnInfo(name = "speed_kmh") public double speedKmh;
+    @ColumnInfo(name = "bearing") public double bearing;
+    @ColumnInfo(name = "lat_lon_sd") public double latLonSd;
+    @ColumnInfo(name = "type") public String type;
+    @ColumnInfo(name = "last_transition_millis") public long lastTransitionMillis;
+    @ColumnInfo(name = "odometer_meters") public Long odometerMeters;
+
+    public OutboxEntity(
+        long seconds, long timeMillis, double latitude, double longitude,
+        double altitude, double speedKmh, double bearing, double latLonSd,
+        String type, long lastTransitionMillis, Long odometerMeters) {
+        this.seconds = seconds;
+        this.timeMillis = timeMillis;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.speedKmh = speedKmh;
+        this.bearing = bearing;
+        this.latLonSd = latLonSd;
+        this.type = type;
+        this.lastTransitionMillis = lastTransitionMillis;
+        this.odometerMeters = odometerMeters;
+    }
+
+    public static OutboxEntity fromPoint(Point point) {
+        LocationFix fix = point.fix;
+        return new OutboxEntity(
+            point.getSeconds(), fix.timeMillis, fix.latitude, fix.longitude,
+            fix.altitude, fix.speedKmh, fix.bearing, fix.latLonSd,
+            point.type.name(), point.lastTransitionMillis, point.odometerMeters
+        );
+    }
+
+    public Point toPoint() {
+        return new Point(
+            new LocationFix(timeMillis, latitude, longitude, altitude, speedKmh, bearing, latLonSd),
+            Point.Type.valueOf(type),
+            lastTransitionMillis,
+            odometerMeters
+        );
+    }
+}
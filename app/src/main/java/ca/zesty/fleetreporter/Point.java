@@ -33,12 +33,18 @@ public class Point implements Parcelable {
     enum Type { RESTING, MOVING, GO, STOP };
     public final Type type;
     public final long lastTransitionMillis;  // ms since 1970-01-01 00:00:00 UTC
+    public final Long odometerMeters;  // total distance travelled (see Odometer), or null
 
     public Point(LocationFix fix, Type type, Long lastTransitionMillis) {
+        this(fix, type, lastTransitionMillis, null);
+    }
+
+    public Point(LocationFix fix, Type type, Long lastTransitionMillis, Long odometerMeters) {
         this.fix = fix;
         this.type = type;
         this.lastTransitionMillis = lastTransitionMillis == null ?
             fix.timeMillis : Math.min(fix.timeMillis, lastTransitionMillis);
+        this.odometerMeters = odometerMeters;
     }
 
     public boolean equals(Object otherObject) {
@@ -46,7 +52,9 @@ public class Point implements Parcelable {
         Point other = (Point) otherObject;
         return fix.equals(other.fix) &&
             lastTransitionMillis == other.lastTransitionMillis &&
-            type == other.type;
+            type == other.type &&
+            (odometerMeters == null ? other.odometerMeters == null :
+                odometerMeters.equals(other.odometerMeters));
     }
 
     public boolean isTransition() {
@@ -65,7 +73,11 @@ public class Point implements Parcelable {
     }
 
     public Point withFix(LocationFix fix) {
-        return new Point(fix, this.type, this.lastTransitionMillis);
+        return new Point(fix, this.type, this.lastTransitionMillis, this.odometerMeters);
+    }
+
+    public Point withOdometer(Long odometerMeters) {
+        return new Point(this.fix, this.type, this.lastTransitionMillis, odometerMeters);
     }
 
     /** Formats a point for readability and debugging. */
@@ -97,7 +109,8 @@ public class Point implements Parcelable {
             return new Point(
                 (LocationFix) parcel.readParcelable(LocationFix.class.getClassLoader()),
                 Type.valueOf(parcel.readString()),
-                parcel.readLong()
+                parcel.readLong(),
+                (Long) parcel.readValue(Long.class.getClassLoader())
             );
         }
 
@@ -114,5 +127,6 @@ public class Point implements Parcelable {
         out.writeParcelable(fix, 0);
         out.writeString(type.name());
         out.writeLong(lastTransitionMillis);
+        out.writeValue(odometerMeters);
     }
 }
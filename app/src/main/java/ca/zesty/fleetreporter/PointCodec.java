@@ -0,0 +1,212 @@
+package ca.zesty.fleetreporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A compact encoding for sending many Points in one SMS message.
+
+    Point.format() spends up to 67 characters on each point, which limits a
+    160-character SMS message to two points.  This encoding packs six to ten
+    typical points into the same space, at the same precision as format().
+
+    A message consists of HEADER followed by a sequence of integers, each
+    written as a variable-length string of characters from ALPHABET.  Each
+    character carries 5 bits of the value, least significant bits first,
+    plus a continuation bit; signed values are zigzag-encoded so that small
+    negative numbers stay short.  The first point in the message is written
+    with absolute values; the time, latitude, longitude, and altitude of every
+    subsequent point are written as differences from the first point.
+
+    The integers for each point are, in order:
+      - seconds since EPOCH_SECONDS (first point) or from the first point
+      - latitude in units of 1e-5 degrees (absolute or difference)
+      - longitude in units of 1e-5 degrees (absolute or difference)
+      - altitude in meters (absolute or difference)
+      - speed in km/h
+      - bearing in degrees * 4 + index of the point type in TYPES
+      - latLonSd in meters
+      - segment duration in seconds
+      - in version 2 only, the odometer reading in units of ODOMETER_UNIT_METERS
+        (absolute or difference)
+
+    Version 2 (HEADER_WITH_ODOMETER) is used when every point in the message
+    has an odometer reading; otherwise the message is written in version 1.
+
+    All characters are in the GSM 03.38 default alphabet, so the message
+    can be sent with 7-bit encoding at the full 160 characters.
+ */
+public class PointCodec {
+    static final String HEADER = "*1";  // marker and version number
+    static final String HEADER_WITH_ODOMETER = "*2";
+    static final long ODOMETER_UNIT_METERS = 10;
+    static final String ALPHABET =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-_";
+    static final long EPOCH_SECONDS = 1514764800L;  // 2018-01-01 00:00:00 UTC
+    static final double DEGREE_UNITS = 1e5;
+    static final Point.Type[] TYPES = {
+        Point.Type.RESTING, Point.Type.MOVING, Point.Type.GO, Point.Type.STOP
+    };
+    private static final int VALUE_BITS = 5;
+    private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
+    private static final int CONTINUATION_BIT = 1 << VALUE_BITS;
+
+    /** Encodes a list of points into a message string. */
+    public static String encode(List<Point> points) {
+        boolean withOdometer = !points.isEmpty();
+        for (Point point : points) {
+            if (point.odometerMeters == null) withOdometer = false;
+        }
+        StringBuilder builder = new StringBuilder(withOdometer ? HEADER_WITH_ODOMETER : HEADER);
+        long firstSeconds = 0;
+        long firstLat = 0;
+        long firstLon = 0;
+        long firstAlt = 0;
+        long firstOdometer = 0;
+        for (int i = 0; i < points.size(); i++) {
+            Point point = points.get(i);
+            long seconds = point.getSeconds() - EPOCH_SECONDS;
+            long lat = Math.round(Utils.clamp(-90, 90, point.fix.latitude) * DEGREE_UNITS);
+            long lon = Math.round(Utils.clamp(-180, 180, point.fix.longitude) * DEGREE_UNITS);
+            long alt = Utils.clamp(-9999, 9999, Math.round(point.fix.altitude));
+            if (i == 0) {
+                firstSeconds = seconds;
+                firstLat = lat;
+                firstLon = lon;
+                firstAlt = alt;
+                writeSigned(builder, seconds);
+                writeSigned(builder, lat);
+                writeSigned(builder, lon);
+                writeSigned(builder, alt);
+            } else {
+                writeSigned(builder, seconds - firstSeconds);
+                writeSigned(builder, lat - firstLat);
+                writeSigned(builder, lon - firstLon);
+                writeSigned(builder, alt - firstAlt);
+            }
+            long bearing = Utils.clamp(0, 360, Math.round(point.fix.bearing)) % 360;
+            writeUnsigned(builder, Utils.clamp(0, 999, Math.round(point.fix.speedKmh)));
+            writeUnsigned(builder, bearing * TYPES.length + getTypeIndex(point.type));
+            writeUnsigned(builder, Utils.clamp(0, 9999, Math.round(point.fix.latLonSd)));
+            writeUnsigned(builder, Utils.clamp(0, 99999, point.getSegmentSeconds()));
+            if (withOdometer) {
+                long odometer = Math.max(0, point.odometerMeters / ODOMETER_UNIT_METERS);
+                if (i == 0) {
+                    firstOdometer = odometer;
+                    writeUnsigned(builder, odometer);
+                } else {
+                    writeSigned(builder, odometer - firstOdometer);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /** Decodes a message string into a list of points, or returns null if the message is invalid. */
+    public static List<Point> decode(String message) {
+        if (message == null) return null;
+        boolean withOdometer = message.startsWith(HEADER_WITH_ODOMETER);
+        if (!withOdometer && !message.startsWith(HEADER)) return null;
+        List<Point> points = new ArrayList<>();
+        Reader reader = new Reader(message, HEADER.length());
+        long firstSeconds = 0;
+        long firstLat = 0;
+        long firstLon = 0;
+        long firstAlt = 0;
+        long firstOdometer = 0;
+        try {
+            while (!reader.isAtEnd()) {
+                long seconds = reader.readSigned();
+                long lat = reader.readSigned();
+                long lon = reader.readSigned();
+                long alt = reader.readSigned();
+                if (points.isEmpty()) {
+                    firstSeconds = seconds;
+                    firstLat = lat;
+                    firstLon = lon;
+                    firstAlt = alt;
+                } else {
+                    seconds += firstSeconds;
+                    lat += firstLat;
+                    lon += firstLon;
+                    alt += firstAlt;
+                }
+                long speedKmh = reader.readUnsigned();
+                long bearingAndType = reader.readUnsigned();
+                long latLonSd = reader.readUnsigned();
+                long segmentSeconds = reader.readUnsigned();
+                Long odometerMeters = null;
+                if (withOdometer) {
+                    long odometer = points.isEmpty() ? reader.readUnsigned() : reader.readSigned();
+                    if (points.isEmpty()) firstOdometer = odometer;
+                    else odometer += firstOdometer;
+                    odometerMeters = odometer * ODOMETER_UNIT_METERS;
+                }
+
+                long timeMillis = (seconds + EPOCH_SECONDS) * 1000;
+                LocationFix fix = new LocationFix(
+                    timeMillis, lat / DEGREE_UNITS, lon / DEGREE_UNITS, alt,
+                    speedKmh, bearingAndType / TYPES.length, latLonSd
+                );
+                Point.Type type = TYPES[(int) (bearingAndType % TYPES.length)];
+                points.add(new Point(fix, type, timeMillis - segmentSeconds * 1000, odometerMeters));
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return points;
+    }
+
+    private static int getTypeIndex(Point.Type type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type) return i;
+        }
+        throw new IllegalArgumentException("Unknown point type " + type);
+    }
+
+    private static void writeSigned(StringBuilder builder, long value) {
+        writeUnsigned(builder, (value << 1) ^ (value >> 63));  // zigzag encoding
+    }
+
+    private static void writeUnsigned(StringBuilder builder, long value) {
+        do {
+            int bits = (int) (value & VALUE_MASK);
+            value >>>= VALUE_BITS;
+            builder.append(ALPHABET.charAt(value != 0 ? bits | CONTINUATION_BIT : bits));
+        } while (value != 0);
+    }
+
+    /** Reads variable-length integers from a message string. */
+    private static class Reader {
+        private final String message;
+        private int index;
+
+        Reader(String message, int start) {
+            this.message = message;
+            this.index = start;
+        }
+
+        boolean isAtEnd() {
+            return index >= message.length();
+        }
+
+        long readSigned() {
+            long value = readUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readUnsigned() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (isAtEnd() || shift > 60) {
+                    throw new IllegalArgumentException("Truncated message");
+                }
+                int digit = ALPHABET.indexOf(message.charAt(index++));
+                if (digit < 0) throw new IllegalArgumentException("Invalid character");
+                value |= (long) (digit & VALUE_MASK) << shift;
+                shift += VALUE_BITS;
+                if ((digit & CONTINUATION_BIT) == 0) return value;
+            }
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package ca.zesty.fleetreporter;
 
-/** Shared preference keys. */
+/** Shared preference keys, and an immutable snapshot of the preference values
+    that are read on every location fix or NMEA sentence.  Reading a value
+    from SharedPreferences means a map lookup and often a failed cast and a
+    parse, so instead LocationService builds a new Prefs whenever a preference
+    changes and hands it to the listeners on the GPS path.
+ */
 public class Prefs {
+    static final String COMPACT_POINT_ENCODING = "pref_compact_point_encoding";
     static final String DAILY_POINT_SMS_LIMIT = "pref_daily_point_sms_limit";
     static final String DAILY_RELAUNCH_TIME = "pref_daily_relaunch_time";
     static final String DESTINATION_NUMBER = "pref_destination_number";
+    static final String LAST_RELAUNCH_DATE = "pref_last_relaunch_date";  // see LocationService.checkWhetherToRelaunchApp()
+    static final String MOTION_STATE = "pref_motion_state";  // see MotionListener.saveState()
+    static final String ODOMETER = "pref_odometer";  // see Odometer.saveState()
     static final String PLAY_STORE_REQUESTED = "pref_play_store_requested";
     static final String POINT_SMS_COUNT = "pref_point_sms_count";
     static final String POINT_SMS_COUNT_LOCAL_DATE = "pref_point_sms_count_local_date";
@@ -16,20 +25,27 @@ public class Prefs {
     static final String REPORTER_LABEL = "pref_reporter_label";
     static final String RUNNING = "pref_running";
     static final String RESTING_RADIUS = "pref_resting_radius";
+    static final String SENT_INTENT_REQUEST_CODE = "pref_sent_intent_request_code";  // see Utils.getSentIntent()
     static final String SETTLING_PERIOD = "pref_settling_period";
     static final String SHOW_LOG = "pref_show_log";
     static final String SIMULATE_GPS_OUTAGE = "pref_simulate_gps_outage";
     static final String SLEEP_START = "pref_sleep_start";
     static final String SLEEP_END = "pref_sleep_end";
+    static final String SMS_HISTORY_POST = "pref_sms_history_post";
     static final String SMS_HISTORY_UPLOAD_TIMESTAMP = "pref_sms_history_upload_timestamp";
     static final String SMS_PURCHASE_INTERVAL = "pref_sms_purchase_interval";
     static final String STABLE_MAX_ACCURACY = "pref_stable_max_accuracy";
     static final String STABLE_MAX_SPEED = "pref_stable_max_speed";
+    static final String VERBOSE_LOG = "pref_verbose_log";
 
     static final String[] KEYS = new String[] {
+        COMPACT_POINT_ENCODING,
         DAILY_POINT_SMS_LIMIT,
         DAILY_RELAUNCH_TIME,
         DESTINATION_NUMBER,
+        LAST_RELAUNCH_DATE,
+        MOTION_STATE,
+        ODOMETER,
         PLAY_STORE_REQUESTED,
         POINT_SMS_COUNT,
         POINT_SMS_COUNT_LOCAL_DATE,
@@ -41,14 +57,64 @@ public class Prefs {
         REPORTER_LABEL,
         RUNNING,
         RESTING_RADIUS,
+        SENT_INTENT_REQUEST_CODE,
         SETTLING_PERIOD,
         SHOW_LOG,
         SIMULATE_GPS_OUTAGE,
         SLEEP_START,
         SLEEP_END,
+        SMS_HISTORY_POST,
         SMS_HISTORY_UPLOAD_TIMESTAMP,
         SMS_PURCHASE_INTERVAL,
         STABLE_MAX_ACCURACY,
         STABLE_MAX_SPEED,
+        VERBOSE_LOG,
     };
+
+    /** Keys that the app writes to save its own state, not settings chosen by the user. */
+    static final String[] STATE_KEYS = new String[] {
+        LAST_RELAUNCH_DATE,
+        MOTION_STATE,
+        ODOMETER,
+        PLAY_STORE_REQUESTED,
+        POINT_SMS_COUNT,
+        POINT_SMS_COUNT_LOCAL_DATE,
+        SENT_INTENT_REQUEST_CODE,
+        SMS_HISTORY_UPLOAD_TIMESTAMP,
+    };
+
+    /** Returns true if a key holds saved state rather than a setting. */
+    static boolean isStateKey(String key) {
+        for (String stateKey : STATE_KEYS) {
+            if (stateKey.equals(key)) return true;
+        }
+        return false;
+    }
+
+    public final long settlingPeriodMillis;
+    public final double restingRadius;  // meters
+    public final double stableMaxAccuracy;  // meters
+    public final double stableMaxSpeed;  // km/h
+    public final boolean simulateGpsOutage;
+    public final boolean compactPointEncoding;
+    public final long recordingIntervalAfterGoMillis;
+    public final long recordingIntervalMovingMillis;
+    public final long recordingIntervalRestingMillis;
+    public final long reportingIntervalGpsOutageMillis;
+    public final boolean verboseLog;
+
+    /** Reads the current preference values. */
+    public Prefs(Utils u) {
+        settlingPeriodMillis = u.getMinutePrefInMillis(SETTLING_PERIOD, MotionListener.DEFAULT_SETTLING_PERIOD_MINUTES);
+        restingRadius = u.getFloatPref(RESTING_RADIUS, MotionListener.DEFAULT_RESTING_RADIUS);
+        stableMaxAccuracy = u.getFloatPref(STABLE_MAX_ACCURACY, MotionListener.DEFAULT_STABLE_MAX_ACCURACY);
+        stableMaxSpeed = u.getFloatPref(STABLE_MAX_SPEED, MotionListener.DEFAULT_STABLE_MAX_SPEED);
+        simulateGpsOutage = u.getBooleanPref(SIMULATE_GPS_OUTAGE);
+        compactPointEncoding = u.getBooleanPref(COMPACT_POINT_ENCODING);
+        recordingIntervalAfterGoMillis = u.getMinutePrefInMillis(RECORDING_INTERVAL_AFTER_GO, 2);
+        recordingIntervalMovingMillis = u.getMinutePrefInMillis(RECORDING_INTERVAL_MOVING, 10);
+        recordingIntervalRestingMillis = u.getMinutePrefInMillis(RECORDING_INTERVAL_RESTING, 30);
+        reportingIntervalGpsOutageMillis = u.getMinutePrefInMillis(REPORTING_INTERVAL_GPS_OUTAGE, 30);
+        verboseLog = u.getBooleanPref(VERBOSE_LOG);
+    }
 }
@@ -0,0 +1,60 @@
+package ca.zesty.fleetreporter;
+
+/** Decides when LocationService should record the latest point into the outbox.
+
+    Transitions (GO and STOP points) are recorded immediately.  Otherwise, a
+    point is recorded once the recording interval for the type of the last
+    recorded point has elapsed since that point's fix time, so the intervals
+    are the maximum gaps between recorded fix times.  All times are passed in
+    by the caller, so the schedule can be driven by a simulated clock.
+ */
+public class RecordingSchedule {
+    private Prefs mPrefs;
+    private Point mLastRecordedPoint = null;
+
+    public RecordingSchedule(Prefs prefs) {
+        mPrefs = prefs;
+    }
+
+    /** Switches to a new snapshot of the preferences. */
+    public void setPrefs(Prefs prefs) {
+        mPrefs = prefs;
+    }
+
+    /** Forgets the last recorded point, so the next point is recorded right away. */
+    public void reset() {
+        mLastRecordedPoint = null;
+    }
+
+    public Point getLastRecordedPoint() {
+        return mLastRecordedPoint;
+    }
+
+    /** Returns the time that we're next scheduled to record a point. */
+    public long getNextRecordingMillis(long now) {
+        if (mLastRecordedPoint == null) return now;
+        return mLastRecordedPoint.fix.timeMillis + getIntervalMillis(mLastRecordedPoint.type);
+    }
+
+    /** Returns true if the given point should be recorded now. */
+    public boolean isDue(Point point, long now) {
+        return point.isTransition() || now >= getNextRecordingMillis(now);
+    }
+
+    /** Notes that a point has been recorded. */
+    public void onRecord(Point point) {
+        mLastRecordedPoint = point;
+    }
+
+    private long getIntervalMillis(Point.Type type) {
+        switch (type) {
+            case RESTING:
+            case STOP:
+                return mPrefs.recordingIntervalRestingMillis;
+            case GO:
+                return mPrefs.recordingIntervalAfterGoMillis;
+            default:
+                return mPrefs.recordingIntervalMovingMillis;
+        }
+    }
+}
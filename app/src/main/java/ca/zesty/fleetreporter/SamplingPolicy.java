@@ -0,0 +1,111 @@
+package ca.zesty.fleetreporter;
+
+/** Decides how often LocationService should ask for GPS fixes, given the motion state.
+
+    While moving or settling, fixes are requested every FAST_INTERVAL_MILLIS
+    so that stops and starts are detected promptly.  Once resting, fixes are
+    needed only to notice a departure.  If the device has a significant-motion
+    sensor, the GPS is turned off while resting, except for a burst of fast
+    fixes lasting BURST_LENGTH_MILLIS at the end of every BURST_PERIOD_MILLIS
+    (to catch any departure the sensor misses and to refresh the resting
+    point); when the sensor fires, a burst starts at once.  The GPS starts
+    cold for each burst and may take a while to get an accurate fix, so a
+    burst with no usable fix (see onFix) is extended until one arrives, up
+    to MAX_BURST_LENGTH_MILLIS in all.  Without such a sensor, fixes are
+    requested continuously at RESTING_INTERVAL_MILLIS.
+    All times are passed in by the caller, so the policy can be driven by a
+    simulated clock.
+ */
+public class SamplingPolicy {
+    static final long SECOND = 1000;
+    static final long MINUTE = 60 * SECOND;
+    static final long FAST_INTERVAL_MILLIS = SECOND;
+    static final long RESTING_INTERVAL_MILLIS = 10 * SECOND;
+    static final long BURST_PERIOD_MILLIS = 5 * MINUTE;
+    static final long BURST_LENGTH_MILLIS = 20 * SECOND;
+    static final long MAX_BURST_LENGTH_MILLIS = 60 * SECOND;
+
+    private final boolean mHasMotionTrigger;
+    private Long mRestingSinceMillis = null;  // null while moving or settling
+    private long mLastUsableFixMillis = 0;
+
+    public SamplingPolicy(boolean hasMotionTrigger) {
+        mHasMotionTrigger = hasMotionTrigger;
+    }
+
+    /** Updates the motion state from a non-provisional Point from the MotionListener. */
+    public void onPoint(Point point, long now) {
+        if (point.type == Point.Type.STOP || point.type == Point.Type.RESTING) {
+            if (mRestingSinceMillis == null) mRestingSinceMillis = now;
+        } else {
+            mRestingSinceMillis = null;
+        }
+    }
+
+    /**
+     * Notes a fix from the GPS; a fix is usable if its accuracy is better than
+     * maxAccuracy.  Returns true if the fix ends an extended burst, in which
+     * case getIntervalMillis() has just changed.
+     */
+    public boolean onFix(LocationFix fix, double maxAccuracy) {
+        if (!(fix.latLonSd < maxAccuracy)) return false;
+        boolean extending = isExtendingBurst(fix.timeMillis);
+        mLastUsableFixMillis = fix.timeMillis;
+        return extending;
+    }
+
+    /** Goes back to fast fixes until the next Point, e.g. when the GPS is switched back on. */
+    public void reset() {
+        mRestingSinceMillis = null;
+    }
+
+    /**
+     * Notes that the significant-motion sensor has fired, which starts a burst
+     * right away.  The MotionListener decides from the burst's fixes whether
+     * we have really departed; if not, the GPS goes off again after the burst.
+     */
+    public void onMotionDetected(long now) {
+        if (mRestingSinceMillis != null) {
+            mRestingSinceMillis = now - (BURST_PERIOD_MILLIS - BURST_LENGTH_MILLIS);
+        }
+    }
+
+    /** Returns true if the GPS is being switched off and on, relying on the motion sensor. */
+    public boolean isDutyCycling() {
+        return mHasMotionTrigger && mRestingSinceMillis != null;
+    }
+
+    /** Gets the interval at which to request GPS fixes, or null if the GPS should be off. */
+    public Long getIntervalMillis(long now) {
+        if (mRestingSinceMillis == null) return FAST_INTERVAL_MILLIS;
+        if (!mHasMotionTrigger) return RESTING_INTERVAL_MILLIS;
+        return getPhaseMillis(now) >= BURST_PERIOD_MILLIS - BURST_LENGTH_MILLIS ||
+            isExtendingBurst(now) ? FAST_INTERVAL_MILLIS : null;
+    }
+
+    /**
+     * Gets the next time at which getIntervalMillis() will change, or null if
+     * it won't change until the motion state does.
+     */
+    public Long getNextChangeMillis(long now) {
+        if (!isDutyCycling()) return null;
+        long phase = getPhaseMillis(now);
+        long burstPhase = BURST_PERIOD_MILLIS - BURST_LENGTH_MILLIS;
+        if (isExtendingBurst(now)) return now - phase + MAX_BURST_LENGTH_MILLIS - BURST_LENGTH_MILLIS;
+        return now - phase + (phase < burstPhase ? burstPhase : BURST_PERIOD_MILLIS);
+    }
+
+    /** Returns true if the last burst got no usable fix and is still being extended. */
+    private boolean isExtendingBurst(long now) {
+        if (!isDutyCycling()) return false;
+        long cycleStart = now - getPhaseMillis(now);
+        return cycleStart > mRestingSinceMillis &&  // there was a burst before this cycle
+            now - cycleStart < MAX_BURST_LENGTH_MILLIS - BURST_LENGTH_MILLIS &&
+            mLastUsableFixMillis < cycleStart - BURST_LENGTH_MILLIS;
+    }
+
+    /** Gets the time elapsed since the start of the current duty cycle. */
+    private long getPhaseMillis(long now) {
+        return Math.max(0, now - mRestingSinceMillis) % BURST_PERIOD_MILLIS;
+    }
+}
@@ -0,0 +1,13 @@
+package ca.zesty.fleetreporter;
+
+/** Runs tasks at given times, on the clock of Utils.getTime(), so that
+    scheduling logic can run either on Android alarms (AlarmScheduler)
+    or on a simulated clock in a plain JVM (VirtualScheduler).
+ */
+public interface Scheduler {
+    /** Schedules a task to run at the given time, replacing any pending run of the same task. */
+    void scheduleAt(Runnable task, long timeMillis);
+
+    /** Cancels any pending run of a task. */
+    void cancel(Runnable task);
+}
@@ -0,0 +1,57 @@
+package ca.zesty.fleetreporter;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+
+/** Runs a callback when the significant-motion sensor detects that the device
+    has started moving, which wakes the CPU even while the GPS is off.  The
+    sensor is one-shot, so it has to be armed again after each trigger.  This
+    class requires API level 18; use create() to get one only where available.
+ */
+@TargetApi(18)
+public class SignificantMotionTrigger extends TriggerEventListener {
+    static final String TAG = "SignificantMotionTrigger";
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final Runnable mCallback;
+    private boolean mArmed = false;
+
+    /** Gets a trigger for the device's sensor, or null if it has none (API level 18+ only). */
+    public static SignificantMotionTrigger create(Utils utils, Runnable callback) {
+        SensorManager manager = utils.getSensorManager();
+        Sensor sensor = manager == null ? null : manager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        if (sensor == null) {
+            Utils.log(TAG, "No significant-motion sensor available");
+            return null;
+        }
+        return new SignificantMotionTrigger(manager, sensor, callback);
+    }
+
+    private SignificantMotionTrigger(SensorManager manager, Sensor sensor, Runnable callback) {
+        mSensorManager = manager;
+        mSensor = sensor;
+        mCallback = callback;
+    }
+
+    public void arm() {
+        if (mArmed) return;
+        mArmed = mSensorManager.requestTriggerSensor(this, mSensor);
+        Utils.log(TAG, mArmed ? "Armed" : "Could not arm sensor");
+    }
+
+    public void disarm() {
+        if (!mArmed) return;
+        mSensorManager.cancelTriggerSensor(this, mSensor);
+        mArmed = false;
+    }
+
+    @Override public void onTrigger(TriggerEvent event) {
+        mArmed = false;
+        Utils.logRemote(TAG, "Significant motion detected");
+        mCallback.run();
+    }
+}
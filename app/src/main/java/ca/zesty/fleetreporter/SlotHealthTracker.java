@@ -0,0 +1,209 @@
+package ca.zesty.fleetreporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Keeps track of how well each SIM slot has been delivering SMS messages,
+    and chooses the slot with the lowest expected cost for the next message.
+
+    For each slot, we track moving averages of the success ratio and of the
+    latency from sending a message to receiving its sent status, the keys of
+    the message currently in flight, and the SMS balance if known.  The
+    expected cost of a slot is the expected time to get a message through:
+    the expected number of attempts (1 / success ratio) times the latency,
+    plus a retry interval for each expected failure.  A slot with a low or
+    empty balance has its cost multiplied, so it is used only if the others
+    are worse.  An empty SIM slot (one that lies between occupied slots)
+    is marked unusable and never chosen.
+ */
+public class SlotHealthTracker {
+    static final String TAG = "SlotHealthTracker";
+    static final long SECOND = 1000;
+    static final long DEFAULT_LATENCY_MILLIS = 5 * SECOND;
+    static final long SEND_TIMEOUT_MILLIS = 60 * SECOND;  // treat a send with no status as failed
+    static final long RETRY_PENALTY_MILLIS = TransmissionScheduler.BASE_INTERVAL_MILLIS;
+    static final double AVERAGE_WEIGHT = 0.25;  // weight of each new result in the moving averages
+    static final double MIN_SUCCESS_RATE = 0.05;
+    static final double HEALTHY_SUCCESS_RATE = 0.5;
+    static final long LOW_BALANCE = 10;  // SMS messages
+    static final double LOW_BALANCE_COST_FACTOR = 2;
+    static final double EMPTY_BALANCE_COST_FACTOR = 10;
+
+    private final int mNumSlots;
+    private final double[] mSuccessRate;
+    private final double[] mLatencyMillis;
+    private final long[] mSentMillis;  // time the message in flight was sent, or 0 if none
+    private final long[] mInFlightMessageId;
+    private final long[][] mInFlightKeys;
+    private final Long[] mBalance;  // null if unknown
+    private final long[] mBalanceExpirationMillis;
+    private final boolean[] mUsable;
+    private int mLastChosenSlot = -1;
+
+    public SlotHealthTracker(int numSlots) {
+        mNumSlots = numSlots;
+        mSuccessRate = new double[numSlots];
+        mLatencyMillis = new double[numSlots];
+        mSentMillis = new long[numSlots];
+        mInFlightMessageId = new long[numSlots];
+        mInFlightKeys = new long[numSlots][];
+        mBalance = new Long[numSlots];
+        mBalanceExpirationMillis = new long[numSlots];
+        mUsable = new boolean[numSlots];
+        for (int slot = 0; slot < numSlots; slot++) {
+            mUsable[slot] = true;
+            mSuccessRate[slot] = 1.0;
+            mLatencyMillis[slot] = DEFAULT_LATENCY_MILLIS;
+            mInFlightKeys[slot] = new long[0];
+        }
+    }
+
+    /** Records that a message containing the given outbox keys was sent on a slot. */
+    public void onSend(int slot, long now, long messageId, long[] keys) {
+        mSentMillis[slot] = now;
+        mInFlightMessageId[slot] = messageId;
+        mInFlightKeys[slot] = keys;
+    }
+
+    /**
+     * Records the sent status of a message.  Returns false, and changes
+     * nothing, if the message is no longer the one in flight on the slot
+     * (e.g. a status that arrives after its send has timed out).
+     */
+    public boolean onResult(int slot, long now, long messageId, boolean succeeded) {
+        if (mSentMillis[slot] == 0 || mInFlightMessageId[slot] != messageId) return false;
+        recordResult(slot, now, succeeded);
+        return true;
+    }
+
+    private void recordResult(int slot, long now, boolean succeeded) {
+        if (mSentMillis[slot] > 0) {
+            long latency = Math.max(0, now - mSentMillis[slot]);
+            mLatencyMillis[slot] += AVERAGE_WEIGHT * (latency - mLatencyMillis[slot]);
+        }
+        mSuccessRate[slot] += AVERAGE_WEIGHT * ((succeeded ? 1 : 0) - mSuccessRate[slot]);
+        mSentMillis[slot] = 0;
+        mInFlightKeys[slot] = new long[0];
+    }
+
+    /**
+     * Counts any message that has gone too long without a status as a
+     * failure, and returns the slots on which this happened, so that the
+     * caller can back off those slots as for any other failed send.
+     */
+    public List<Integer> expireStaleSends(long now) {
+        List<Integer> expiredSlots = new ArrayList<>();
+        for (int slot = 0; slot < mNumSlots; slot++) {
+            if (mSentMillis[slot] > 0 && now - mSentMillis[slot] >= SEND_TIMEOUT_MILLIS) {
+                Utils.logRemote(TAG, "No status for SMS on slot %d after %d s; counting it as failed",
+                    slot, (now - mSentMillis[slot]) / SECOND);
+                recordResult(slot, now, false);
+                expiredSlots.add(slot);
+            }
+        }
+        return expiredSlots;
+    }
+
+    /** Gets the time at which the earliest send in flight will time out, or null if none. */
+    public Long getNextTimeoutMillis() {
+        Long earliest = null;
+        for (int slot = 0; slot < mNumSlots; slot++) {
+            if (mSentMillis[slot] > 0) {
+                long timeout = mSentMillis[slot] + SEND_TIMEOUT_MILLIS;
+                if (earliest == null || timeout < earliest) earliest = timeout;
+            }
+        }
+        return earliest;
+    }
+
+    public boolean isInFlight(int slot) {
+        return mSentMillis[slot] > 0;
+    }
+
+    /** Returns true if the message with the given ID is in flight on any slot. */
+    public boolean isMessageInFlight(long messageId) {
+        for (int slot = 0; slot < mNumSlots; slot++) {
+            if (mSentMillis[slot] > 0 && mInFlightMessageId[slot] == messageId) return true;
+        }
+        return false;
+    }
+
+    /** Returns true if the given outbox key is part of a message in flight. */
+    public boolean isKeyInFlight(long key) {
+        for (int slot = 0; slot < mNumSlots; slot++) {
+            for (long inFlightKey : mInFlightKeys[slot]) {
+                if (inFlightKey == key) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Marks a slot as usable or not; a slot with no SmsManager can't send anything. */
+    public void setUsable(int slot, boolean usable) {
+        mUsable[slot] = usable;
+    }
+
+    public boolean isUsable(int slot) {
+        return mUsable[slot];
+    }
+
+    public boolean isHealthy(int slot) {
+        return mSuccessRate[slot] >= HEALTHY_SUCCESS_RATE;
+    }
+
+    public double getSuccessRate(int slot) {
+        return mSuccessRate[slot];
+    }
+
+    /** Sets the known SMS balance for a slot. */
+    public void setBalance(int slot, long amount, long expirationMillis) {
+        if (slot < 0 || slot >= mNumSlots) return;
+        mBalance[slot] = amount;
+        mBalanceExpirationMillis[slot] = expirationMillis;
+    }
+
+    /** Estimates the time it will take to get a message through on a slot. */
+    public double getExpectedCostMillis(int slot, long now) {
+        double attempts = 1 / Math.max(MIN_SUCCESS_RATE, mSuccessRate[slot]);
+        double cost = attempts * mLatencyMillis[slot] + (attempts - 1) * RETRY_PENALTY_MILLIS;
+        if (mBalance[slot] != null) {
+            long balance = now < mBalanceExpirationMillis[slot] ? mBalance[slot] : 0;
+            if (balance <= 0) cost *= EMPTY_BALANCE_COST_FACTOR;
+            else if (balance < LOW_BALANCE) cost *= LOW_BALANCE_COST_FACTOR;
+        }
+        return cost;
+    }
+
+    /**
+     * Chooses the slot with the lowest expected cost among the usable slots
+     * that the scheduler allows an attempt on now and that have nothing in flight.
+     * Returns -1 if there is no such slot.
+     */
+    public int chooseSlot(long now, TransmissionScheduler scheduler) {
+        int bestSlot = -1;
+        double bestCost = 0;
+        String description = "";
+        for (int slot = 0; slot < mNumSlots; slot++) {
+            if (!mUsable[slot]) {
+                description += Utils.format(" [slot %d: empty]", slot);
+                continue;
+            }
+            double cost = getExpectedCostMillis(slot, now);
+            boolean available = scheduler.isDue(slot, now) && !isInFlight(slot);
+            description += Utils.format(" [slot %d: %s, %.1f s, success %.2f, latency %.1f s, balance %s]",
+                slot, available ? "available" : isInFlight(slot) ? "in flight" : "waiting",
+                cost / SECOND, mSuccessRate[slot], mLatencyMillis[slot] / SECOND, mBalance[slot]);
+            if (available && (bestSlot < 0 || cost < bestCost)) {
+                bestSlot = slot;
+                bestCost = cost;
+            }
+        }
+        if (bestSlot >= 0) {
+            String message = "Choosing slot " + bestSlot + ":" + description;
+            if (bestSlot != mLastChosenSlot) Utils.logRemote(TAG, message);
+            else Utils.log(TAG, message);
+            mLastChosenSlot = bestSlot;
+        }
+        return bestSlot;
+    }
+}
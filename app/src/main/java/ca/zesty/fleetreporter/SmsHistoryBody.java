@@ -0,0 +1,169 @@
+package ca.zesty.fleetreporter;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/** A gzip-compressed request body of records, one per line, written straight
+    from a RecordSource as the request is sent, so that a large batch never
+    has to be held in memory as a string.
+
+    Records are written oldest first until about maxBytes of uncompressed
+    text have been written; the batch is only cut between records with
+    different dates, so that resuming after getLastDate() skips nothing.
+    OkHttp may write a body more than once (e.g. to retry on a new
+    connection), so each write reopens the source from the beginning.
+
+    Servers that don't accept POST bodies can be sent the same records as
+    plain text in the "data" query parameter of a GET, as the uploader did
+    before; see newGetRequest().
+ */
+public class SmsHistoryBody extends RequestBody {
+    static final MediaType TEXT = MediaType.parse("text/plain; charset=utf-8");
+
+    /** A sequence of records to upload, ordered by date. */
+    public interface RecordSource {
+        /** Starts reading from the first record. */
+        void open();
+        /** Advances to the next record; returns false if there are no more. */
+        boolean moveToNext();
+        /** Gets the date of the current record, in ms since 1970-01-01 00:00:00 UTC. */
+        long getDate();
+        /** Gets the current record as a line of text, without a line terminator. */
+        String getRecord();
+        void close();
+    }
+
+    private final RecordSource mSource;
+    private final long mMaxBytes;
+    private volatile Long mLastDate = null;  // date of the last record written
+    private volatile int mNumRecords = 0;
+    private volatile boolean mFull = false;  // true if records were left out to stay within mMaxBytes
+
+    public SmsHistoryBody(RecordSource source, long maxBytes) {
+        mSource = source;
+        mMaxBytes = maxBytes;
+    }
+
+    @Override public MediaType contentType() {
+        return TEXT;
+    }
+
+    @Override public void writeTo(BufferedSink sink) throws IOException {
+        BufferedSink out = Okio.buffer(new GzipSink(sink));
+        writeRecords(out);
+        out.close();
+    }
+
+    /** Writes the records to out, one per line, up to about mMaxBytes of text. */
+    private void writeRecords(BufferedSink out) throws IOException {
+        Long lastDate = null;
+        int numRecords = 0;
+        long numBytes = 0;
+        boolean full = false;
+        mSource.open();
+        try {
+            while (mSource.moveToNext()) {
+                long date = mSource.getDate();
+                if (numBytes >= mMaxBytes && (lastDate == null || date != lastDate)) {
+                    full = true;
+                    break;
+                }
+                String record = mSource.getRecord();
+                out.writeUtf8(record).writeByte('\n');
+                numBytes += record.length() + 1;
+                numRecords++;
+                lastDate = date;
+            }
+        } finally {
+            mSource.close();
+        }
+        mLastDate = lastDate;
+        mNumRecords = numRecords;
+        mFull = full;
+    }
+
+    /** Makes a POST request to send this body to a URL that accepts gzip-encoded bodies. */
+    public Request newRequest(HttpUrl url) {
+        return new Request.Builder()
+            .url(url)
+            .header("Content-Encoding", "gzip")
+            .post(this)
+            .build();
+    }
+
+    /**
+     * Makes a GET request that sends the records in the "data" query parameter.
+     * The records are read right away, and the whole batch goes in the URL,
+     * so maxBytes should be kept small.
+     */
+    public Request newGetRequest(HttpUrl url) throws IOException {
+        Buffer buffer = new Buffer();
+        writeRecords(buffer);
+        return new Request.Builder()
+            .url(url.newBuilder().addQueryParameter("data", buffer.readUtf8()).build())
+            .build();
+    }
+
+    /**
+     * Returns true if a response with the given code to a request from
+     * newRequest() or newGetRequest() means the records were received.  A POST
+     * body is lost unless the server accepts it, so only a 2xx will do; a 404
+     * to the GET form has always been counted as received.
+     */
+    public static boolean isReceived(Request request, int code) {
+        return (code >= 200 && code < 300) || (code == 404 && request.method().equals("GET"));
+    }
+
+    /** Gets the date of the last record sent, or null if there were none. */
+    public Long getLastDate() {
+        return mLastDate;
+    }
+
+    public int getNumRecords() {
+        return mNumRecords;
+    }
+
+    /** Returns true if there are more records to send after this batch. */
+    public boolean isFull() {
+        return mFull;
+    }
+
+    /** A RecordSource for a fixed list of lines, all with the same date. */
+    public static class LineSource implements RecordSource {
+        private final List<String> mLines;
+        private final long mDate;
+        private int mIndex;
+
+        public LineSource(List<String> lines, long date) {
+            mLines = lines;
+            mDate = date;
+        }
+
+        @Override public void open() {
+            mIndex = -1;
+        }
+
+        @Override public boolean moveToNext() {
+            return ++mIndex < mLines.size();
+        }
+
+        @Override public long getDate() {
+            return mDate;
+        }
+
+        @Override public String getRecord() {
+            return mLines.get(mIndex);
+        }
+
+        @Override public void close() { }
+    }
+}
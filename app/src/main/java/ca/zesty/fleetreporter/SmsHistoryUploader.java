@@ -1,14 +1,18 @@
 package ca.zesty.fleetreporter;
 
 import android.content.ContentResolver;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.provider.Telephony;
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
@@ -25,9 +29,13 @@ public class SmsHistoryUploader {
     public static final long SECOND = 1000;
     public static final long DAY = 24 * 3600 * 1000;
     public static final long MAX_AGE_TO_SEND = 100 * DAY;
-    public static final int MAX_NUMBER_TO_SEND = 2000;
-    public static final int BATCH_SIZE = 10;
-    public static final long DELAY_BETWEEN_BATCHES_MILLIS = SECOND;
+    public static final int MAX_NUMBER_TO_SEND = 2000;  // larger backlogs are sampled down to about this many
+    public static final long MIN_BATCH_BYTES = 4 * 1024;  // uncompressed
+    public static final long MAX_BATCH_BYTES = 256 * 1024;  // uncompressed
+    public static final long MAX_GET_BATCH_BYTES = 2 * 1024;  // a GET carries its batch in the URL
+    public static final int RECORD_OVERHEAD_BYTES = 100;  // formatted record length, excluding the body
+    public static final int MAX_IN_FLIGHT = 4;  // batches uploaded concurrently
+    public static final long RETRY_DELAY_MILLIS = SECOND;
     public static final long LOOP_EXPIRED_MILLIS = 20 * SECOND;
     protected String deviceId;
     protected Utils u;
@@ -35,6 +43,12 @@ public class SmsHistoryUploader {
     protected OkHttpClient client;
     protected Handler handler;
     protected long lastConsideredSendingMillis = 0;
+    protected long batchBytes = 64 * 1024;  // doubled after each success, halved after a failure
+    protected UploadRangeTracker tracker;  // accessed only on the handler thread
+    protected Map<Long, UploadBatchEntity> batches = new HashMap<>();  // journal entries by lastDate; handler thread only
+    protected volatile int pendingCount = 0;  // messages not yet uploaded, as of newestDate
+    protected long newestDate;  // date of the newest message counted; accessed only on the handler thread
+    protected ContentObserver observer;
 
     public SmsHistoryUploader(String deviceId, Utils utils, ContentResolver resolver) {
         this.deviceId = deviceId;
@@ -45,36 +59,80 @@ public class SmsHistoryUploader {
             .writeTimeout(10, TimeUnit.SECONDS)
             .readTimeout(10, TimeUnit.SECONDS)
             .build();
-        client.dispatcher().setMaxRequests(1);
+        client.dispatcher().setMaxRequests(MAX_IN_FLIGHT);
+        client.dispatcher().setMaxRequestsPerHost(MAX_IN_FLIGHT);
+        tracker = new UploadRangeTracker(getLastUploadTimestamp());
 
         HandlerThread thread = new HandlerThread("SmsHistoryUploader");
         thread.start();
         handler = new Handler(thread.getLooper());
+
+        // The pending count is taken once, then kept up to date by counting
+        // only the messages newer than newestDate whenever the provider changes.
+        handler.post(new Runnable() {
+            @Override public void run() {
+                restoreJournal();
+                newestDate = getLastUploadTimestamp();
+                countNewMessages();
+                for (UploadBatchEntity batch : batches.values()) {
+                    if (batch.state.equals(UploadBatchEntity.ACKNOWLEDGED) &&
+                        batch.lastDate > tracker.getCommittedDate()) {
+                        pendingCount = Math.max(0, pendingCount - batch.numMessages);
+                    }
+                }
+            }
+        });
+        observer = new ContentObserver(handler) {
+            @Override public void onChange(boolean selfChange) {
+                countNewMessages();
+            }
+        };
+        resolver.registerContentObserver(SMS_PROVIDER, true, observer);
+    }
+
+    /**
+     * Stops watching the SMS provider, cancels any uploads in progress, and
+     * stops the handler thread.  Cancelled batches stay in the journal and
+     * are sent again by the next uploader.
+     */
+    public void close() {
+        resolver.unregisterContentObserver(observer);
+        client.dispatcher().cancelAll();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+        handler.getLooper().quit();
     }
 
     public long getLastUploadTimestamp() {
         return u.getLongPref(Prefs.SMS_HISTORY_UPLOAD_TIMESTAMP, System.currentTimeMillis() - MAX_AGE_TO_SEND);
     }
 
-    public int countRemaining() {
-        long lastDate = getLastUploadTimestamp();
-        long now = System.currentTimeMillis();
+    /** Gets the number of messages not yet uploaded, without doing any I/O. */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /** Adds the messages newer than newestDate to pendingCount.  Runs on the handler thread. */
+    protected void countNewMessages() {
         Cursor cursor = resolver.query(
             SMS_PROVIDER,
-            new String[] {"count(*) as count"},
-            "date > ? and date < ?",
-            new String[] {"" + lastDate, "" + (now - 20 * 1000)},
+            new String[] {"count(*) as count", "max(date) as max_date"},
+            "date > ?",
+            new String[] {"" + newestDate},
             null
         );
         try {
-            cursor.moveToFirst();
-            return cursor.getInt(0);
+            if (cursor.moveToFirst() && cursor.getInt(0) > 0) {
+                pendingCount += cursor.getInt(0);
+                newestDate = cursor.getLong(1);
+            }
         } finally {
             cursor.close();
         }
     }
 
     public void start() {
+        if (pendingCount == 0) return;
         if (client.dispatcher().runningCallsCount() + client.dispatcher().queuedCallsCount() > 0) {
             Log.w(TAG, "start: Requests are still pending; not starting a new loop");
             return;
@@ -84,169 +142,303 @@ public class SmsHistoryUploader {
             return;
         }
         Log.i(TAG, "start: Starting a new loop");
-        continueUploading();
+        continueUploading(0);
     }
 
+    /**
+     * Keeps up to MAX_IN_FLIGHT batches uploading at once.  When all the
+     * planned batches have been acknowledged, plans a new set of batches
+     * covering all the messages not yet uploaded.  Runs on the handler thread.
+     */
     public void uploadNextBatch() {
-        if (client.dispatcher().runningCallsCount() + client.dispatcher().queuedCallsCount() > 0) {
-            Log.w(TAG, "uploadNextBatch: Requests are still pending; doing nothing");
-            return;
-        }
-
-        long lastDate = getLastUploadTimestamp();
         long now = System.currentTimeMillis();
         lastConsideredSendingMillis = now;
 
-        if (countRemaining() > MAX_NUMBER_TO_SEND) {
-            lastDate += DAY;
-            Log.i(TAG, "uploadNextBatch: Too many messages to send; advancing timestamp to " + lastDate);
-            u.setPref(Prefs.SMS_HISTORY_UPLOAD_TIMESTAMP, "" + lastDate);
-            continueUploading();
-            return;
+        if (tracker.isEmpty()) {
+            long lastDate = getLastUploadTimestamp();
+            // Rather than dropping old messages, send an even sample of a large backlog.
+            int sampleEvery = Math.max(1, (pendingCount + MAX_NUMBER_TO_SEND - 1) / MAX_NUMBER_TO_SEND);
+            if (sampleEvery > 1) {
+                Utils.logRemote(TAG, "Too many messages to send (%d); sending 1 in %d", pendingCount, sampleEvery);
+            }
+            tracker.reset(lastDate);
+            if (pendingCount > 0) planBatches(lastDate, now - 20 * 1000, sampleEvery);
+            if (tracker.isEmpty()) {
+                Log.i(TAG, "uploadNextBatch: No messages are ready to upload");
+                return;
+            }
         }
 
+        UploadRangeTracker.Range range;
+        while (tracker.getInFlightCount() < MAX_IN_FLIGHT && (range = tracker.nextToSend()) != null) {
+            UploadBatchEntity batch = batches.get(range.lastDate);
+            setBatchState(batch, UploadBatchEntity.IN_FLIGHT);
+            sendRequest(new SmsHistoryBody(new SmsRecordSource(
+                range.afterDate, range.lastDate, batch.sampleEvery), Long.MAX_VALUE), range);
+        }
+    }
+
+    /**
+     * Divides the messages dated after afterDate and before beforeDate into
+     * batches of about batchBytes each (at most MAX_GET_BATCH_BYTES unless
+     * uploading by POST), estimated from the lengths of the messages that
+     * will be sent (every sampleEvery'th message in each batch).
+     * A batch is only cut between messages with different dates.  The batches
+     * are added to the tracker and written to the journal as pending.
+     */
+    protected void planBatches(long afterDate, long beforeDate, int sampleEvery) {
+        long maxBytes = u.getBooleanPref(Prefs.SMS_HISTORY_POST) ?
+            batchBytes : Math.min(batchBytes, MAX_GET_BATCH_BYTES);
+        List<UploadBatchEntity> planned = new ArrayList<>();
         Cursor cursor = resolver.query(
             SMS_PROVIDER,
-            new String[] {
-                "date",
-                "address",
-                "type",
-                "body",
-                "status",
-                "error_code",
-                "thread_id",
-                "sub_id"
-            },
+            new String[] {"date", "length(body) as body_length"},
             "date > ? and date < ?",
-            new String[] {"" + lastDate, "" + (now - 20 * 1000)},
-            "date limit " + BATCH_SIZE
+            new String[] {"" + afterDate, "" + beforeDate},
+            "date"
         );
         try {
-            String dataToSend = "";
+            long numBytes = 0;
+            int numMessages = 0;
+            Long lastDate = null;
             while (cursor.moveToNext()) {
-                String record = formatSmsRecord(cursor);
-                Log.i(TAG, "Retrieved: " + record);
-                lastDate = getLong(cursor, "date");
-                dataToSend += record + "\n";
+                long date = cursor.getLong(0);
+                if (numBytes >= maxBytes && date != lastDate) {
+                    planned.add(new UploadBatchEntity(
+                        lastDate, afterDate, numMessages, sampleEvery, UploadBatchEntity.PENDING));
+                    afterDate = lastDate;
+                    numBytes = 0;
+                    numMessages = 0;
+                }
+                if (numMessages % sampleEvery == 0) numBytes += cursor.getInt(1) + RECORD_OVERHEAD_BYTES;
+                numMessages++;
+                lastDate = date;
             }
-            if (!dataToSend.isEmpty()) sendRequest(dataToSend, lastDate);
+            if (lastDate != null) planned.add(new UploadBatchEntity(
+                lastDate, afterDate, numMessages, sampleEvery, UploadBatchEntity.PENDING));
         } finally {
             cursor.close();
         }
-    }
 
-    public void sendPrefs() {
-        String data = "";
-        for (String key : Prefs.KEYS) {
-            data += key + ": " + u.getStringPref(key) + "\n";
-        }
-        sendRequest(data, getLastUploadTimestamp());
-    }
-
-    protected String formatSmsRecord(Cursor cursor) {
-        long date = getLong(cursor, "date");
-        String address = getString(cursor, "address");
-        int type = getInt(cursor, "type");
-        String body = getString(cursor, "body");
-        int status = getInt(cursor, "status");
-        int errorCode = getInt(cursor, "error_code");
-        int threadId = getInt(cursor, "thread_id");
-        String subId = getString(cursor, "sub_id");
-
-        return Utils.format(
-            "%s,%s,%s,type=%s,%s,status=%s,error=%s,thread=%d,slot=%d",
-            deviceId,
-            Utils.formatUtcTimeMillis(date),
-            formatMobileNumber(address),
-            formatType(type),
-            Utils.quoteString(body),
-            formatStatus(status),
-            errorCode,
-            threadId,
-            u.getSlotWithImsi(subId)
-        );
+        batches.clear();
+        for (UploadBatchEntity batch : planned) {
+            tracker.add(batch.lastDate);
+            batches.put(batch.lastDate, batch);
+        }
+        final long committedDate = tracker.getCommittedDate();
+        final UploadBatchEntity[] entries = planned.toArray(new UploadBatchEntity[planned.size()]);
+        final AppDatabase db = AppDatabase.getDatabase(u.context);
+        try {
+            db.runInTransaction(new Runnable() {
+                @Override public void run() {
+                    // Keep the entry that ends at the committed date, which records the checkpoint.
+                    db.getUploadBatchDao().deleteBefore(committedDate);
+                    db.getUploadBatchDao().put(entries);
+                }
+            });
+        } finally {
+            db.close();
+        }
     }
 
-    protected String formatMobileNumber(String address) {
-        return address.replaceAll("[^+0-9]", "");
-    }
+    /**
+     * Reloads the batches that were planned before the app last stopped, so
+     * that the upload resumes exactly where it left off.  Batches that were
+     * in flight are sent again; acknowledged ones are not.  The journal also
+     * holds the checkpoint, in case the last change to the preference was
+     * not yet written to disk.  Runs on the handler thread.
+     */
+    protected void restoreJournal() {
+        List<UploadBatchEntity> entries;
+        AppDatabase db = AppDatabase.getDatabase(u.context);
+        try {
+            entries = db.getUploadBatchDao().getAll();
+        } finally {
+            db.close();
+        }
+        batches.clear();
+        if (entries.isEmpty()) return;
 
-    protected String formatType(int type) {
-        switch (type) {
-            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_INBOX:
-                return "inbox";
-            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_SENT:
-                return "sent";
-            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_DRAFT:
-                return "draft";
-            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_OUTBOX:
-                return "outbox";
-            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_FAILED:
-                return "failed";
-            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_QUEUED:
-                return "queued";
+        tracker.reset(entries.get(0).afterDate);
+        for (UploadBatchEntity batch : entries) {
+            if (batch.afterDate != tracker.getEndDate()) {
+                Utils.logRemote(TAG, "Upload journal has a gap after %d; discarding it", tracker.getEndDate());
+                tracker.reset(getLastUploadTimestamp());
+                batches.clear();
+                db = AppDatabase.getDatabase(u.context);
+                try {
+                    db.getUploadBatchDao().deleteAll();
+                } finally {
+                    db.close();
+                }
+                return;
+            }
+            UploadRangeTracker.Range range = tracker.add(batch.lastDate);
+            batches.put(batch.lastDate, batch);
+            if (batch.state.equals(UploadBatchEntity.ACKNOWLEDGED)) tracker.onAcknowledged(range);
         }
-        return "" + type;
+        checkpoint(tracker.getCommittedDate());
+        Utils.logRemote(TAG, "Resuming upload after %s with %d batches",
+            Utils.formatUtcTimeMillis(tracker.getCommittedDate()), entries.size());
     }
 
-    protected String formatStatus(int status) {
-        switch (status) {
-            case Telephony.TextBasedSmsColumns.STATUS_COMPLETE:
-                return "complete";
-            case Telephony.TextBasedSmsColumns.STATUS_FAILED:
-                return "failed";
-            case Telephony.TextBasedSmsColumns.STATUS_PENDING:
-                return "pending";
-            case Telephony.TextBasedSmsColumns.STATUS_NONE:
-                return "none";
+    /** Records a new state for a batch in the journal. */
+    protected void setBatchState(UploadBatchEntity batch, String state) {
+        batch.state = state;
+        AppDatabase db = AppDatabase.getDatabase(u.context);
+        try {
+            db.getUploadBatchDao().setState(batch.lastDate, state);
+        } finally {
+            db.close();
         }
-        return "" + status;
     }
 
-    protected String getString(Cursor cursor, String columnName) {
-        return cursor.getString(cursor.getColumnIndex(columnName));
+    /**
+     * Saves the upload timestamp with apply(), which doesn't wait for the
+     * disk; if the write is lost, restoreJournal() recovers the timestamp.
+     */
+    protected void checkpoint(long committedDate) {
+        if (committedDate > getLastUploadTimestamp()) {
+            Log.i(TAG, "checkpoint: Updating last upload timestamp to " + committedDate);
+            u.applyPref(Prefs.SMS_HISTORY_UPLOAD_TIMESTAMP, "" + committedDate);
+        }
     }
 
-    protected int getInt(Cursor cursor, String columnName) {
-        return cursor.getInt(cursor.getColumnIndex(columnName));
+    public void sendPrefs() {
+        List<String> lines = new ArrayList<>();
+        for (String key : Prefs.KEYS) {
+            lines.add(key + ": " + u.getStringPref(key));
+        }
+        sendRequest(new SmsHistoryBody(new SmsHistoryBody.LineSource(lines, getLastUploadTimestamp()), MAX_BATCH_BYTES), null);
     }
 
-    protected long getLong(Cursor cursor, String columnName) {
-        return cursor.getLong(cursor.getColumnIndex(columnName));
-    }
+    /**
+     * Reads the messages dated after afterDate, up to and including lastDate,
+     * from the SMS provider, keeping only every sampleEvery'th message.
+     */
+    protected class SmsRecordSource implements SmsHistoryBody.RecordSource {
+        private final long afterDate;
+        private final long lastDate;
+        private final int sampleEvery;
+        private final SmsRecordCodec codec = new SmsRecordCodec(deviceId, u);
+        private Cursor cursor = null;
+        private int position;
 
-    protected void sendRequest(String data, final long maxDate) {
-        Log.i(TAG, "Sending: " + data);
-        Request request = new Request.Builder()
-            .url(UPLOAD_URL.newBuilder().addQueryParameter("data", data).build())
-            .build();
+        SmsRecordSource(long afterDate, long lastDate, int sampleEvery) {
+            this.afterDate = afterDate;
+            this.lastDate = lastDate;
+            this.sampleEvery = sampleEvery;
+        }
+
+        @Override public void open() {
+            close();
+            cursor = resolver.query(
+                SMS_PROVIDER,
+                SmsRecordCodec.COLUMNS,
+                "date > ? and date <= ?",
+                new String[] {"" + afterDate, "" + lastDate},
+                "date"
+            );
+            codec.bind(cursor);
+            position = 0;
+        }
 
+        @Override public boolean moveToNext() {
+            while (cursor != null && cursor.moveToNext()) {
+                if (position++ % sampleEvery == 0) return true;
+            }
+            return false;
+        }
+
+        @Override public long getDate() {
+            return codec.getDate(cursor);
+        }
+
+        @Override public String getRecord() {
+            return codec.format(cursor);
+        }
+
+        @Override public void close() {
+            if (cursor != null) cursor.close();
+            cursor = null;
+        }
+    }
+
+    /**
+     * Sends a body in the background, as a gzip POST if that is enabled in
+     * the preferences or else as a GET.  If range is not null, the response
+     * is reported to the tracker on the handler thread, and the upload
+     * timestamp is advanced past all the batches acknowledged so far.
+     */
+    protected void sendRequest(final SmsHistoryBody body, final UploadRangeTracker.Range range) {
+        final Request request;
+        try {
+            request = u.getBooleanPref(Prefs.SMS_HISTORY_POST) ?
+                body.newRequest(UPLOAD_URL) : body.newGetRequest(UPLOAD_URL);
+        } catch (IOException e) {
+            Log.w(TAG, "sendRequest: Could not read the records for " + range);
+            onBatchFailed(range);
+            return;
+        }
         client.newCall(request).enqueue(new Callback() {
             @Override public void onFailure(Call call, IOException e) {
-                Log.w(TAG, "sendRequest: Last request failed");
-                continueUploading();
+                Log.w(TAG, "sendRequest: Request for " + range + " failed");
+                onBatchFailed(range);
             }
 
             @Override public void onResponse(Call call, Response response) {
                 int code = response.code();
-                if (code == 200 || code == 404) {
-                    Log.i(TAG, "sendRequest: Last request returned " + code + ", updating last upload timestamp to " + maxDate);
-                    u.setPref(Prefs.SMS_HISTORY_UPLOAD_TIMESTAMP, "" + maxDate);
+                response.close();
+                if (SmsHistoryBody.isReceived(request, code)) {
+                    Log.i(TAG, "sendRequest: Sent " + body.getNumRecords() + " records in " + range + "; request returned " + code);
+                    onBatchAcknowledged(range);
                 } else {
-                    Log.i(TAG, "sendRequest: Last request failed with code " + code);
+                    Log.i(TAG, "sendRequest: Request for " + range + " failed with code " + code);
+                    onBatchFailed(range);
                 }
-                continueUploading();
             }
         });
     }
 
-    protected void continueUploading() {
-        if (client.dispatcher().queuedCallsCount() == 0) {
-            handler.postDelayed(new Runnable() {
-                @Override public void run() {
-                    uploadNextBatch();
+    protected void onBatchAcknowledged(final UploadRangeTracker.Range range) {
+        if (range == null) return;
+        handler.post(new Runnable() {
+            @Override public void run() {
+                UploadBatchEntity batch = batches.remove(range.lastDate);
+                pendingCount = Math.max(0, pendingCount - batch.numMessages);
+                long committedDate = tracker.onAcknowledged(range);
+                batch.state = UploadBatchEntity.ACKNOWLEDGED;
+                AppDatabase db = AppDatabase.getDatabase(u.context);
+                try {
+                    db.getUploadBatchDao().setState(batch.lastDate, batch.state);
+                    db.getUploadBatchDao().deleteBefore(committedDate);
+                } finally {
+                    db.close();
                 }
-            }, DELAY_BETWEEN_BATCHES_MILLIS);
-        }
+                checkpoint(committedDate);
+                batchBytes = Math.min(MAX_BATCH_BYTES, batchBytes * 2);
+                uploadNextBatch();
+            }
+        });
+    }
+
+    protected void onBatchFailed(final UploadRangeTracker.Range range) {
+        if (range == null) return;
+        handler.post(new Runnable() {
+            @Override public void run() {
+                tracker.onFailed(range);
+                setBatchState(batches.get(range.lastDate), UploadBatchEntity.PENDING);
+                batchBytes = Math.max(MIN_BATCH_BYTES, batchBytes / 2);
+                continueUploading(RETRY_DELAY_MILLIS);
+            }
+        });
+    }
+
+    protected void continueUploading(long delayMillis) {
+        handler.postDelayed(new Runnable() {
+            @Override public void run() {
+                uploadNextBatch();
+            }
+        }, delayMillis);
     }
 }
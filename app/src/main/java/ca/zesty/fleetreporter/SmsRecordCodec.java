@@ -0,0 +1,139 @@
+package ca.zesty.fleetreporter;
+
+import android.database.Cursor;
+import android.provider.Telephony;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Formats rows from the SMS provider as lines of text for SmsHistoryUploader.
+
+    Each record looks like:
+        device,2018-08-01T12:34:56.789Z,+23675000000,type=inbox,"body",status=none,error=0,thread=3,slot=0
+
+    Uploads can run to thousands of rows, so this avoids the per-row costs of
+    the straightforward approach: column indices are looked up once per
+    cursor in bind(), the record is built in one reused StringBuilder without
+    String.format() or regular expressions, and the SIM slot for each
+    subscription ID is looked up once and remembered.  An instance is meant
+    to be used by one thread for one upload; it is not thread-safe.
+ */
+public class SmsRecordCodec {
+    static final String[] COLUMNS = {
+        "date", "address", "type", "body", "status", "error_code", "thread_id", "sub_id"
+    };
+
+    private final String mDeviceId;
+    private final Utils mUtils;
+    private final StringBuilder mBuilder = new StringBuilder(256);
+    private final Map<Integer, Integer> mSlotsBySubscriptionId = new HashMap<>();
+    private int mDateIndex;
+    private int mAddressIndex;
+    private int mTypeIndex;
+    private int mBodyIndex;
+    private int mStatusIndex;
+    private int mErrorCodeIndex;
+    private int mThreadIdIndex;
+    private int mSubIdIndex;  // -1 on devices without multi-SIM support
+
+    public SmsRecordCodec(String deviceId, Utils utils) {
+        mDeviceId = deviceId;
+        mUtils = utils;
+    }
+
+    /** Looks up the column indices for a cursor; call before reading its rows. */
+    public void bind(Cursor cursor) {
+        mDateIndex = cursor.getColumnIndex("date");
+        mAddressIndex = cursor.getColumnIndex("address");
+        mTypeIndex = cursor.getColumnIndex("type");
+        mBodyIndex = cursor.getColumnIndex("body");
+        mStatusIndex = cursor.getColumnIndex("status");
+        mErrorCodeIndex = cursor.getColumnIndex("error_code");
+        mThreadIdIndex = cursor.getColumnIndex("thread_id");
+        mSubIdIndex = cursor.getColumnIndex("sub_id");
+    }
+
+    /** Gets the date of the cursor's current row, in ms since 1970-01-01 00:00:00 UTC. */
+    public long getDate(Cursor cursor) {
+        return cursor.getLong(mDateIndex);
+    }
+
+    /** Formats the cursor's current row as a record, without a line terminator. */
+    public String format(Cursor cursor) {
+        StringBuilder b = mBuilder;
+        b.setLength(0);
+        b.append(mDeviceId).append(',');
+        b.append(Utils.formatUtcTimeMillis(cursor.getLong(mDateIndex))).append(',');
+        appendMobileNumber(b, cursor.getString(mAddressIndex));
+        b.append(",type=");
+        appendType(b, cursor.getInt(mTypeIndex));
+        b.append(',');
+        appendQuoted(b, cursor.getString(mBodyIndex));
+        b.append(",status=");
+        appendStatus(b, cursor.getInt(mStatusIndex));
+        b.append(",error=").append(cursor.getInt(mErrorCodeIndex));
+        b.append(",thread=").append(cursor.getInt(mThreadIdIndex));
+        b.append(",slot=").append(getSlot(
+            mSubIdIndex < 0 || cursor.isNull(mSubIdIndex) ? -1 : cursor.getInt(mSubIdIndex)));
+        return b.toString();
+    }
+
+    /** Gets the SIM slot for a subscription ID, looking it up only the first time. */
+    private int getSlot(int subscriptionId) {
+        Integer slot = mSlotsBySubscriptionId.get(subscriptionId);
+        if (slot == null) {
+            slot = mUtils.getSlotWithSubscriptionId(subscriptionId);
+            mSlotsBySubscriptionId.put(subscriptionId, slot);
+        }
+        return slot;
+    }
+
+    /** Appends only the '+' signs and digits in a phone number. */
+    static void appendMobileNumber(StringBuilder b, String address) {
+        if (address == null) return;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c == '+' || (c >= '0' && c <= '9')) b.append(c);
+        }
+    }
+
+    /** Appends a string in double quotes, escaped in the same way as Utils.quoteString(). */
+    static void appendQuoted(StringBuilder b, String str) {
+        b.append('"');
+        if (str != null) {
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                switch (c) {
+                    case '\\': b.append("\\\\"); break;
+                    case '\t': b.append("\\t"); break;
+                    case '\n': b.append("\\n"); break;
+                    case '"': b.append("\\\""); break;
+                    default: b.append(c);
+                }
+            }
+        }
+        b.append('"');
+    }
+
+    static void appendType(StringBuilder b, int type) {
+        switch (type) {
+            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_INBOX: b.append("inbox"); return;
+            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_SENT: b.append("sent"); return;
+            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_DRAFT: b.append("draft"); return;
+            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_OUTBOX: b.append("outbox"); return;
+            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_FAILED: b.append("failed"); return;
+            case Telephony.TextBasedSmsColumns.MESSAGE_TYPE_QUEUED: b.append("queued"); return;
+        }
+        b.append(type);
+    }
+
+    static void appendStatus(StringBuilder b, int status) {
+        switch (status) {
+            case Telephony.TextBasedSmsColumns.STATUS_COMPLETE: b.append("complete"); return;
+            case Telephony.TextBasedSmsColumns.STATUS_FAILED: b.append("failed"); return;
+            case Telephony.TextBasedSmsColumns.STATUS_PENDING: b.append("pending"); return;
+            case Telephony.TextBasedSmsColumns.STATUS_NONE: b.append("none"); return;
+        }
+        b.append(status);
+    }
+}
@@ -0,0 +1,188 @@
+package ca.zesty.fleetreporter;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.telephony.SmsManager;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Caches the subscription details of each SIM slot.
+
+    Looking these up means an IPC call to SubscriptionManager for each slot,
+    and a reflective call for the IMSI, which is too slow to do for every SMS
+    sent or every SMS record uploaded.  Instead, all the slots are looked up
+    together and kept until SubscriptionManager reports that the active
+    subscriptions have changed (on API level 22 and up) or until invalidate()
+    is called.  The cache is shared by all Utils instances in the process.
+ */
+public class SubscriptionCache {
+    static final String TAG = "SubscriptionCache";
+
+    private static SubscriptionCache sInstance;
+
+    private final Context mContext;
+    private volatile SimSlot[] mSlots;  // null when the cache needs to be refreshed
+    private Method mGetSubscriberIdMethod;
+    private boolean mGetSubscriberIdMethodResolved = false;
+
+    public static synchronized SubscriptionCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SubscriptionCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SubscriptionCache(Context context) {
+        mContext = context;
+        if (Build.VERSION.SDK_INT >= 22) {
+            // The listener must be created on a thread with a Looper.
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                public void run() {
+                    registerListener();
+                }
+            });
+        }
+    }
+
+    @TargetApi(22)
+    private void registerListener() {
+        SubscriptionManager.from(mContext).addOnSubscriptionsChangedListener(
+            new SubscriptionManager.OnSubscriptionsChangedListener() {
+                @Override public void onSubscriptionsChanged() {
+                    Utils.log(TAG, "Subscriptions changed");
+                    invalidate();
+                }
+            }
+        );
+    }
+
+    /** Discards the cached details, so they will be looked up again when next needed. */
+    public void invalidate() {
+        mSlots = null;
+    }
+
+    public int getNumSlots() {
+        return getSlots().length;
+    }
+
+    /** Gets the details for a given SIM slot; returns null if no such slot. */
+    public SimSlot getSlot(int slot) {
+        SimSlot[] slots = getSlots();
+        return slot >= 0 && slot < slots.length ? slots[slot] : null;
+    }
+
+    /** Finds the SIM slot with a given IMSI; returns -1 if no such slot. */
+    public int getSlotWithImsi(String imsi) {
+        if (imsi == null) return -1;
+        SimSlot[] slots = getSlots();
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (imsi.equals(slots[slot].imsi)) return slot;
+        }
+        return -1;
+    }
+
+    /** Finds the SIM slot with a given subscription ID; returns -1 if no such slot. */
+    public int getSlotWithSubscriptionId(int subscriptionId) {
+        if (subscriptionId < 0) return -1;
+        SimSlot[] slots = getSlots();
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot].subscriptionId == subscriptionId) return slot;
+        }
+        return -1;
+    }
+
+    private SimSlot[] getSlots() {
+        SimSlot[] slots = mSlots;
+        if (slots == null) {
+            synchronized (this) {
+                if (mSlots == null) mSlots = lookUpSlots();
+                slots = mSlots;
+            }
+        }
+        return slots;
+    }
+
+    private SimSlot[] lookUpSlots() {
+        List<SimSlot> slots = new ArrayList<>();
+        TelephonyManager telephony = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
+        if (Build.VERSION.SDK_INT >= 22) {
+            SubscriptionManager manager = SubscriptionManager.from(mContext);
+            int numOccupied = 0;  // number of slots up to and including the last occupied one
+            for (int slot = 0; slot < manager.getActiveSubscriptionInfoCountMax(); slot++) {
+                SubscriptionInfo sub = manager.getActiveSubscriptionInfoForSimSlotIndex(slot);
+                int subscriptionId = sub == null ? SubscriptionManager.INVALID_SUBSCRIPTION_ID : sub.getSubscriptionId();
+                if (subscriptionId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                    // Keep the slot numbering intact when an earlier slot is empty.
+                    slots.add(new SimSlot(-1, null, null, null, slot == 0 ? SmsManager.getDefault() : null));
+                    continue;
+                }
+                numOccupied = slot + 1;
+                slots.add(new SimSlot(
+                    subscriptionId,
+                    getSubscriberId(telephony, subscriptionId, slot),
+                    String.valueOf(sub.getCarrierName()),
+                    sub.getNumber(),
+                    SmsManager.getSmsManagerForSubscriptionId(subscriptionId)
+                ));
+            }
+            slots = new ArrayList<>(slots.subList(0, numOccupied));
+        }
+        if (slots.isEmpty()) {
+            slots.add(new SimSlot(
+                -1,
+                Build.VERSION.SDK_INT >= 22 ? null : telephony.getSubscriberId(),
+                telephony.getNetworkOperatorName(),
+                telephony.getLine1Number(),
+                SmsManager.getDefault()
+            ));
+        }
+        Utils.log(TAG, "Found %d SIM slots", slots.size());
+        return slots.toArray(new SimSlot[slots.size()]);
+    }
+
+    private String getSubscriberId(TelephonyManager telephony, int subscriptionId, int slot) {
+        if (!mGetSubscriberIdMethodResolved) {
+            mGetSubscriberIdMethodResolved = true;
+            try {
+                // The TelephonyManager.getSubscriberId(int) method is public but hidden.
+                mGetSubscriberIdMethod = TelephonyManager.class.getMethod(
+                    "getSubscriberId", new Class[] {int.class});
+            } catch (NoSuchMethodException e) {
+                Log.e(TAG, "Failed to find TelephonyManager.getSubscriberId(int): " + e);
+            }
+        }
+        if (mGetSubscriberIdMethod == null) return null;
+        try {
+            return (String) mGetSubscriberIdMethod.invoke(telephony, new Object[] {subscriptionId});
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to look up subscriber ID for slot " + slot + ": " + e);
+            return null;
+        }
+    }
+
+    /** The subscription details of one SIM slot; an empty slot has only an SmsManager, if any. */
+    public static class SimSlot {
+        public final int subscriptionId;  // -1 if not known
+        public final String imsi;
+        public final String carrierName;
+        public final String mobileNumber;
+        public final SmsManager smsManager;
+
+        SimSlot(int subscriptionId, String imsi, String carrierName, String mobileNumber, SmsManager smsManager) {
+            this.subscriptionId = subscriptionId;
+            this.imsi = imsi;
+            this.carrierName = carrierName;
+            this.mobileNumber = mobileNumber;
+            this.smsManager = smsManager;
+        }
+    }
+}
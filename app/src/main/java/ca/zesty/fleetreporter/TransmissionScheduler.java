@@ -0,0 +1,120 @@
+package ca.zesty.fleetreporter;
+
+import java.util.Random;
+
+/** Decides when LocationService should next try to transmit points from the
+    outbox, and how large a batch to send, for each SIM slot.
+
+    After each attempt, further attempts are held off for BASE_INTERVAL_MILLIS,
+    which should be long enough to receive the SMS sent acknowledgement.  The
+    schedule then adapts to conditions:
+
+      - When a send succeeds and the outbox is still deep, the next attempt is
+        brought forward to DRAIN_INTERVAL_MILLIS, so the outbox drains quickly.
+      - When a send fails, that slot backs off exponentially (with random
+        jitter, so that retries don't fall into lockstep with a periodic
+        network problem), up to MAX_BACKOFF_MILLIS.  Other slots that are not
+        failing become available to retry immediately.
+      - When little of the daily SMS budget remains, attempts are spaced out
+        to LOW_BUDGET_INTERVAL_MILLIS so that points accumulate and more of
+        them are packed into each remaining message.
+
+    All times are passed in by the caller, so the schedule can be exercised
+    with a fake clock in tests.
+ */
+public class TransmissionScheduler {
+    static final long SECOND = 1000;
+    static final long MINUTE = 60 * SECOND;
+    static final long BASE_INTERVAL_MILLIS = 30 * SECOND;
+    static final long DRAIN_INTERVAL_MILLIS = 5 * SECOND;
+    static final long LOW_BUDGET_INTERVAL_MILLIS = 10 * MINUTE;
+    static final long MAX_BACKOFF_MILLIS = 30 * MINUTE;
+    static final double BACKOFF_JITTER_FRACTION = 0.25;
+    static final int DEEP_OUTBOX_SIZE = 6;  // points
+    static final int LOW_BUDGET_SMS = 4;  // messages remaining today
+    static final int MAX_PARTS = 6;  // largest multipart message to send
+
+    private final int mNumSlots;
+    private final Random mRandom;
+    private final long[] mNextAttemptMillis;
+    private final int[] mConsecutiveFailures;
+
+    public TransmissionScheduler(int numSlots, Random random) {
+        mNumSlots = numSlots;
+        mRandom = random;
+        mNextAttemptMillis = new long[numSlots];
+        mConsecutiveFailures = new int[numSlots];
+    }
+
+    public int getNumSlots() {
+        return mNumSlots;
+    }
+
+    /** Returns true if it's time for an attempt on the given slot. */
+    public boolean isDue(int slot, long now) {
+        return now >= mNextAttemptMillis[slot];
+    }
+
+    /** Gets the earliest time at which an attempt on the given slot is allowed. */
+    public long getNextAttemptMillis(int slot) {
+        return mNextAttemptMillis[slot];
+    }
+
+    /** Allows an attempt on every slot right away (e.g. to answer a point request). */
+    public void allowImmediateAttempts() {
+        for (int slot = 0; slot < mNumSlots; slot++) mNextAttemptMillis[slot] = 0;
+    }
+
+    /** Records that an attempt is starting now, and holds off further attempts. */
+    public void onAttempt(long now, int remainingSms) {
+        long interval = remainingSms <= LOW_BUDGET_SMS ?
+            LOW_BUDGET_INTERVAL_MILLIS : BASE_INTERVAL_MILLIS;
+        for (int slot = 0; slot < mNumSlots; slot++) {
+            mNextAttemptMillis[slot] = Math.max(mNextAttemptMillis[slot], now + interval);
+        }
+    }
+
+    /** Records a successful send on a slot. */
+    public void onSuccess(int slot, long now, int outboxSize, int remainingSms) {
+        mConsecutiveFailures[slot] = 0;
+        if (outboxSize >= DEEP_OUTBOX_SIZE && remainingSms > LOW_BUDGET_SMS) {
+            // Sends are going through and there's a lot to send; speed up.
+            for (int s = 0; s < mNumSlots; s++) {
+                if (mConsecutiveFailures[s] == 0) {
+                    mNextAttemptMillis[s] = Math.min(mNextAttemptMillis[s], now + DRAIN_INTERVAL_MILLIS);
+                }
+            }
+        }
+    }
+
+    /** Records a failed send on a slot, backing off further attempts on that slot. */
+    public void onFailure(int slot, long now) {
+        mConsecutiveFailures[slot]++;
+        mNextAttemptMillis[slot] = now + getBackoffMillis(mConsecutiveFailures[slot]);
+        for (int s = 0; s < mNumSlots; s++) {
+            if (s != slot && mConsecutiveFailures[s] == 0) {
+                mNextAttemptMillis[s] = Math.min(mNextAttemptMillis[s], now);
+            }
+        }
+    }
+
+    /** Gets the randomized delay before retrying after the given number of consecutive failures. */
+    long getBackoffMillis(int numFailures) {
+        long backoff = BASE_INTERVAL_MILLIS;
+        for (int i = 1; i < numFailures && backoff < MAX_BACKOFF_MILLIS; i++) backoff *= 2;
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        double jitter = (2 * mRandom.nextDouble() - 1) * BACKOFF_JITTER_FRACTION;
+        return Math.round(backoff * (1 + jitter));
+    }
+
+    /**
+     * Gets the maximum number of SMS parts to use for the next message.  A deep
+     * outbox on a healthy slot (see SlotHealthTracker) is drained with a
+     * multipart message; otherwise, a single part is used, so a failure costs little.
+     */
+    public int getMaxParts(int outboxSize, int remainingSms, boolean slotIsHealthy) {
+        if (remainingSms <= 0) return 0;
+        if (outboxSize < DEEP_OUTBOX_SIZE || !slotIsHealthy) return 1;
+        return Math.min(MAX_PARTS, remainingSms);
+    }
+}
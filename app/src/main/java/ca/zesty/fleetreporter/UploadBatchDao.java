@@ -0,0 +1,26 @@
+package ca.zesty.fleetreporter;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface UploadBatchDao {
+    @Query("select * from upload_batches order by last_date")
+    List<UploadBatchEntity> getAll();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void put(UploadBatchEntity... batches);
+
+    @Query("update upload_batches set state = :state where last_date = :lastDate")
+    int setState(long lastDate, String state);
+
+    @Query("delete from upload_batches where last_date < :lastDate")
+    int deleteBefore(long lastDate);
+
+    @Query("delete from upload_batches")
+    int deleteAll();
+}
@@ -0,0 +1,30 @@
+package ca.zesty.fleetreporter;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+
+/** A journal entry for one batch of SMS history, covering the messages dated
+    after afterDate up to and including lastDate, keyed by its lastDate.
+ */
+@Entity(tableName = "upload_batches")
+public class UploadBatchEntity {
+    static final String PENDING = "PENDING";
+    static final String IN_FLIGHT = "IN_FLIGHT";
+    static final String ACKNOWLEDGED = "ACKNOWLEDGED";
+
+    @PrimaryKey
+    @ColumnInfo(name = "last_date") public long lastDate;
+    @ColumnInfo(name = "after_date") public long afterDate;
+    @ColumnInfo(name = "num_messages") public int numMessages;
+    @ColumnInfo(name = "sample_every") public int sampleEvery;  // 1 to send every message
+    @ColumnInfo(name = "state") public String state;
+
+    public UploadBatchEntity(long lastDate, long afterDate, int numMessages, int sampleEvery, String state) {
+        this.lastDate = lastDate;
+        this.afterDate = afterDate;
+        this.numMessages = numMessages;
+        this.sampleEvery = sampleEvery;
+        this.state = state;
+    }
+}
@@ -0,0 +1,104 @@
+package ca.zesty.fleetreporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Keeps track of a series of consecutive date ranges that are uploaded
+    concurrently and may be acknowledged in any order.
+
+    Each range covers the dates after the end of the previous range, up to
+    and including its own lastDate.  The committed date (the high-water mark
+    that is safe to save as the upload checkpoint) only advances past a range
+    once it and every range before it have been acknowledged, so a crash or
+    restart never skips a range that is still in flight or has failed.
+    Failed ranges go back to the front of the queue to be sent again.
+ */
+public class UploadRangeTracker {
+    public static class Range {
+        public final long afterDate;  // exclusive
+        public final long lastDate;  // inclusive
+        private boolean mSent = false;
+        private boolean mAcknowledged = false;
+
+        Range(long afterDate, long lastDate) {
+            this.afterDate = afterDate;
+            this.lastDate = lastDate;
+        }
+
+        @Override public String toString() {
+            return Utils.format("(%d, %d]", afterDate, lastDate);
+        }
+    }
+
+    private final List<Range> mRanges = new ArrayList<>();  // unacknowledged ranges, in date order
+    private long mCommittedDate;
+    private long mEndDate;  // lastDate of the last range added
+
+    public UploadRangeTracker(long committedDate) {
+        reset(committedDate);
+    }
+
+    /** Forgets all ranges and starts again after the given date. */
+    public synchronized void reset(long committedDate) {
+        mRanges.clear();
+        mCommittedDate = committedDate;
+        mEndDate = committedDate;
+    }
+
+    /** Adds a range from the end of the last range up to lastDate. */
+    public synchronized Range add(long lastDate) {
+        if (lastDate <= mEndDate) throw new IllegalArgumentException(
+            "Range must end after " + mEndDate + ", not at " + lastDate);
+        Range range = new Range(mEndDate, lastDate);
+        mRanges.add(range);
+        mEndDate = lastDate;
+        return range;
+    }
+
+    /** Gets the earliest range that isn't in flight, and marks it as in flight. */
+    public synchronized Range nextToSend() {
+        for (Range range : mRanges) {
+            if (!range.mSent && !range.mAcknowledged) {
+                range.mSent = true;
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /** Marks a range as acknowledged; returns the committed date, which may have advanced. */
+    public synchronized long onAcknowledged(Range range) {
+        range.mAcknowledged = true;
+        while (!mRanges.isEmpty() && mRanges.get(0).mAcknowledged) {
+            mCommittedDate = mRanges.remove(0).lastDate;
+        }
+        return mCommittedDate;
+    }
+
+    /** Marks a range as failed, so that nextToSend() will return it again. */
+    public synchronized void onFailed(Range range) {
+        range.mSent = false;
+    }
+
+    public synchronized int getInFlightCount() {
+        int count = 0;
+        for (Range range : mRanges) {
+            if (range.mSent && !range.mAcknowledged) count++;
+        }
+        return count;
+    }
+
+    /** Returns true if every range that was added has been acknowledged. */
+    public synchronized boolean isEmpty() {
+        return mRanges.isEmpty();
+    }
+
+    public synchronized long getCommittedDate() {
+        return mCommittedDate;
+    }
+
+    /** Gets the lastDate of the last range added, or the committed date if there are none. */
+    public synchronized long getEndDate() {
+        return mEndDate;
+    }
+}
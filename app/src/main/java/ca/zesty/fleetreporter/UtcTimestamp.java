@@ -0,0 +1,125 @@
+package ca.zesty.fleetreporter;
+
+/** Formats and parses RFC3339 timestamps in UTC, like "2018-08-01T12:34:56Z".
+
+    SimpleDateFormat is not thread-safe, and allocates a Date and Calendar
+    fields on every call; this is used for every log line and every point,
+    from several threads.  Instead, the civil date is computed arithmetically
+    from the day number (see http://howardhinnant.github.io/date_algorithms.html)
+    and the characters are written into a per-thread buffer.
+ */
+public class UtcTimestamp {
+    static final int SECONDS_LENGTH = 20;  // "YYYY-MM-DDTHH:MM:SSZ"
+    static final int MILLIS_LENGTH = 24;  // "YYYY-MM-DDTHH:MM:SS.sssZ"
+    static final long SECOND = 1000;
+    static final long DAY = 24 * 60 * 60 * SECOND;
+
+    private static final ThreadLocal<char[]> sBuffer = new ThreadLocal<char[]>() {
+        @Override protected char[] initialValue() {
+            return new char[MILLIS_LENGTH];
+        }
+    };
+
+    /** Formats a time as an RFC3339 timestamp in UTC of exactly 20 characters. */
+    public static String formatSeconds(long timeMillis) {
+        char[] buffer = sBuffer.get();
+        writeDateTime(buffer, timeMillis);
+        buffer[19] = 'Z';
+        return new String(buffer, 0, SECONDS_LENGTH);
+    }
+
+    /** Formats a time as an RFC3339 timestamp in UTC including milliseconds. */
+    public static String formatMillis(long timeMillis) {
+        char[] buffer = sBuffer.get();
+        writeDateTime(buffer, timeMillis);
+        buffer[19] = '.';
+        writeDigits(buffer, 20, 3, (int) floorMod(timeMillis, SECOND));
+        buffer[23] = 'Z';
+        return new String(buffer, 0, MILLIS_LENGTH);
+    }
+
+    /** Parses an RFC3339 timestamp in UTC to give a time in milliseconds, or null. */
+    public static Long parse(String timestamp) {
+        if (timestamp == null || timestamp.length() != SECONDS_LENGTH ||
+            timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' ||
+            timestamp.charAt(10) != 'T' || timestamp.charAt(13) != ':' ||
+            timestamp.charAt(16) != ':' || timestamp.charAt(19) != 'Z') return null;
+        int year = readDigits(timestamp, 0, 4);
+        int month = readDigits(timestamp, 5, 2);
+        int day = readDigits(timestamp, 8, 2);
+        int hour = readDigits(timestamp, 11, 2);
+        int minute = readDigits(timestamp, 14, 2);
+        int second = readDigits(timestamp, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 ||
+            hour < 0 || hour > 23 || minute < 0 || minute > 59 ||
+            second < 0 || second > 60) return null;
+        long days = daysFromCivil(year, month, day);
+        return days * DAY + ((hour * 60 + minute) * 60 + second) * SECOND;
+    }
+
+    /** Writes "YYYY-MM-DDTHH:MM:SS" into the first 19 characters of the buffer. */
+    private static void writeDateTime(char[] buffer, long timeMillis) {
+        long days = floorDiv(timeMillis, DAY);
+        int secondOfDay = (int) (floorMod(timeMillis, DAY) / SECOND);
+
+        // Convert the day number (days since 1970-01-01) to year, month, and day.
+        long z = days + 719468;  // days since 0000-03-01
+        long era = (z >= 0 ? z : z - 146096) / 146097;  // 400-year cycles
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);  // from March 1
+        int monthIndex = (5 * dayOfYear + 2) / 153;  // 0 = March, 11 = February
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        writeDigits(buffer, 0, 4, (int) year);
+        buffer[4] = '-';
+        writeDigits(buffer, 5, 2, month);
+        buffer[7] = '-';
+        writeDigits(buffer, 8, 2, day);
+        buffer[10] = 'T';
+        writeDigits(buffer, 11, 2, secondOfDay / 3600);
+        buffer[13] = ':';
+        writeDigits(buffer, 14, 2, secondOfDay / 60 % 60);
+        buffer[16] = ':';
+        writeDigits(buffer, 17, 2, secondOfDay % 60);
+    }
+
+    /** Gets the number of days since 1970-01-01 for a date in the proleptic Gregorian calendar. */
+    static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2) year--;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = (int) (year - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static void writeDigits(char[] buffer, int start, int length, int value) {
+        for (int i = start + length - 1; i >= start; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /** Reads a fixed-length decimal number, returning -1 if there are any non-digits. */
+    private static int readDigits(String str, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -11,6 +11,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.hardware.SensorManager;
 import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Environment;
@@ -20,8 +21,6 @@ import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.telephony.SmsManager;
 import android.telephony.SmsMessage;
-import android.telephony.SubscriptionInfo;
-import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.text.InputFilter;
 import android.text.Spanned;
@@ -39,13 +38,11 @@ import com.crashlytics.android.Crashlytics;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -53,36 +50,38 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Random;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import io.fabric.sdk.android.Fabric;
 
 public class Utils {
     static final String TAG = "Utils";
     static final TimeZone UTC = TimeZone.getTimeZone("UTC");
-    static final SimpleDateFormat RFC3339_UTC_SECONDS;
-    static final SimpleDateFormat RFC3339_UTC_MILLIS;
-    static {
-        RFC3339_UTC_SECONDS = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-        RFC3339_UTC_SECONDS.setTimeZone(UTC);
-        RFC3339_UTC_MILLIS = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-        RFC3339_UTC_MILLIS.setTimeZone(UTC);
-    }
-
-    static final Pattern PATTERN_TIMESTAMP = Pattern.compile(
-        "(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2}):(\\d{2})Z");
+    static final String EXTRA_SMS_PART_INDEX = "sms_part_index";
+    static final String EXTRA_SMS_NUM_PARTS = "sms_num_parts";
 
     static int sNumLogRemoteLines = 0;
     static long sTimeOffsetMillis = 0;  // compensate for an inaccurate system clock
     static boolean sCrashlyticsAvailable = false;
+    static volatile boolean sVerboseLogEnabled = false;  // see Prefs.VERBOSE_LOG
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override public long getTime() {
+            return System.currentTimeMillis() + sTimeOffsetMillis;
+        }
+    };
+    static Clock sClock = SYSTEM_CLOCK;
 
     public static void setTimeOffset(long offsetMillis) {
         sTimeOffsetMillis = offsetMillis;
     }
 
+    /** Replaces the source of getTime(), e.g. with a simulated clock for replaying traces. */
+    public static void setClock(Clock clock) {
+        sClock = clock == null ? SYSTEM_CLOCK : clock;
+    }
+
     public static long getTime() {
-        return System.currentTimeMillis() + sTimeOffsetMillis;
+        return sClock.getTime();
     }
 
     /** Calls String.format with the US locale. */
@@ -160,12 +159,12 @@ public class Utils {
 
     /** Formats a time as an RFC3339 timestamp in UTC of exactly 20 characters. */
     public static String formatUtcTimeSeconds(long timeMillis) {
-        return RFC3339_UTC_SECONDS.format(new Date(timeMillis));
+        return UtcTimestamp.formatSeconds(timeMillis);
     }
 
     /** Formats a time as an RFC3339 timestamp in UTC including milliseconds. */
     public static String formatUtcTimeMillis(long timeMillis) {
-        return RFC3339_UTC_MILLIS.format(new Date(timeMillis));
+        return UtcTimestamp.formatMillis(timeMillis);
     }
 
     public static String formatLocalTimeOfDay(long timeMillis) {
@@ -176,19 +175,7 @@ public class Utils {
 
     /** Parses an RFC3339 timestamp in UTC to give a time in milliseconds, or null. */
     public static Long parseTimestamp(String timestamp) {
-        Matcher matcher = PATTERN_TIMESTAMP.matcher(timestamp);
-        if (!matcher.matches()) return null;
-        Calendar calendar = Calendar.getInstance(UTC);
-        calendar.clear();
-        calendar.set(
-            Integer.parseInt(matcher.group(1)),
-            Integer.parseInt(matcher.group(2)) - 1, // Java is insane (0 = Jan, 11 = Dec)
-            Integer.parseInt(matcher.group(3)),
-            Integer.parseInt(matcher.group(4)),
-            Integer.parseInt(matcher.group(5)),
-            Integer.parseInt(matcher.group(6))
-        );
-        return calendar.getTimeInMillis();
+        return UtcTimestamp.parse(timestamp);
     }
 
     /** Describes a time period using a short phrase like "23 min". */
@@ -233,12 +220,30 @@ public class Utils {
     }
 
     public static int getLocalMinutesSinceMidnight() {
-        Calendar localTime = Calendar.getInstance();
+        Calendar localTime = getLocalCalendar();
         return localTime.get(Calendar.HOUR_OF_DAY) * 60 + localTime.get(Calendar.MINUTE);
     }
 
+    /** Gets the next time after now at which the local time of day is the given minute. */
+    public static long getNextLocalTimeOfDayMillis(int minutesSinceMidnight) {
+        Calendar time = getLocalCalendar();
+        time.set(Calendar.HOUR_OF_DAY, minutesSinceMidnight / 60);
+        time.set(Calendar.MINUTE, minutesSinceMidnight % 60);
+        time.set(Calendar.SECOND, 0);
+        time.set(Calendar.MILLISECOND, 0);
+        if (time.getTimeInMillis() <= getTime()) time.add(Calendar.DAY_OF_MONTH, 1);
+        return time.getTimeInMillis();
+    }
+
+    /** Gets a Calendar for the current time (see setClock) in the local time zone. */
+    private static Calendar getLocalCalendar() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(getTime());
+        return calendar;
+    }
+
     public static String formatLocalDate() {
-        Calendar today = Calendar.getInstance();
+        Calendar today = getLocalCalendar();
         return Utils.format("%04d-%02d-%02d",
             today.get(Calendar.YEAR),
             today.get(Calendar.MONTH) + 1,  // Java is fucking insane
@@ -354,6 +359,19 @@ public class Utils {
         }
     }
 
+    public static void setVerboseLogEnabled(boolean enabled) {
+        sVerboseLogEnabled = enabled;
+    }
+
+    /**
+     * Returns true if log lines about every GPS fix should be written.  Code
+     * on the GPS path checks this before calling log(), because building the
+     * message (and the varargs array) allocates even if the line is dropped.
+     */
+    public static boolean isVerboseLogEnabled() {
+        return sVerboseLogEnabled;
+    }
+
     public static void log(String tag, String message, Object... args) {
         logHelper(tag, args.length > 0 ? Utils.format(message, args) : message, false);
     }
@@ -372,20 +390,7 @@ public class Utils {
         } else {
             Log.i(tag, message);
         }
-        String filename = Utils.format("%s-%s.txt", BuildConfig.APPLICATION_ID, timestamp.substring(0, 10));
-        File directory = getExternalDirectory();
-        if (directory == null) return;  // fails during testing due to lack of mocks
-        File file = new File(directory, filename);
-        try {
-            FileWriter writer = new FileWriter(file, true);
-            try {
-                writer.append(Utils.escapeString(logLine) + "\n");
-            } finally {
-                writer.close();
-            }
-        } catch (IOException e) {
-            Log.w(TAG, "Could not write to " + file.getAbsolutePath());
-        }
+        LogWriter.write(timestamp.substring(0, 10), Utils.escapeString(logLine));
     }
 
     public static void transmitLog() {
@@ -449,6 +454,10 @@ public class Utils {
         return (PowerManager) context.getSystemService(Context.POWER_SERVICE);
     }
 
+    public SensorManager getSensorManager() {
+        return (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    }
+
     public TelephonyManager getTelephonyManager() {
         return (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
     }
@@ -475,6 +484,7 @@ public class Utils {
     public void relaunchApp() {
         Utils.logRemote(TAG, "Relaunch");
         Utils.transmitLog();
+        LogWriter.flush();
         Intent intent = new Intent(context, MainActivity.class);
         getAlarmManager().set(
             AlarmManager.ELAPSED_REALTIME_WAKEUP,
@@ -496,85 +506,104 @@ public class Utils {
     /** Sends a text message using the default SmsManager. */
     public void sendSms(int slot, String recipient, String body, Intent sentBroadcastIntent) {
         PendingIntent sentIntent = sentBroadcastIntent == null ? null :
-            PendingIntent.getBroadcast(context, 0, sentBroadcastIntent, PendingIntent.FLAG_ONE_SHOT);
+            getSentIntent(sentBroadcastIntent);
+        SmsManager manager = getSmsManager(slot);
+        if (manager == null) {
+            Utils.logRemote(TAG, "No SmsManager for slot %d; not sending SMS to %s: %s", slot, recipient, body);
+            return;
+        }
         Utils.logRemote(TAG, "Sending SMS (slot %d) to %s: %s", slot, recipient, body);
-        getSmsManager(slot).sendTextMessage(recipient, null, body, sentIntent, null);
+        manager.sendTextMessage(recipient, null, body, sentIntent, null);
+    }
+
+    /**
+     * Sends a text message as a concatenated multipart SMS if it is too long
+     * for one part, returning the number of parts.  The sent broadcast intent
+     * is broadcast once for each part, with EXTRA_SMS_PART_INDEX and
+     * EXTRA_SMS_NUM_PARTS added so that the receiver can aggregate the results.
+     * Returns 0 without sending if the slot is empty.
+     */
+    public int sendMultipartSms(int slot, String recipient, String body, Intent sentBroadcastIntent) {
+        SmsManager manager = getSmsManager(slot);
+        if (manager == null) {
+            Utils.logRemote(TAG, "No SmsManager for slot %d; not sending SMS to %s: %s", slot, recipient, body);
+            return 0;
+        }
+        ArrayList<String> parts = manager.divideMessage(body);
+        ArrayList<PendingIntent> sentIntents = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            sentIntents.add(getSentIntent(new Intent(sentBroadcastIntent)
+                .putExtra(EXTRA_SMS_PART_INDEX, i)
+                .putExtra(EXTRA_SMS_NUM_PARTS, parts.size())
+            ));
+        }
+        Utils.logRemote(TAG, "Sending %d-part SMS (slot %d) to %s: %s", parts.size(), slot, recipient, body);
+        manager.sendMultipartTextMessage(recipient, null, parts, sentIntents, null);
+        return parts.size();
+    }
+
+    /** Wraps a sent broadcast intent in a PendingIntent that won't be confused with any other. */
+    private PendingIntent getSentIntent(Intent sentBroadcastIntent) {
+        // PendingIntents that differ only in their extras are considered equal,
+        // so each one needs its own request code to keep its extras intact.
+        return PendingIntent.getBroadcast(
+            context, nextSentIntentRequestCode(), sentBroadcastIntent, PendingIntent.FLAG_ONE_SHOT);
+    }
+
+    /**
+     * Allocates a request code for a sent intent.  The counter is saved, so that
+     * after a restart it can't reuse the code of a PendingIntent that an earlier
+     * process created and whose status hasn't been broadcast yet.
+     */
+    private int nextSentIntentRequestCode() {
+        synchronized (Utils.class) {
+            int code = getIntPref(Prefs.SENT_INTENT_REQUEST_CODE, 0);
+            applyPref(Prefs.SENT_INTENT_REQUEST_CODE, "" + (code + 1));
+            return code;
+        }
+    }
+
+    public SubscriptionCache getSubscriptionCache() {
+        return SubscriptionCache.get(context);
     }
 
     /** Gets the IMSI for a given SIM slot; returns null if no such slot. */
     public String getImsi(int slot) {
-        if (android.os.Build.VERSION.SDK_INT >= 22) {
-            SubscriptionInfo sub = SubscriptionManager.from(context)
-                .getActiveSubscriptionInfoForSimSlotIndex(slot);
-            if (sub == null) return null;
-            try {
-                // The TelephonyManager.getSubscriberId(int) method is public but hidden.
-                Class cls = Class.forName("android.telephony.TelephonyManager");
-                Method method = cls.getMethod("getSubscriberId", new Class[] {int.class});
-                Object result = method.invoke(getTelephonyManager(), new Object[] {sub.getSubscriptionId()});
-                return (String) result;
-            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-                Log.e(TAG, "Failed to look up subscriber ID for slot " + slot + ": " + e);
-                return null;
-            }
-        }
-        return slot == 0 ? getTelephonyManager().getSubscriberId() : null;
+        SubscriptionCache.SimSlot simSlot = getSubscriptionCache().getSlot(slot);
+        return simSlot == null ? null : simSlot.imsi;
     }
 
     /** Gets the mobile number for a given SIM slot; can fail and return null. */
     public String getMobileNumber(int slot) {
-        String number = null;
-        if (android.os.Build.VERSION.SDK_INT >= 22) {
-            SubscriptionInfo sub = SubscriptionManager.from(context)
-                .getActiveSubscriptionInfoForSimSlotIndex(slot);
-            if (sub != null) number = sub.getNumber();
-        }
-        if (number == null && slot == 0) {
-            number = getTelephonyManager().getLine1Number();
-        }
+        SubscriptionCache.SimSlot simSlot = getSubscriptionCache().getSlot(slot);
+        String number = simSlot == null ? null : simSlot.mobileNumber;
         return (number == null || number.isEmpty()) ? null : "+" + number.replaceAll("^\\+*", "");
     }
 
     public int getNumSimSlots() {
-        int slots = 0;
-        while (getSmsManager(slots) != null) slots++;
-        return slots;
+        return getSubscriptionCache().getNumSlots();
     }
 
     /** Finds the SIM slot with a given IMSI; returns -1 if no such slot. */
     public int getSlotWithImsi(String imsi) {
-        if (imsi == null) return -1;
-        for (int slot = 0; slot < getNumSimSlots(); slot++) {
-            if (imsi.equals(getImsi(slot))) return slot;
-        }
-        return -1;
+        return getSubscriptionCache().getSlotWithImsi(imsi);
+    }
+
+    /** Finds the SIM slot with a given subscription ID; returns -1 if no such slot. */
+    public int getSlotWithSubscriptionId(int subscriptionId) {
+        return getSubscriptionCache().getSlotWithSubscriptionId(subscriptionId);
     }
 
     /** Gets the carrier name for a given SIM slot; returns null if no such slot. */
     public String getCarrierName(int slot) {
-        if (android.os.Build.VERSION.SDK_INT >= 22) {
-            SubscriptionInfo sub = SubscriptionManager.from(context)
-                .getActiveSubscriptionInfoForSimSlotIndex(slot);
-            if (sub != null) {
-                return String.valueOf(sub.getCarrierName());
-            }
-        }
-        return slot == 0 ? getTelephonyManager().getNetworkOperatorName() : null;
+        SubscriptionCache.SimSlot simSlot = getSubscriptionCache().getSlot(slot);
+        return simSlot == null ? null : simSlot.carrierName;
     }
 
     /** Gets the SmsManager for a given SIM slot; returns null if no such slot. */
     public SmsManager getSmsManager(int slot) {
-        if (android.os.Build.VERSION.SDK_INT >= 22) {
-            SubscriptionInfo sub = SubscriptionManager.from(context)
-                .getActiveSubscriptionInfoForSimSlotIndex(slot);
-            if (sub != null) {
-                int subscriptionId = sub.getSubscriptionId();
-                if (subscriptionId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-                    return SmsManager.getSmsManagerForSubscriptionId(subscriptionId);
-                }
-            }
-        }
-        return slot == 0 ? SmsManager.getDefault() : null;
+        SubscriptionCache.SimSlot simSlot = getSubscriptionCache().getSlot(slot);
+        return simSlot == null ? null : simSlot.smsManager;
     }
 
     public SharedPreferences getPrefs() {
@@ -660,6 +689,11 @@ public class Utils {
         getPrefs().edit().putBoolean(key, value).commit();
     }
 
+    /** Sets a preference without waiting for it to be written to disk. */
+    public void applyPref(String key, String value) {
+        getPrefs().edit().putString(key, value).apply();
+    }
+
     public void sendUssd(int slot, String code) {
         Utils.logRemote(TAG, "Sending USSD (slot %d): %s", slot, code);
         Intent intent = new Intent(Intent.ACTION_CALL);
@@ -0,0 +1,65 @@
+package ca.zesty.fleetreporter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A Scheduler and Clock for running scheduling logic on simulated time.
+    Install it with Utils.setClock(), then call advanceTo() to move the
+    clock forward, running each task when its time comes.
+ */
+public class VirtualScheduler implements Scheduler, Clock {
+    private long mNow;
+    private final Map<Runnable, Long> mTaskTimes = new HashMap<>();
+    private int mNumTasksRun = 0;
+
+    public VirtualScheduler(long startMillis) {
+        mNow = startMillis;
+    }
+
+    @Override public long getTime() {
+        return mNow;
+    }
+
+    @Override public void scheduleAt(Runnable task, long timeMillis) {
+        mTaskTimes.put(task, Math.max(mNow, timeMillis));
+    }
+
+    @Override public void cancel(Runnable task) {
+        mTaskTimes.remove(task);
+    }
+
+    /** Gets the time of the earliest pending task, or null if there are none. */
+    public Long getNextTaskMillis() {
+        Long earliest = null;
+        for (Long time : mTaskTimes.values()) {
+            if (earliest == null || time < earliest) earliest = time;
+        }
+        return earliest;
+    }
+
+    /** Gets the total number of times that tasks have been run. */
+    public int getNumTasksRun() {
+        return mNumTasksRun;
+    }
+
+    /** Moves the clock forward to the given time, running tasks in order as they come due. */
+    public void advanceTo(long timeMillis) {
+        while (true) {
+            Long next = getNextTaskMillis();
+            if (next == null || next > timeMillis) break;
+            mNow = next;
+            List<Runnable> due = new ArrayList<>();
+            for (Map.Entry<Runnable, Long> entry : mTaskTimes.entrySet()) {
+                if (entry.getValue() <= mNow) due.add(entry.getKey());
+            }
+            for (Runnable task : due) {
+                mTaskTimes.remove(task);
+                mNumTasksRun++;
+                task.run();
+            }
+        }
+        mNow = Math.max(mNow, timeMillis);
+    }
+}
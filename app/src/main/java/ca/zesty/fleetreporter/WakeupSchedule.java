@@ -0,0 +1,175 @@
+package ca.zesty.fleetreporter;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/** Decides when LocationService next needs to wake up to do its periodic work.
+
+    Between events the service has nothing to do, so rather than polling, it
+    sleeps until the earliest of: a point due to be recorded, a GPS outage
+    due to be reported, a retransmission or send timeout (which the caller
+    works out from its outbox), a change in the GPS sampling rate, a credit
+    check, the start or end of the sleep period, or the daily relaunch.
+    While awake it never sleeps longer than MAX_WAKEUP_INTERVAL_MILLIS.
+
+    The current time comes from the given Clock and times of day are taken
+    in the given time zone, so TraceReplay can run this same logic on a
+    simulated clock.  getNextReason() says which event a wakeup is for, so
+    wakeups can be counted by their source.
+ */
+public class WakeupSchedule {
+    static final long SECOND = 1000;
+    static final long MINUTE = 60 * SECOND;
+    static final long MIN_WAKEUP_INTERVAL_MILLIS = SECOND;
+    static final long MAX_WAKEUP_INTERVAL_MILLIS = 10 * MINUTE;
+    static final long CREDIT_CHECK_INTERVAL_MILLIS = 2 * MINUTE;
+
+    /** The events that a wakeup can be scheduled for. */
+    public enum Reason {
+        RECORD_POINT, REPORT_OUTAGE, TRANSMIT, SAMPLING_CHANGE,
+        CREDIT_CHECK, SLEEP_START, SLEEP_END, RELAUNCH, MAX_INTERVAL
+    }
+
+    private final Clock mClock;
+    private final TimeZone mTimeZone;
+    private final RecordingSchedule mRecordingSchedule;
+    private final SamplingPolicy mSamplingPolicy;  // null if the GPS is always on
+    private int mSleepStartMinutes = 0;
+    private int mSleepEndMinutes = 0;  // no sleep period if equal to mSleepStartMinutes
+    private int mRelaunchMinutes = 0;
+    private long mLastCreditCheckMillis = 0;
+    private long mLastRelaunchCheckMillis;
+    private Reason mNextReason = Reason.MAX_INTERVAL;
+
+    public WakeupSchedule(Clock clock, TimeZone timeZone,
+                          RecordingSchedule recordingSchedule, SamplingPolicy samplingPolicy) {
+        mClock = clock;
+        mTimeZone = timeZone;
+        mRecordingSchedule = recordingSchedule;
+        mSamplingPolicy = samplingPolicy;
+        mLastRelaunchCheckMillis = clock.getTime();
+    }
+
+    /** Sets the sleep period and the daily relaunch time, each as "HH:MM". */
+    public void setTimesOfDay(String sleepStart, String sleepEnd, String relaunchTime) {
+        mSleepStartMinutes = Utils.countMinutesSinceMidnight(sleepStart);
+        mSleepEndMinutes = Utils.countMinutesSinceMidnight(sleepEnd);
+        mRelaunchMinutes = Utils.countMinutesSinceMidnight(relaunchTime);
+    }
+
+    /** Returns true if the current local time is within the sleep period. */
+    public boolean isSleepPeriod() {
+        Calendar now = getLocalCalendar();
+        int minutes = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+        if (mSleepStartMinutes <= mSleepEndMinutes) {
+            return mSleepStartMinutes <= minutes && minutes < mSleepEndMinutes;
+        } else {
+            return mSleepStartMinutes <= minutes || minutes < mSleepEndMinutes;
+        }
+    }
+
+    /** Returns true if it has been long enough since the last credit check. */
+    public boolean isCreditCheckDue() {
+        return mClock.getTime() >= mLastCreditCheckMillis + CREDIT_CHECK_INTERVAL_MILLIS;
+    }
+
+    public void onCreditCheck() {
+        mLastCreditCheckMillis = mClock.getTime();
+    }
+
+    /**
+     * Checks whether the daily relaunch time has passed since the last check.
+     * Wakeups can be deferred or batched, so this doesn't require a check
+     * within the exact minute.  Returns the local date (YYYY-MM-DD) of the
+     * relaunch time if the app should relaunch now, or null if not; the
+     * caller should save the date and pass it in as lastRelaunchDate, so
+     * that the app relaunches at most once for each day.
+     */
+    public String checkRelaunch(String lastRelaunchDate) {
+        long now = mClock.getTime();
+        Calendar relaunch = getLocalTimeOfDay(mRelaunchMinutes);
+        if (relaunch.getTimeInMillis() > now) relaunch.add(Calendar.DAY_OF_MONTH, -1);
+        String relaunchDate = Utils.format("%04d-%02d-%02d",
+            relaunch.get(Calendar.YEAR),
+            relaunch.get(Calendar.MONTH) + 1,
+            relaunch.get(Calendar.DAY_OF_MONTH)
+        );
+        boolean due = mLastRelaunchCheckMillis < relaunch.getTimeInMillis() &&
+            !relaunchDate.equals(lastRelaunchDate);
+        mLastRelaunchCheckMillis = now;
+        return due ? relaunchDate : null;
+    }
+
+    /**
+     * Gets the time of the next wakeup, and sets the reason for it.
+     * @param sleeping true if the service is in its sleep period with the GPS off
+     * @param point the latest point not yet recorded, or null
+     * @param outageReportMillis the earliest time that a GPS outage may be
+     *     reported, or null if there is no GPS outage
+     * @param transmissionMillis the earliest time that a retransmission or
+     *     a send timeout is due, or Long.MAX_VALUE if none
+     */
+    public long getNextWakeupMillis(boolean sleeping, Point point,
+                                    Long outageReportMillis, long transmissionMillis) {
+        long now = mClock.getTime();
+        mNextReason = Reason.MAX_INTERVAL;
+        long next = sleeping ? Long.MAX_VALUE : now + MAX_WAKEUP_INTERVAL_MILLIS;
+        next = consider(next, getNextLocalTimeMillis(mRelaunchMinutes), Reason.RELAUNCH);
+        next = consider(next, transmissionMillis, Reason.TRANSMIT);
+        if (sleeping) {
+            next = consider(next, getNextLocalTimeMillis(mSleepEndMinutes), Reason.SLEEP_END);
+        } else {
+            if (mSleepStartMinutes != mSleepEndMinutes) {
+                next = consider(next, getNextLocalTimeMillis(mSleepStartMinutes), Reason.SLEEP_START);
+            }
+            next = consider(next, mLastCreditCheckMillis + CREDIT_CHECK_INTERVAL_MILLIS, Reason.CREDIT_CHECK);
+            Long samplingChangeMillis = mSamplingPolicy == null ? null : mSamplingPolicy.getNextChangeMillis(now);
+            if (samplingChangeMillis != null) {
+                next = consider(next, samplingChangeMillis, Reason.SAMPLING_CHANGE);
+            }
+            if (point != null) {
+                next = consider(next, mRecordingSchedule.isDue(point, now) ? now :
+                    mRecordingSchedule.getNextRecordingMillis(now), Reason.RECORD_POINT);
+            }
+            if (outageReportMillis != null) {
+                next = consider(next, Math.max(mRecordingSchedule.getNextRecordingMillis(now),
+                    outageReportMillis), Reason.REPORT_OUTAGE);
+            }
+        }
+        return Math.max(next, now + MIN_WAKEUP_INTERVAL_MILLIS);
+    }
+
+    /** Gets the event that the time last returned by getNextWakeupMillis() is for. */
+    public Reason getNextReason() {
+        return mNextReason;
+    }
+
+    private long consider(long next, long eventMillis, Reason reason) {
+        if (eventMillis >= next) return next;
+        mNextReason = reason;
+        return eventMillis;
+    }
+
+    /** Gets the next time after now that the local time of day is the given minute. */
+    private long getNextLocalTimeMillis(int minutesSinceMidnight) {
+        Calendar time = getLocalTimeOfDay(minutesSinceMidnight);
+        if (time.getTimeInMillis() <= mClock.getTime()) time.add(Calendar.DAY_OF_MONTH, 1);
+        return time.getTimeInMillis();
+    }
+
+    /** Gets a Calendar for the given minute of today's date in local time. */
+    private Calendar getLocalTimeOfDay(int minutesSinceMidnight) {
+        Calendar time = getLocalCalendar();
+        time.set(Calendar.HOUR_OF_DAY, minutesSinceMidnight / 60);
+        time.set(Calendar.MINUTE, minutesSinceMidnight % 60);
+        time.set(Calendar.SECOND, 0);
+        time.set(Calendar.MILLISECOND, 0);
+        return time;
+    }
+
+    private Calendar getLocalCalendar() {
+        Calendar calendar = Calendar.getInstance(mTimeZone);
+        calendar.setTimeInMillis(mClock.getTime());
+        return calendar;
+    }
+}
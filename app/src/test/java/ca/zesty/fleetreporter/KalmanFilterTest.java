@@ -0,0 +1,142 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KalmanFilterTest {
+    static final long SECOND = 1000;  // millis
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+    static final double METERS_PER_DEGREE = LocationFix.MEAN_RADIUS * LocationFix.RADIANS_PER_DEGREE;
+
+    private List<LocationFix> fixes;
+    private KalmanFilter filter;
+
+    @Before public void setUp() {
+        fixes = new ArrayList<>();
+        filter = new KalmanFilter(new LocationFixListener() {
+            public void onFix(LocationFix fix) {
+                fixes.add(fix);
+            }
+        });
+    }
+
+    private LocationFix last() {
+        return fixes.get(fixes.size() - 1);
+    }
+
+    @Test public void testSmoothsStationaryNoise() {
+        Random random = new Random(0);
+        LocationFix truth = new LocationFix(T0, 37, -122, 0, 0, 0, 0);
+        double rawError = 0;
+        double filteredError = 0;
+        double totalSpeedKmh = 0;
+        for (int i = 0; i < 60; i++) {
+            LocationFix fix = new LocationFix(T0 + i * SECOND,
+                37 + 10 * random.nextGaussian() / METERS_PER_DEGREE,
+                -122 + 10 * random.nextGaussian() / METERS_PER_DEGREE,
+                0, Math.abs(random.nextGaussian()), 0, 15);
+            filter.onFix(fix);
+            rawError += fix.distanceTo(truth);
+            filteredError += last().distanceTo(truth);
+            totalSpeedKmh += last().speedKmh;
+        }
+        assertEquals(60, fixes.size());
+        assertTrue(filteredError < 0.7 * rawError);
+        assertTrue(totalSpeedKmh / 60 < MotionListener.DEFAULT_STABLE_MAX_SPEED);
+        assertTrue(last().latLonSd < 15);
+    }
+
+    @Test public void testTracksConstantVelocity() {
+        // Drive due east at 10 m/s (36 km/h), with noisy speeds and bearings.
+        Random random = new Random(0);
+        double cosLatitude = Math.cos(37 * LocationFix.RADIANS_PER_DEGREE);
+        for (int i = 0; i < 30; i++) {
+            filter.onFix(new LocationFix(T0 + i * SECOND,
+                37, -122 + 10 * i / (cosLatitude * METERS_PER_DEGREE), 0,
+                36 + 5 * random.nextGaussian(), 90 + 10 * random.nextGaussian(), 10));
+        }
+        assertEquals(36, last().speedKmh, 5);
+        assertEquals(90, last().bearing, 10);
+    }
+
+    @Test public void testStaysStillAtTenSecondIntervals() {
+        // Fixes every 10 s while resting must not turn position noise into speed.
+        Random random = new Random(0);
+        for (int i = 0; i < 60; i++) {
+            filter.onFix(newStationaryFix(random, T0 + i * 10 * SECOND, 10, 15));
+            assertTrue("Speed " + last().speedKmh + " at fix " + i,
+                last().speedKmh < MotionListener.DEFAULT_STABLE_MAX_SPEED);
+        }
+    }
+
+    @Test public void testTracksConstantVelocityAtTenSecondIntervals() {
+        Random random = new Random(0);
+        double cosLatitude = Math.cos(37 * LocationFix.RADIANS_PER_DEGREE);
+        for (int i = 0; i < 10; i++) {
+            filter.onFix(new LocationFix(T0 + i * 10 * SECOND,
+                37, -122 + 100 * i / (cosLatitude * METERS_PER_DEGREE), 0,
+                36 + 5 * random.nextGaussian(), 90 + 10 * random.nextGaussian(), 10));
+        }
+        assertEquals(36, last().speedKmh, 5);
+        assertEquals(90, last().bearing, 10);
+    }
+
+    @Test public void testIgnoresSpuriousSpeeds() {
+        // Every other fix has a speed derived from two noisy positions a second
+        // apart, which is typically tens of km/h.
+        Random random = new Random(0);
+        for (int i = 0; i < 120; i++) {
+            LocationFix fix = newStationaryFix(random, T0 + i * SECOND, 10, 15);
+            if (i % 2 == 1) fix = fix.withSpeedAndBearing(
+                20 + 60 * random.nextDouble(), 360 * random.nextDouble());
+            filter.onFix(fix);
+            if (i >= 10) assertTrue("Speed " + last().speedKmh + " at fix " + i,
+                last().speedKmh < MotionListener.DEFAULT_STABLE_MAX_SPEED);
+        }
+    }
+
+    @Test public void testBurstsDoNotLookLikeMotion() {
+        // 20-second bursts of fixes every 5 minutes; each starts with a cold
+        // GPS whose fixes are only accurate to 100 m for the first 10 s.
+        Random random = new Random(0);
+        for (int burst = 0; burst < 12; burst++) {
+            long start = T0 + burst * 5 * 60 * SECOND;
+            for (int i = 0; i < 20; i++) {
+                filter.onFix(i < 10 ? newStationaryFix(random, start + i * SECOND, 100, 100) :
+                    newStationaryFix(random, start + i * SECOND, 10, 15));
+                boolean accurate = last().latLonSd < MotionListener.DEFAULT_STABLE_MAX_ACCURACY;
+                assertTrue("Accurate fix moving at " + last().speedKmh + " km/h in burst " + burst,
+                    !accurate || last().speedKmh < MotionListener.DEFAULT_STABLE_MAX_SPEED);
+            }
+        }
+    }
+
+    @Test public void testRestartsAfterNullOrGap() {
+        filter.onFix(new LocationFix(T0, 37, -122, 0, 0, 0, 10));
+        filter.onFix(null);
+        assertNull(last());
+        LocationFix fix = new LocationFix(T0 + SECOND, 37.001, -122, 0, 0, 0, 10);
+        filter.onFix(fix);
+        assertEquals(fix.latitude, last().latitude, 1e-9);
+
+        fix = new LocationFix(T0 + 2 * SECOND + KalmanFilter.RESET_GAP_MILLIS, 37.002, -122, 0, 0, 0, 10);
+        filter.onFix(fix);
+        assertEquals(fix.latitude, last().latitude, 1e-9);
+    }
+
+    /** Makes a fix near (37, -122) with the given position noise and a small random speed. */
+    private LocationFix newStationaryFix(Random random, long timeMillis, double noiseMeters, double accuracy) {
+        return new LocationFix(timeMillis,
+            37 + noiseMeters * random.nextGaussian() / METERS_PER_DEGREE,
+            -122 + noiseMeters * random.nextGaussian() / METERS_PER_DEGREE,
+            0, Math.abs(random.nextGaussian()), 360 * random.nextDouble(), accuracy);
+    }
+}
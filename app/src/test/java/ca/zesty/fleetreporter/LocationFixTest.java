@@ -0,0 +1,37 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocationFixTest {
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+
+    private static LocationFix fix(double lat, double lon) {
+        return new LocationFix(T0, lat, lon, 0, 0, 0, 10);
+    }
+
+    @Test public void testLocalDistanceMatchesHaversine() {
+        for (double lat = -70; lat <= 70; lat += 10) {
+            LocationFix anchor = fix(lat, 30);
+            for (double meters : new double[] {1, 10, 40, 100, 1000, 10000}) {
+                // Offsets in eight directions, converted roughly to degrees.
+                double dlat = meters / 111000;
+                double dlon = dlat / Math.cos(lat * LocationFix.RADIANS_PER_DEGREE);
+                for (int i = 0; i < 8; i++) {
+                    double angle = i * Math.PI / 4;
+                    LocationFix other = fix(lat + dlat * Math.cos(angle), 30 + dlon * Math.sin(angle));
+                    double expected = anchor.distanceTo(other);
+                    assertEquals("at latitude " + lat, expected, anchor.localDistanceTo(other), expected * 0.005);
+                    assertEquals(expected * expected, anchor.localDistanceSquaredTo(other), expected * expected * 0.01);
+                }
+            }
+        }
+    }
+
+    @Test public void testLocalDistanceAcrossAntimeridian() {
+        LocationFix anchor = fix(-17, 179.9999);
+        LocationFix other = fix(-17, -179.9999);
+        assertEquals(anchor.distanceTo(other), anchor.localDistanceTo(other), 0.1);
+    }
+}
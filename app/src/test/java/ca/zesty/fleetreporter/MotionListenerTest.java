@@ -18,6 +18,8 @@ public class MotionListenerTest implements PointListener {
     static final LocationFix L0 = new LocationFix(T0, 37, -122, 0, 0, 0, 12);
     static final LocationFix L0_NEAR = new LocationFix(T0, 37.00010, -122, 0, 0, 0, 12);
     static final LocationFix L0_FAR = new LocationFix(T0, 37.00080, -122, 0, 0, 0, 12);
+    static final LocationFix L0_FAR_INACCURATE = new LocationFix(T0, 37.00080, -122, 0, 0, 0, 200);
+    static final long T_WAKE = T2 + 8 * 60 * MINUTE;  // after a night's sleep
 
     private MotionListener ml;
     private final List<Point> points = new ArrayList<>();
@@ -98,6 +100,39 @@ public class MotionListenerTest implements PointListener {
             L0_FAR, T1, T0);
     }
 
+    @Test public void testRestoredStateIgnoresInaccurateFixes() {
+        testNearbyFixesWithinAndAfterSettlingPeriod();
+        String state = ml.saveState();
+        ml = new MotionListener(new FakeUtils(), this);
+        ml.restoreState(state, T_WAKE);
+        simulateFix(L0_FAR_INACCURATE, T_WAKE + SECOND);
+        assertNoPoints("for an inaccurate fix while re-anchoring");
+        simulateFix(L0, T_WAKE + 2 * SECOND);
+        assertRestingPoint("for a nearby fix after re-anchoring",
+            L0, T_WAKE + 2 * SECOND, T0);
+    }
+
+    @Test public void testRestoredStateDetectsDeparture() {
+        testNearbyFixesWithinAndAfterSettlingPeriod();
+        String state = ml.saveState();
+        ml = new MotionListener(new FakeUtils(), this);
+        ml.restoreState(state, T_WAKE);
+        simulateFix(L0_FAR, T_WAKE + SECOND);
+        assertGoPoint("retroactively, for an accurate faraway fix after restoring",
+            L0, T2, T0);
+    }
+
+    @Test public void testReanchorAtBurstStartIgnoresWarmUpFixes() {
+        testNearbyFixesWithinAndAfterSettlingPeriod();
+        long burstStart = T2 + 5 * MINUTE;
+        ml.reanchor(burstStart, SamplingPolicy.MAX_BURST_LENGTH_MILLIS);
+        simulateFix(L0_FAR_INACCURATE, burstStart + SECOND);
+        assertNoPoints("for an inaccurate fix at the start of a burst");
+        simulateFix(L0_FAR, burstStart + 2 * SECOND);
+        assertGoPoint("retroactively, for an accurate faraway fix during a burst",
+            L0, T2, T0);
+    }
+
     private void simulateFix(LocationFix fix, long timeMillis) {
         ml.onFix(fix.withTime(timeMillis));
     }
@@ -0,0 +1,79 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OdometerTest {
+    static final long SECOND = 1000;  // millis
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+    static final double METERS_PER_DEGREE = LocationFix.MEAN_RADIUS * LocationFix.RADIANS_PER_DEGREE;
+
+    private Odometer odometer;
+
+    @Before public void setUp() {
+        odometer = new Odometer();
+        odometer.setLocalDate("2018-01-01");
+    }
+
+    /** Makes a point at the given offset in meters north and east of a fixed origin. */
+    private static Point point(long seconds, double north, double east, double speedKmh, Point.Type type) {
+        double cosLatitude = Math.cos(37 * LocationFix.RADIANS_PER_DEGREE);
+        LocationFix fix = new LocationFix(T0 + seconds * SECOND,
+            37 + north / METERS_PER_DEGREE, -122 + east / (cosLatitude * METERS_PER_DEGREE),
+            0, speedKmh, 0, 5);
+        return new Point(fix, type, T0);
+    }
+
+    @Test public void testFollowsCurvedPath() {
+        // Drive a quarter circle of radius 100 m at 36 km/h.
+        odometer.onPoint(point(0, 0, 100, 36, Point.Type.GO));
+        for (int i = 1; i <= 16; i++) {
+            double angle = i * Math.PI / 32;
+            odometer.onPoint(point(i, 100 * Math.sin(angle), 100 * Math.cos(angle), 36, Point.Type.MOVING));
+        }
+        assertEquals(Math.PI * 100 / 2, odometer.getTotalMeters(), 1);
+        assertEquals(odometer.getTotalMeters(), odometer.getTripMeters(), 0);
+        assertEquals(odometer.getTotalMeters(), odometer.getDayMeters(), 0);
+    }
+
+    @Test public void testRejectsJitterAndGlitches() {
+        odometer.onPoint(point(0, 0, 0, 0, Point.Type.GO));
+        odometer.onPoint(point(1, 3, 0, 1, Point.Type.MOVING));  // too slow
+        odometer.onPoint(point(2, 0, 3, 1, Point.Type.MOVING));  // too slow
+        odometer.onPoint(point(3, 500, 0, 40, Point.Type.MOVING));  // 600 km/h
+        assertEquals(0, odometer.getTotalMeters(), 0);
+        odometer.onPoint(point(4, 510, 0, 36, Point.Type.MOVING));
+        odometer.onPoint(point(5, 510, 0, 0, Point.Type.STOP));
+        odometer.onPoint(point(6, 530, 0, 36, Point.Type.RESTING));
+        assertEquals(10, odometer.getTotalMeters(), 0.1);
+    }
+
+    @Test public void testTotalsPerTripAndDay() {
+        odometer.onPoint(point(0, 0, 0, 36, Point.Type.GO));
+        odometer.onPoint(point(1, 10, 0, 36, Point.Type.MOVING));
+        odometer.onPoint(point(2, 10, 0, 0, Point.Type.STOP));
+        odometer.setLocalDate("2018-01-02");
+        odometer.onPoint(point(3, 10, 0, 36, Point.Type.GO));
+        odometer.onPoint(point(4, 30, 0, 36, Point.Type.MOVING));
+        assertEquals(30, odometer.getTotalMeters(), 0.1);
+        assertEquals(20, odometer.getDayMeters(), 0.1);
+        assertEquals(20, odometer.getTripMeters(), 0.1);
+    }
+
+    @Test public void testSaveAndRestoreState() {
+        odometer.onPoint(point(0, 0, 0, 36, Point.Type.GO));
+        odometer.onPoint(point(1, 10, 0, 36, Point.Type.MOVING));
+        Odometer restored = new Odometer();
+        assertTrue(restored.restoreState(odometer.saveState()));
+        assertEquals(10, restored.getTotalMeters(), 0.1);
+        assertEquals(10, restored.getDayMeters(), 0.1);
+        restored.setLocalDate("2018-01-01");
+        assertEquals("The daily total should continue on the same date", 10, restored.getDayMeters(), 0.1);
+        assertFalse(restored.restoreState("garbage"));
+        assertEquals(10, restored.getTotalMeters(), 0.1);
+    }
+}
@@ -0,0 +1,78 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PointCodecTest {
+    static final long MINUTE = 60000;  // millis
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+    static final long T1 = 1533081600_000L;  // 2018-08-01 00:00:00 UTC
+
+    @Test public void testRoundTripPreservesFormattedPoints() {
+        List<Point> points = new ArrayList<>();
+        points.add(new Point(new LocationFix(T1, 4.36123, 18.55541, 372.4, 0, 0, 8), Point.Type.RESTING, T1 - 95 * MINUTE));
+        points.add(new Point(new LocationFix(T1 - 10 * MINUTE, 4.38210, 18.60077, 390, 47.2, 271.6, 12), Point.Type.STOP, T1 - 40 * MINUTE));
+        points.add(new Point(new LocationFix(T1 - 20 * MINUTE, 4.41998, 18.67702, 401.3, 65.9, 359.7, 5), Point.Type.MOVING, T1 - 40 * MINUTE));
+        points.add(new Point(new LocationFix(T1 - 40 * MINUTE, -37.81361, 144.96306, -12, 0, 0, 31), Point.Type.GO, T0));
+        points.add(new Point(new LocationFix(T0, 89.99999, -179.99999, 9999, 999, 360, 9999), Point.Type.MOVING, T0));
+
+        List<Point> decoded = PointCodec.decode(PointCodec.encode(points));
+        assertEquals("Decoding should yield every encoded point", points.size(), decoded.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals("Decoded point should have the same formatted value",
+                points.get(i).format(), decoded.get(i).format());
+            assertEquals("Decoded point should have the same type",
+                points.get(i).type, decoded.get(i).type);
+        }
+    }
+
+    @Test public void testTypicalDayFitsManyPointsInOneSms() {
+        // A truck moving at about 50 km/h, recorded every 10 minutes.
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            LocationFix fix = new LocationFix(T1 - i * 10 * MINUTE,
+                4.36123 + i * 0.05123, 18.55541 - i * 0.04871, 380 + i * 7,
+                50 + i, (i * 37) % 360, 6 + i);
+            points.add(new Point(fix, Point.Type.MOVING, T1 - 3 * 60 * MINUTE));
+        }
+        String message = PointCodec.encode(points);
+        assertTrue("Seven moving points should fit in 160 characters, not " +
+            message.length(), message.length() <= 160);
+        assertEquals(points.size(), PointCodec.decode(message).size());
+    }
+
+    @Test public void testRoundTripWithOdometer() {
+        List<Point> points = new ArrayList<>();
+        points.add(new Point(new LocationFix(T1, 4.36123, 18.55541, 372.4, 0, 0, 8), Point.Type.RESTING, T1 - 95 * MINUTE, 123456780L));
+        points.add(new Point(new LocationFix(T1 - 20 * MINUTE, 4.41998, 18.67702, 401.3, 65.9, 359.7, 5), Point.Type.MOVING, T1 - 40 * MINUTE, 123440000L));
+
+        String message = PointCodec.encode(points);
+        assertTrue(message.startsWith(PointCodec.HEADER_WITH_ODOMETER));
+        List<Point> decoded = PointCodec.decode(message);
+        assertEquals(123456780L, (long) decoded.get(0).odometerMeters);
+        assertEquals(123440000L, (long) decoded.get(1).odometerMeters);
+
+        points.add(new Point(new LocationFix(T1 - 30 * MINUTE, 4.41998, 18.67702, 401.3, 65.9, 359.7, 5), Point.Type.MOVING, T1 - 40 * MINUTE));
+        message = PointCodec.encode(points);
+        assertTrue("Without every odometer reading, version 1 should be used",
+            message.startsWith(PointCodec.HEADER));
+        assertNull(PointCodec.decode(message).get(0).odometerMeters);
+    }
+
+    @Test public void testInvalidMessages() {
+        assertNull("A message without the header should not decode",
+            PointCodec.decode("2018-08-01T00:00:00Z;+4.36123;+18.55541;+372;0;0;8;5700;r"));
+        assertNull("A truncated message should not decode",
+            PointCodec.decode("*1AB"));
+        assertNull("A message with invalid characters should not decode",
+            PointCodec.decode("*1AB CDEFG"));
+        assertEquals("An empty message should decode to no points",
+            0, PointCodec.decode(PointCodec.HEADER).size());
+    }
+}
@@ -0,0 +1,84 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingPolicyTest {
+    static final long SECOND = 1000;  // millis
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+    static final LocationFix L0 = new LocationFix(T0, 37, -122, 0, 0, 0, 12);
+    static final long BURST_START = SamplingPolicy.BURST_PERIOD_MILLIS - SamplingPolicy.BURST_LENGTH_MILLIS;
+
+    private static Point point(Point.Type type) {
+        return new Point(L0, type, T0);
+    }
+
+    @Test public void testFastWhileMoving() {
+        SamplingPolicy policy = new SamplingPolicy(true);
+        policy.onPoint(point(Point.Type.MOVING), T0);
+        assertEquals(SamplingPolicy.FAST_INTERVAL_MILLIS, (long) policy.getIntervalMillis(T0));
+        assertNull(policy.getNextChangeMillis(T0));
+    }
+
+    @Test public void testSlowWhileRestingWithoutMotionTrigger() {
+        SamplingPolicy policy = new SamplingPolicy(false);
+        policy.onPoint(point(Point.Type.STOP), T0);
+        assertFalse(policy.isDutyCycling());
+        assertEquals(SamplingPolicy.RESTING_INTERVAL_MILLIS, (long) policy.getIntervalMillis(T0 + BURST_START));
+    }
+
+    @Test public void testDutyCyclesWhileResting() {
+        SamplingPolicy policy = new SamplingPolicy(true);
+        policy.onPoint(point(Point.Type.STOP), T0);
+        policy.onPoint(point(Point.Type.RESTING), T0 + SECOND);
+        assertTrue(policy.isDutyCycling());
+        assertNull("The GPS should be off after stopping", policy.getIntervalMillis(T0));
+        assertEquals(T0 + BURST_START, (long) policy.getNextChangeMillis(T0));
+        assertEquals("A burst should start at the end of the period",
+            SamplingPolicy.FAST_INTERVAL_MILLIS, (long) policy.getIntervalMillis(T0 + BURST_START));
+        assertEquals(T0 + SamplingPolicy.BURST_PERIOD_MILLIS, (long) policy.getNextChangeMillis(T0 + BURST_START));
+        policy.onFix(L0.withTime(T0 + BURST_START + SECOND), 60);
+        assertNull("The GPS should be off again after the burst",
+            policy.getIntervalMillis(T0 + SamplingPolicy.BURST_PERIOD_MILLIS));
+
+        policy.onPoint(point(Point.Type.GO), T0 + 2 * SamplingPolicy.BURST_PERIOD_MILLIS);
+        assertFalse(policy.isDutyCycling());
+    }
+
+    @Test public void testMotionStartsBurst() {
+        SamplingPolicy policy = new SamplingPolicy(true);
+        policy.onPoint(point(Point.Type.STOP), T0);
+        long t = T0 + 30 * SECOND;
+        policy.onMotionDetected(t);
+        assertEquals(SamplingPolicy.FAST_INTERVAL_MILLIS, (long) policy.getIntervalMillis(t));
+        policy.onPoint(point(Point.Type.RESTING), t + SECOND);
+        policy.onFix(L0.withTime(t + SECOND), 60);
+        assertEquals("A resting fix should not cut the burst short",
+            SamplingPolicy.FAST_INTERVAL_MILLIS, (long) policy.getIntervalMillis(t + SECOND));
+        assertNull(policy.getIntervalMillis(t + SamplingPolicy.BURST_LENGTH_MILLIS));
+    }
+
+    @Test public void testExtendsBurstUntilUsableFix() {
+        SamplingPolicy policy = new SamplingPolicy(true);
+        policy.onPoint(point(Point.Type.STOP), T0);
+        long burstEnd = T0 + SamplingPolicy.BURST_PERIOD_MILLIS;
+        long maxEnd = burstEnd + SamplingPolicy.MAX_BURST_LENGTH_MILLIS - SamplingPolicy.BURST_LENGTH_MILLIS;
+        assertFalse(policy.onFix(new LocationFix(T0 + BURST_START + SECOND, 37, -122, 0, 0, 0, 150), 60));
+        assertEquals("A burst with no usable fix should go on",
+            SamplingPolicy.FAST_INTERVAL_MILLIS, (long) policy.getIntervalMillis(burstEnd));
+        assertEquals(maxEnd, (long) policy.getNextChangeMillis(burstEnd));
+
+        assertTrue("A usable fix should end the extended burst",
+            policy.onFix(L0.withTime(burstEnd + 5 * SECOND), 60));
+        assertNull(policy.getIntervalMillis(burstEnd + 5 * SECOND));
+
+        // With no usable fix at all, the burst ends at MAX_BURST_LENGTH_MILLIS.
+        long nextBurstEnd = burstEnd + SamplingPolicy.BURST_PERIOD_MILLIS;
+        assertEquals(SamplingPolicy.FAST_INTERVAL_MILLIS, (long) policy.getIntervalMillis(nextBurstEnd));
+        assertNull(policy.getIntervalMillis(nextBurstEnd + SamplingPolicy.MAX_BURST_LENGTH_MILLIS));
+    }
+}
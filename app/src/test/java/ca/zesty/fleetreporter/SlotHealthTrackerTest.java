@@ -0,0 +1,106 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlotHealthTrackerTest {
+    static final long SECOND = 1000;
+
+    @Test public void testPrefersSlotThatSucceeds() {
+        SlotHealthTracker tracker = new SlotHealthTracker(2);
+        TransmissionScheduler scheduler = new TransmissionScheduler(2, new Random(0));
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            tracker.onSend(0, now, 2 * i, new long[] {1});
+            tracker.onResult(0, now + 5 * SECOND, 2 * i, false);
+            tracker.onSend(1, now, 2 * i + 1, new long[] {2});
+            tracker.onResult(1, now + 5 * SECOND, 2 * i + 1, true);
+        }
+        assertFalse("Slot 0 should be unhealthy after failures", tracker.isHealthy(0));
+        assertTrue("Slot 1 should be healthy after successes", tracker.isHealthy(1));
+        assertEquals(1, tracker.chooseSlot(now + 10 * SECOND, scheduler));
+    }
+
+    @Test public void testAvoidsEmptyBalanceAndSlotsInFlight() {
+        SlotHealthTracker tracker = new SlotHealthTracker(2);
+        TransmissionScheduler scheduler = new TransmissionScheduler(2, new Random(0));
+        long now = 1000 * SECOND;
+        tracker.setBalance(0, 0, now + 3600 * SECOND);
+        tracker.setBalance(1, 50, now + 3600 * SECOND);
+        assertEquals("A slot with no balance should not be preferred",
+            1, tracker.chooseSlot(now, scheduler));
+
+        tracker.onSend(1, now, 1, new long[] {7, 8});
+        assertTrue(tracker.isKeyInFlight(8));
+        assertEquals("A slot with a message in flight should not be chosen",
+            0, tracker.chooseSlot(now, scheduler));
+
+        tracker.expireStaleSends(now + SlotHealthTracker.SEND_TIMEOUT_MILLIS);
+        assertFalse("A stale send should no longer be in flight", tracker.isKeyInFlight(8));
+        assertTrue(tracker.getSuccessRate(1) < 1);
+    }
+
+    @Test public void testNeverChoosesEmptySlotBetweenOccupiedOnes() {
+        // Slot 1 is empty but keeps its place so that slot 2 keeps its number.
+        SlotHealthTracker tracker = new SlotHealthTracker(3);
+        TransmissionScheduler scheduler = new TransmissionScheduler(3, new Random(0));
+        tracker.setUsable(1, false);
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            tracker.onSend(0, now, 2 * i, new long[] {1});
+            tracker.onResult(0, now + 5 * SECOND, 2 * i, false);
+            tracker.onSend(2, now, 2 * i + 1, new long[] {2});
+            tracker.onResult(2, now + 5 * SECOND, 2 * i + 1, false);
+        }
+        assertEquals(0, tracker.chooseSlot(now + 10 * SECOND, scheduler));
+
+        tracker.onSend(0, now + 10 * SECOND, 10, new long[] {3});
+        assertEquals(2, tracker.chooseSlot(now + 10 * SECOND, scheduler));
+        tracker.onSend(2, now + 10 * SECOND, 11, new long[] {4});
+        assertEquals("The empty slot should not be chosen even when the others are busy",
+            -1, tracker.chooseSlot(now + 10 * SECOND, scheduler));
+    }
+
+    @Test public void testTimedOutSendPushesBackNextSend() {
+        SlotHealthTracker tracker = new SlotHealthTracker(2);
+        TransmissionScheduler scheduler = new TransmissionScheduler(2, new Random(0));
+        long now = 1000 * SECOND;
+        tracker.onSend(0, now, 1, new long[] {7});
+        scheduler.onAttempt(now, 100);
+        assertTrue(tracker.expireStaleSends(now + SECOND).isEmpty());
+
+        now += SlotHealthTracker.SEND_TIMEOUT_MILLIS;
+        List<Integer> expiredSlots = tracker.expireStaleSends(now);
+        assertEquals(Collections.singletonList(0), expiredSlots);
+        // LocationService handles each expired slot as it does a failed send.
+        for (int slot : expiredSlots) scheduler.onFailure(slot, now);
+        assertTrue("The timed-out slot should back off",
+            scheduler.getNextAttemptMillis(0) > now);
+        assertEquals("The other slot should take over", 1, tracker.chooseSlot(now, scheduler));
+    }
+
+    @Test public void testIgnoresLateStatusForTimedOutSend() {
+        SlotHealthTracker tracker = new SlotHealthTracker(1);
+        long now = 1000 * SECOND;
+        tracker.onSend(0, now, 1, new long[] {7});
+        now += SlotHealthTracker.SEND_TIMEOUT_MILLIS;
+        tracker.expireStaleSends(now);
+        assertFalse(tracker.isMessageInFlight(1));
+        tracker.onSend(0, now, 2, new long[] {8});
+        assertTrue(tracker.isMessageInFlight(2));
+
+        assertFalse("A status for the timed-out message should be ignored",
+            tracker.onResult(0, now + SECOND, 1, true));
+        assertTrue("The newer message should still be in flight", tracker.isInFlight(0));
+        assertTrue(tracker.isKeyInFlight(8));
+        assertTrue(tracker.onResult(0, now + 2 * SECOND, 2, true));
+        assertFalse(tracker.isInFlight(0));
+    }
+}
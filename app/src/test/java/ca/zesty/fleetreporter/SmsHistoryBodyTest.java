@@ -0,0 +1,145 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SmsHistoryBodyTest {
+    private MockWebServer server;
+
+    /** A RecordSource over parallel lists of dates and records. */
+    static class ListSource implements SmsHistoryBody.RecordSource {
+        final List<Long> dates = new ArrayList<>();
+        final List<String> records = new ArrayList<>();
+        int index;
+
+        ListSource add(long date, String record) {
+            dates.add(date);
+            records.add(record);
+            return this;
+        }
+
+        @Override public void open() { index = -1; }
+        @Override public boolean moveToNext() { return ++index < dates.size(); }
+        @Override public long getDate() { return dates.get(index); }
+        @Override public String getRecord() { return records.get(index); }
+        @Override public void close() { }
+    }
+
+    @Before public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    /** Posts the body to the server and returns the decompressed text it received. */
+    private String post(SmsHistoryBody body) throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        Response response = new OkHttpClient().newCall(
+            body.newRequest(server.url("/fleet/sms"))).execute();
+        assertEquals(200, response.code());
+        response.close();
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        return Okio.buffer(new GzipSource(request.getBody())).readUtf8();
+    }
+
+    @Test public void testSendsAllRecordsWithinBudget() throws Exception {
+        SmsHistoryBody body = new SmsHistoryBody(
+            new ListSource().add(1000, "a").add(2000, "b").add(3000, "c"), 1024);
+        assertEquals("a\nb\nc\n", post(body));
+        assertEquals(3, body.getNumRecords());
+        assertEquals(3000L, (long) body.getLastDate());
+        assertFalse(body.isFull());
+    }
+
+    @Test public void testCutsBatchOnlyBetweenDates() throws Exception {
+        // The budget is used up after "aaaa", but "bbbb" has the same date, so
+        // it must go in the same batch for a resume after 1000 to skip nothing.
+        SmsHistoryBody body = new SmsHistoryBody(
+            new ListSource().add(1000, "aaaa").add(1000, "bbbb").add(2000, "cccc"), 4);
+        assertEquals("aaaa\nbbbb\n", post(body));
+        assertEquals(2, body.getNumRecords());
+        assertEquals(1000L, (long) body.getLastDate());
+        assertTrue(body.isFull());
+    }
+
+    @Test public void testSendsLines() throws Exception {
+        SmsHistoryBody body = new SmsHistoryBody(
+            new SmsHistoryBody.LineSource(Arrays.asList("x: 1", "y: 2"), 5000), 1024);
+        assertEquals("x: 1\ny: 2\n", post(body));
+        assertEquals(5000L, (long) body.getLastDate());
+    }
+
+    @Test public void testSendsRecordsInGetQuery() throws Exception {
+        SmsHistoryBody body = new SmsHistoryBody(
+            new ListSource().add(1000, "a b").add(2000, "c&d"), 1024);
+        server.enqueue(new MockResponse().setResponseCode(200));
+        new OkHttpClient().newCall(body.newGetRequest(server.url("/fleet/sms"))).execute().close();
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("GET", request.getMethod());
+        assertEquals("a b\nc&d\n", request.getRequestUrl().queryParameter("data"));
+        assertEquals(2, body.getNumRecords());
+        assertEquals(2000L, (long) body.getLastDate());
+    }
+
+    /**
+     * Posts a batch to a server with no POST handler and checks that the
+     * 404 leaves the upload checkpoint where it was, so the batch is resent.
+     */
+    @Test public void testPostAnsweredWith404DoesNotCommit() throws Exception {
+        UploadRangeTracker tracker = new UploadRangeTracker(0);
+        tracker.add(2000);
+        UploadRangeTracker.Range range = tracker.nextToSend();
+        SmsHistoryBody body = new SmsHistoryBody(
+            new ListSource().add(1000, "a").add(2000, "b"), Long.MAX_VALUE);
+
+        server.enqueue(new MockResponse().setResponseCode(404));
+        Request request = body.newRequest(server.url("/fleet/sms"));
+        Response response = new OkHttpClient().newCall(request).execute();
+        response.close();
+        if (SmsHistoryBody.isReceived(request, response.code())) {
+            tracker.onAcknowledged(range);
+        } else {
+            tracker.onFailed(range);
+        }
+
+        assertEquals(0, tracker.getCommittedDate());
+        assertEquals(2000, tracker.nextToSend().lastDate);
+    }
+
+    @Test public void testCountsOnlySuccessfulPostsAsReceived() {
+        HttpUrl url = HttpUrl.parse("http://example.com/fleet/sms");
+        SmsHistoryBody body = new SmsHistoryBody(new ListSource(), 1024);
+        Request post = body.newRequest(url);
+        assertTrue(SmsHistoryBody.isReceived(post, 200));
+        assertTrue(SmsHistoryBody.isReceived(post, 204));
+        assertFalse(SmsHistoryBody.isReceived(post, 404));
+        assertFalse(SmsHistoryBody.isReceived(post, 500));
+    }
+}
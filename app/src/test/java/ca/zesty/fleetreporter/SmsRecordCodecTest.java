@@ -0,0 +1,34 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SmsRecordCodecTest {
+    private static String quoted(String str) {
+        StringBuilder b = new StringBuilder();
+        SmsRecordCodec.appendQuoted(b, str);
+        return b.toString();
+    }
+
+    private static String mobileNumber(String address) {
+        StringBuilder b = new StringBuilder();
+        SmsRecordCodec.appendMobileNumber(b, address);
+        return b.toString();
+    }
+
+    @Test public void testQuotesLikeUtils() {
+        String[] bodies = {"", "plain", "tab\there", "two\nlines", "\"quoted\"", "back\\slash\\\"", "\u00e9t\u00e9 \u20ac"};
+        for (String body : bodies) {
+            assertEquals(Utils.quoteString(body), quoted(body));
+        }
+        assertEquals("\"\"", quoted(null));
+    }
+
+    @Test public void testKeepsOnlyPlusAndDigits() {
+        assertEquals("+23675000000", mobileNumber("+236 75 00 00 00"));
+        assertEquals("23672123456", mobileNumber("(236) 72-123-456"));
+        assertEquals("", mobileNumber("Orange"));
+        assertEquals("", mobileNumber(null));
+    }
+}
@@ -0,0 +1,98 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransmissionSchedulerTest {
+    static final long SECOND = 1000;  // millis
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+    static final int PLENTY_OF_SMS = 40;
+
+    private TransmissionScheduler scheduler;
+
+    @Before public void setUp() {
+        scheduler = new TransmissionScheduler(2, new Random(0));
+    }
+
+    @Test public void testHoldsOffAfterAttempt() {
+        assertTrue("The first attempt should be due immediately", scheduler.isDue(0, T0));
+        scheduler.onAttempt(T0, PLENTY_OF_SMS);
+        assertFalse("Attempts should be held off while awaiting acknowledgement",
+            scheduler.isDue(0, T0 + TransmissionScheduler.BASE_INTERVAL_MILLIS - 1));
+        assertTrue("Attempts should resume after the base interval",
+            scheduler.isDue(0, T0 + TransmissionScheduler.BASE_INTERVAL_MILLIS));
+    }
+
+    @Test public void testSpeedsUpWhileDrainingDeepOutbox() {
+        scheduler.onAttempt(T0, PLENTY_OF_SMS);
+        scheduler.onSuccess(0, T0 + SECOND, TransmissionScheduler.DEEP_OUTBOX_SIZE, PLENTY_OF_SMS);
+        assertTrue("A deep outbox should be drained quickly after a success",
+            scheduler.isDue(0, T0 + SECOND + TransmissionScheduler.DRAIN_INTERVAL_MILLIS));
+
+        scheduler.onAttempt(T0 + 10 * SECOND, PLENTY_OF_SMS);
+        scheduler.onSuccess(0, T0 + 11 * SECOND, 1, PLENTY_OF_SMS);
+        assertFalse("A shallow outbox should not be drained quickly",
+            scheduler.isDue(0, T0 + 11 * SECOND + TransmissionScheduler.DRAIN_INTERVAL_MILLIS));
+    }
+
+    @Test public void testSlowsDownWhenBudgetIsLow() {
+        scheduler.onAttempt(T0, TransmissionScheduler.LOW_BUDGET_SMS);
+        assertFalse("Attempts should be spaced out when the budget is low",
+            scheduler.isDue(0, T0 + TransmissionScheduler.BASE_INTERVAL_MILLIS));
+        assertTrue(scheduler.isDue(0, T0 + TransmissionScheduler.LOW_BUDGET_INTERVAL_MILLIS));
+    }
+
+    @Test public void testBacksOffExponentiallyWithJitter() {
+        long previous = 0;
+        for (int failures = 1; failures <= 12; failures++) {
+            long expected = Math.min(TransmissionScheduler.MAX_BACKOFF_MILLIS,
+                TransmissionScheduler.BASE_INTERVAL_MILLIS << (failures - 1));
+            long backoff = scheduler.getBackoffMillis(failures);
+            double jitter = TransmissionScheduler.BACKOFF_JITTER_FRACTION;
+            assertTrue("Backoff " + backoff + " should be within jitter of " + expected,
+                backoff >= expected * (1 - jitter) && backoff <= expected * (1 + jitter));
+            if (expected < TransmissionScheduler.MAX_BACKOFF_MILLIS / 2) {
+                assertTrue("Backoff should grow with each failure", backoff > previous);
+            }
+            previous = backoff;
+        }
+    }
+
+    @Test public void testFailureMovesToOtherSlot() {
+        scheduler.onAttempt(T0, PLENTY_OF_SMS);
+        scheduler.onFailure(0, T0 + SECOND);
+        assertFalse("The failing slot should back off",
+            scheduler.isDue(0, T0 + 2 * SECOND));
+        assertTrue("The other slot should be available immediately",
+            scheduler.isDue(1, T0 + SECOND));
+
+        scheduler.onAttempt(T0 + SECOND, PLENTY_OF_SMS);
+        scheduler.onFailure(1, T0 + 2 * SECOND);
+        assertFalse("A slot that is backing off should stay backed off",
+            scheduler.isDue(0, T0 + 2 * SECOND));
+
+        scheduler.onSuccess(1, T0 + 60 * SECOND, 1, PLENTY_OF_SMS);
+        scheduler.onAttempt(T0 + 60 * SECOND, PLENTY_OF_SMS);
+        scheduler.onFailure(1, T0 + 61 * SECOND);
+        assertEquals("A success should reset the backoff",
+            TransmissionScheduler.BASE_INTERVAL_MILLIS,
+            scheduler.getNextAttemptMillis(1) - (T0 + 61 * SECOND),
+            TransmissionScheduler.BASE_INTERVAL_MILLIS * TransmissionScheduler.BACKOFF_JITTER_FRACTION);
+    }
+
+    @Test public void testBatchSize() {
+        int deep = TransmissionScheduler.DEEP_OUTBOX_SIZE;
+        assertEquals("Nothing should be sent with no budget", 0, scheduler.getMaxParts(deep, 0, true));
+        assertEquals("A shallow outbox should use single messages", 1, scheduler.getMaxParts(2, PLENTY_OF_SMS, true));
+        assertEquals("A deep outbox should use multipart messages",
+            TransmissionScheduler.MAX_PARTS, scheduler.getMaxParts(deep, PLENTY_OF_SMS, true));
+        assertEquals("Multipart messages should not exceed the budget", 2, scheduler.getMaxParts(deep, 2, true));
+        assertEquals("An unhealthy slot should use single messages", 1, scheduler.getMaxParts(deep, PLENTY_OF_SMS, false));
+    }
+}
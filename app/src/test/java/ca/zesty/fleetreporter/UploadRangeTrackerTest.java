@@ -0,0 +1,144 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UploadRangeTrackerTest {
+    @Test public void testCommitsOnlyContiguousRanges() {
+        UploadRangeTracker tracker = new UploadRangeTracker(100);
+        tracker.add(200);
+        tracker.add(300);
+        tracker.add(400);
+        UploadRangeTracker.Range r1 = tracker.nextToSend();
+        UploadRangeTracker.Range r2 = tracker.nextToSend();
+        UploadRangeTracker.Range r3 = tracker.nextToSend();
+        assertNull(tracker.nextToSend());
+        assertEquals(100, r1.afterDate);
+        assertEquals(200, r1.lastDate);
+        assertEquals(300, r3.afterDate);
+        assertEquals(3, tracker.getInFlightCount());
+
+        assertEquals("A later range must not move the commit past an earlier one",
+            100, tracker.onAcknowledged(r3));
+        assertEquals(100, tracker.onAcknowledged(r2));
+        assertEquals(400, tracker.onAcknowledged(r1));
+        assertTrue(tracker.isEmpty());
+    }
+
+    @Test public void testRetriesFailedRangeFirst() {
+        UploadRangeTracker tracker = new UploadRangeTracker(0);
+        tracker.add(10);
+        tracker.add(20);
+        tracker.add(30);
+        UploadRangeTracker.Range r1 = tracker.nextToSend();
+        UploadRangeTracker.Range r2 = tracker.nextToSend();
+        tracker.onFailed(r1);
+        assertEquals(1, tracker.getInFlightCount());
+        assertSame(r1, tracker.nextToSend());
+        assertEquals(0, tracker.onAcknowledged(r2));
+        assertEquals(20, tracker.onAcknowledged(r1));
+        assertEquals(30, tracker.nextToSend().lastDate);
+    }
+
+    @Test public void testRestoresAcknowledgedRangesWithoutSending() {
+        // As when reloading a journal in which the second of three ranges was acknowledged.
+        UploadRangeTracker tracker = new UploadRangeTracker(0);
+        tracker.add(10);
+        assertEquals(10, tracker.getEndDate());
+        tracker.onAcknowledged(tracker.add(20));
+        tracker.add(30);
+        assertEquals(0, tracker.getCommittedDate());
+        assertEquals(10, tracker.nextToSend().lastDate);
+        assertEquals(30, tracker.nextToSend().lastDate);
+        assertNull(tracker.nextToSend());
+    }
+
+    /**
+     * Uploads ranges through a server that answers after a delay, slowest
+     * first, and checks that the ranges overlap in time and that the commit
+     * only ever moves forward over contiguous acknowledged ranges.
+     */
+    @Test public void testPipelinedUploadAgainstSlowServer() throws Exception {
+        final int numRanges = 8;
+        final long delayMillis = 200;
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            int count = 0;
+
+            @Override public synchronized MockResponse dispatch(RecordedRequest request) {
+                // Earlier requests take longer, so responses arrive out of order.
+                long delay = delayMillis * (4 - count++ % 4) / 2;
+                return new MockResponse().setResponseCode(200).setHeadersDelay(delay, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+
+        final int inFlight = 4;
+        OkHttpClient client = new OkHttpClient();
+        client.dispatcher().setMaxRequests(inFlight);
+        client.dispatcher().setMaxRequestsPerHost(inFlight);
+
+        final UploadRangeTracker tracker = new UploadRangeTracker(0);
+        for (int i = 1; i <= numRanges; i++) tracker.add(i * 1000);
+        final List<Long> commits = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(numRanges);
+
+        long start = System.currentTimeMillis();
+        UploadRangeTracker.Range range;
+        while ((range = tracker.nextToSend()) != null) {
+            final UploadRangeTracker.Range sent = range;
+            SmsHistoryBody body = new SmsHistoryBody(new SmsHistoryBody.LineSource(
+                Collections.singletonList("range " + range), range.lastDate), Long.MAX_VALUE);
+            client.newCall(body.newRequest(server.url("/fleet/sms"))).enqueue(new Callback() {
+                @Override public void onFailure(Call call, IOException e) {
+                    tracker.onFailed(sent);
+                    done.countDown();
+                }
+
+                @Override public void onResponse(Call call, Response response) {
+                    response.close();
+                    synchronized (commits) {
+                        commits.add(tracker.onAcknowledged(sent));
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+        server.shutdown();
+
+        assertEquals(numRanges, server.getRequestCount());
+        long last = 0;
+        for (long commit : commits) {
+            assertTrue("Commits must never move backward", commit >= last);
+            assertEquals("Commits must land on range boundaries", 0, commit % 1000);
+            last = commit;
+        }
+        assertEquals(numRanges * 1000, tracker.getCommittedDate());
+        assertTrue(tracker.isEmpty());
+
+        // Sequentially, the response delays alone would add up to 2 s.
+        assertTrue("Pipelined upload took " + elapsed + " ms", elapsed < numRanges * delayMillis);
+    }
+}
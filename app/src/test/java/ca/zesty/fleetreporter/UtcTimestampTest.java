@@ -0,0 +1,71 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UtcTimestampTest {
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+
+    @Test public void testFormatMatchesSimpleDateFormat() {
+        SimpleDateFormat seconds = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        seconds.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat millis = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        millis.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(0);
+        long[] times = new long[10000];
+        times[0] = 0;
+        times[1] = 951782400_000L;  // 2000-02-29 00:00:00 UTC
+        times[2] = 4107542399_999L;  // 2100-02-28 23:59:59.999 UTC
+        for (int i = 3; i < times.length; i++) {
+            times[i] = (long) (random.nextDouble() * 4102444800_000L);  // 1970 to 2100
+        }
+        for (long time : times) {
+            Date date = new Date(time);
+            assertEquals(seconds.format(date), UtcTimestamp.formatSeconds(time));
+            assertEquals(millis.format(date), UtcTimestamp.formatMillis(time));
+        }
+    }
+
+    @Test public void testParse() {
+        assertEquals(Long.valueOf(T0), UtcTimestamp.parse("2018-01-01T00:00:00Z"));
+        assertEquals(Long.valueOf(951868799_000L), UtcTimestamp.parse("2000-02-29T23:59:59Z"));
+        for (long time = T0; time < T0 + 400L * 86400_000L; time += 3607_000L) {
+            assertEquals(Long.valueOf(time), UtcTimestamp.parse(UtcTimestamp.formatSeconds(time)));
+        }
+        assertNull(UtcTimestamp.parse("2018-01-01 00:00:00Z"));
+        assertNull(UtcTimestamp.parse("2018-01-01T00:00:00"));
+        assertNull(UtcTimestamp.parse("2018-13-01T00:00:00Z"));
+        assertNull(UtcTimestamp.parse("2018-01-01T0a:00:00Z"));
+    }
+
+    @Test public void testConcurrentFormatting() throws InterruptedException {
+        final String[] failures = new String[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long offset = t * 86400_000L * 37;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        long time = T0 + offset + i * 1001L;
+                        String formatted = UtcTimestamp.formatMillis(time);
+                        if (!Long.valueOf(time / 1000 * 1000).equals(
+                            UtcTimestamp.parse(formatted.substring(0, 19) + "Z"))) {
+                            failures[0] = formatted;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertNull("Formatting should be consistent across threads", failures[0]);
+    }
+}
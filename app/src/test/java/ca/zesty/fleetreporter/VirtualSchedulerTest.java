@@ -0,0 +1,69 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VirtualSchedulerTest {
+    static final long SECOND = 1000;  // millis
+    static final long T0 = 1514764800_000L;  // 2018-01-01 00:00:00 UTC
+
+    private VirtualScheduler scheduler;
+    private List<Long> runTimes;
+
+    @Before public void setUp() {
+        scheduler = new VirtualScheduler(T0);
+        runTimes = new ArrayList<>();
+    }
+
+    private Runnable newTask() {
+        return new Runnable() {
+            public void run() {
+                runTimes.add(scheduler.getTime());
+            }
+        };
+    }
+
+    @Test public void testRunsTasksInTimeOrder() {
+        scheduler.scheduleAt(newTask(), T0 + 5 * SECOND);
+        scheduler.scheduleAt(newTask(), T0 + 2 * SECOND);
+        scheduler.advanceTo(T0 + 10 * SECOND);
+        assertEquals(2, runTimes.size());
+        assertEquals(T0 + 2 * SECOND, (long) runTimes.get(0));
+        assertEquals(T0 + 5 * SECOND, (long) runTimes.get(1));
+        assertEquals(T0 + 10 * SECOND, scheduler.getTime());
+    }
+
+    @Test public void testReschedulingReplacesPendingRun() {
+        Runnable task = newTask();
+        scheduler.scheduleAt(task, T0 + 5 * SECOND);
+        scheduler.scheduleAt(task, T0 + 8 * SECOND);
+        scheduler.advanceTo(T0 + 10 * SECOND);
+        assertEquals(1, runTimes.size());
+        assertEquals(T0 + 8 * SECOND, (long) runTimes.get(0));
+
+        scheduler.scheduleAt(task, T0 + 20 * SECOND);
+        scheduler.cancel(task);
+        assertNull(scheduler.getNextTaskMillis());
+    }
+
+    @Test public void testTaskCanScheduleItselfAgain() {
+        final Runnable[] task = new Runnable[1];
+        task[0] = new Runnable() {
+            public void run() {
+                runTimes.add(scheduler.getTime());
+                scheduler.scheduleAt(task[0], scheduler.getTime() + 3 * SECOND);
+            }
+        };
+        scheduler.scheduleAt(task[0], T0);
+        scheduler.advanceTo(T0 + 10 * SECOND);
+        assertEquals(4, runTimes.size());  // at 0, 3, 6, and 9 seconds
+        assertEquals(4, scheduler.getNumTasksRun());
+        assertEquals(T0 + 12 * SECOND, (long) scheduler.getNextTaskMillis());
+    }
+}
@@ -0,0 +1,69 @@
+package ca.zesty.fleetreporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WakeupScheduleTest {
+    static final long SECOND = 1000;  // millis
+    static final long MINUTE = 60 * SECOND;
+    static final long HOUR = 60 * MINUTE;
+    static final long T0 = 1533081600_000L;  // 2018-08-01 00:00:00 UTC
+
+    private VirtualScheduler clock;
+    private WakeupSchedule schedule;
+
+    @Before public void setUp() {
+        clock = new VirtualScheduler(T0 + 23 * HOUR + 50 * MINUTE);
+        schedule = newSchedule();
+    }
+
+    private WakeupSchedule newSchedule() {
+        return new WakeupSchedule(clock, TimeZone.getTimeZone("UTC"),
+            new RecordingSchedule(new Prefs(new FakeUtils())), null);
+    }
+
+    @Test public void testRelaunchesOnceWhenWakeupIsLate() {
+        schedule.setTimesOfDay("", "", "00:00");
+        assertNull(schedule.checkRelaunch(null));
+
+        // The wakeup for midnight was deferred by a few minutes.
+        clock.advanceTo(T0 + 24 * HOUR + 3 * MINUTE);
+        assertEquals("2018-08-02", schedule.checkRelaunch(null));
+        clock.advanceTo(T0 + 24 * HOUR + 5 * MINUTE);
+        assertNull(schedule.checkRelaunch("2018-08-02"));
+
+        // After the relaunch, a new process must not relaunch again.
+        schedule = newSchedule();
+        schedule.setTimesOfDay("", "", "00:00");
+        clock.advanceTo(T0 + 48 * HOUR - MINUTE);
+        assertNull(schedule.checkRelaunch("2018-08-02"));
+        clock.advanceTo(T0 + 48 * HOUR + MINUTE);
+        assertEquals("2018-08-03", schedule.checkRelaunch("2018-08-02"));
+    }
+
+    @Test public void testSchedulesEveryWakeupSource() {
+        schedule.setTimesOfDay("22:00", "06:00", "07:00");
+        long now = clock.getTime();
+        assertEquals("A credit check is due right away",
+            now + WakeupSchedule.MIN_WAKEUP_INTERVAL_MILLIS,
+            schedule.getNextWakeupMillis(false, null, null, Long.MAX_VALUE));
+        assertEquals(WakeupSchedule.Reason.CREDIT_CHECK, schedule.getNextReason());
+
+        schedule.onCreditCheck();
+        assertEquals(now + WakeupSchedule.CREDIT_CHECK_INTERVAL_MILLIS,
+            schedule.getNextWakeupMillis(false, null, null, Long.MAX_VALUE));
+        assertEquals(now + 30 * SECOND, schedule.getNextWakeupMillis(false, null, null, now + 30 * SECOND));
+        assertEquals(WakeupSchedule.Reason.TRANSMIT, schedule.getNextReason());
+
+        // During the sleep period, only the end of it is due (credit checks stop).
+        assertEquals(T0 + 30 * HOUR, schedule.getNextWakeupMillis(true, null, null, Long.MAX_VALUE));
+        assertEquals(WakeupSchedule.Reason.SLEEP_END, schedule.getNextReason());
+        assertTrue(schedule.isSleepPeriod());
+    }
+}
@@ -0,0 +1,30 @@
+package ca.zesty.fleetreporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures KalmanFilter.onFix, per fix; gc.alloc.rate.norm should be just the emitted fix. */
+@State(Scope.Thread)
+public class KalmanFilterBenchmark {
+    static final int NUM_FIXES = 3600;
+
+    LocationFix[] fixes;
+
+    @Setup public void setUp() {
+        fixes = Traces.generateStopAndGo(NUM_FIXES, 600, 900, 2);
+    }
+
+    @Benchmark @OperationsPerInvocation(NUM_FIXES)
+    public void onFix(final Blackhole blackhole) {
+        KalmanFilter filter = new KalmanFilter(new LocationFixListener() {
+            @Override public void onFix(LocationFix fix) {
+                blackhole.consume(fix);
+            }
+        });
+        for (LocationFix fix : fixes) filter.onFix(fix);
+    }
+}
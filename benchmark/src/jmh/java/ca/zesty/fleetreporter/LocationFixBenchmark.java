@@ -0,0 +1,50 @@
+package ca.zesty.fleetreporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures the geometry that MotionListener and LocationService do for every fix. */
+@State(Scope.Thread)
+public class LocationFixBenchmark {
+    static final int NUM_FIXES = 1000;
+
+    LocationFix[] fixes;
+
+    @Setup public void setUp() {
+        fixes = Traces.generateStopAndGo(NUM_FIXES, 120, 300, 1);
+    }
+
+    @Benchmark @OperationsPerInvocation(NUM_FIXES - 1)
+    public void distanceTo(Blackhole blackhole) {
+        for (int i = 1; i < NUM_FIXES; i++) {
+            blackhole.consume(fixes[i - 1].distanceTo(fixes[i]));
+        }
+    }
+
+    @Benchmark @OperationsPerInvocation(NUM_FIXES - 1)
+    public void localDistanceTo(Blackhole blackhole) {
+        for (int i = 1; i < NUM_FIXES; i++) {
+            blackhole.consume(fixes[i - 1].localDistanceTo(fixes[i]));
+        }
+    }
+
+    /** Compares each fix against a fixed anchor, as MotionListener does while resting. */
+    @Benchmark @OperationsPerInvocation(NUM_FIXES - 1)
+    public void localDistanceSquaredToAnchor(Blackhole blackhole) {
+        LocationFix anchor = fixes[0];
+        for (int i = 1; i < NUM_FIXES; i++) {
+            blackhole.consume(anchor.localDistanceSquaredTo(fixes[i]) < 40 * 40);
+        }
+    }
+
+    @Benchmark @OperationsPerInvocation(NUM_FIXES - 1)
+    public void bearingTo(Blackhole blackhole) {
+        for (int i = 1; i < NUM_FIXES; i++) {
+            blackhole.consume(fixes[i - 1].bearingTo(fixes[i]));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ca.zesty.fleetreporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures MotionListener.onFix, per fix, over an hour of stop-and-go driving.
+    Compare gc.alloc.rate.norm with verbose logging off and on: with it off,
+    the only allocations should be the emitted Points.
+ */
+@State(Scope.Thread)
+public class MotionListenerBenchmark {
+    static final int NUM_FIXES = 3600;
+
+    @Param({"false", "true"})
+    boolean verboseLog;
+
+    LocationFix[] fixes;
+
+    @Setup public void setUp() {
+        Utils.setVerboseLogEnabled(verboseLog);
+        fixes = Traces.generateStopAndGo(NUM_FIXES, 600, 900, 2);
+    }
+
+    @Benchmark @OperationsPerInvocation(NUM_FIXES)
+    public void onFix(final Blackhole blackhole) {
+        MotionListener listener = new MotionListener(new Utils(), new PointListener() {
+            @Override public void onPoint(Point point, boolean isProvisional) {
+                blackhole.consume(point);
+            }
+        });
+        for (LocationFix fix : fixes) listener.onFix(fix);
+    }
+}
@@ -0,0 +1,42 @@
+package ca.zesty.fleetreporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Measures formatting a batch of points for an SMS message, in both encodings. */
+@State(Scope.Thread)
+public class PointFormatBenchmark {
+    static final int NUM_POINTS = 7;
+
+    List<Point> points;
+    String compactMessage;
+
+    @Setup public void setUp() {
+        LocationFix[] fixes = Traces.generateStopAndGo(NUM_POINTS * 600, 0, 3600, 3);
+        points = new ArrayList<>();
+        for (int i = 0; i < NUM_POINTS; i++) {
+            LocationFix fix = fixes[i * 600];
+            points.add(new Point(fix, Point.Type.MOVING, fixes[0].timeMillis));
+        }
+        compactMessage = PointCodec.encode(points);
+    }
+
+    @Benchmark public String format() {
+        String message = "";
+        for (Point point : points) message += point.format() + "\n";
+        return message;
+    }
+
+    @Benchmark public String encodeCompact() {
+        return PointCodec.encode(points);
+    }
+
+    @Benchmark public List<Point> decodeCompact() {
+        return PointCodec.decode(compactMessage);
+    }
+}
@@ -0,0 +1,45 @@
+package ca.zesty.fleetreporter;
+
+import android.content.Context;
+import android.content.Intent;
+import android.telephony.SmsMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures SmsReceiver's dispatch of incoming messages by regex, per message. */
+@State(Scope.Thread)
+public class SmsReceiverBenchmark {
+    static final String[] BODIES = {
+        "fleet reqpoint",
+        "fleet assign R3X7Q9 Truck 12",
+        "Votre credit est de 1250 FCFA. Merci.",
+        "Votre credit est seulement de 50 FCFA.",
+        "fleet ussd 1 *123#",
+        "fleet reqbattery",
+        "Bonjour, rendez-vous demain a 9h au depot.",
+        "Promo: 100 SMS pour 500 FCFA, tapez *155#",
+    };
+
+    SmsReceiver receiver;
+    Context context;
+    Intent[] intents;
+
+    @Setup public void setUp() {
+        receiver = new SmsReceiver();
+        context = new Context();
+        intents = new Intent[BODIES.length];
+        for (int i = 0; i < BODIES.length; i++) {
+            intents[i] = new Intent().putExtra("sms", new SmsMessage("+23675000000", BODIES[i]));
+        }
+    }
+
+    @Benchmark @OperationsPerInvocation(8)  // BODIES.length
+    public int onReceive() {
+        for (Intent intent : intents) receiver.onReceive(context, intent);
+        return context.numBroadcastsSent;
+    }
+}
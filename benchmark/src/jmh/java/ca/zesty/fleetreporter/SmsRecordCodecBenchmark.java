@@ -0,0 +1,132 @@
+package ca.zesty.fleetreporter;
+
+import android.database.Cursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Compares SmsRecordCodec with the formatting that SmsHistoryUploader did
+    before it, per row, over a synthetic cursor of SMS provider rows.
+ */
+@State(Scope.Thread)
+public class SmsRecordCodecBenchmark {
+    static final int ROWS = 256;
+    static final long T0 = 1533125696789L;  // 2018-08-01T12:14:56.789Z
+    static final String[] ADDRESSES = {"+236 75 00 00 00", "(236) 72-123-456", "1212", "Orange"};
+    static final String[] BODIES = {
+        "fleet reqpoint",
+        "Votre credit est de 1250 FCFA. Merci.",
+        "Bonjour,\n\"rendez-vous\" demain a 9h au depot.",
+        "Promo: 100 SMS pour 500 FCFA, tapez *155#",
+    };
+
+    Utils utils;
+    SyntheticCursor cursor;
+
+    @Setup public void setUp() {
+        utils = new Utils();
+        cursor = new SyntheticCursor(ROWS);
+    }
+
+    @Benchmark @OperationsPerInvocation(ROWS)
+    public int format() {
+        SmsRecordCodec codec = new SmsRecordCodec("R3X7Q9/Truck 12", utils);
+        codec.bind(cursor);
+        int length = 0;
+        cursor.rewind();
+        while (cursor.moveToNext()) length += codec.format(cursor).length();
+        return length;
+    }
+
+    @Benchmark @OperationsPerInvocation(ROWS)
+    public int legacyFormat() {
+        int length = 0;
+        cursor.rewind();
+        while (cursor.moveToNext()) length += legacyFormatSmsRecord(cursor).length();
+        return length;
+    }
+
+    String legacyFormatSmsRecord(Cursor cursor) {
+        long date = cursor.getLong(cursor.getColumnIndex("date"));
+        String address = cursor.getString(cursor.getColumnIndex("address"));
+        int type = cursor.getInt(cursor.getColumnIndex("type"));
+        String body = cursor.getString(cursor.getColumnIndex("body"));
+        int status = cursor.getInt(cursor.getColumnIndex("status"));
+        int errorCode = cursor.getInt(cursor.getColumnIndex("error_code"));
+        int threadId = cursor.getInt(cursor.getColumnIndex("thread_id"));
+        String subId = cursor.getString(cursor.getColumnIndex("sub_id"));
+
+        return Utils.format(
+            "%s,%s,%s,type=%s,%s,status=%s,error=%s,thread=%d,slot=%d",
+            "R3X7Q9/Truck 12",
+            Utils.formatUtcTimeMillis(date),
+            address.replaceAll("[^+0-9]", ""),
+            type == 1 ? "inbox" : type == 2 ? "sent" : "" + type,
+            Utils.quoteString(body),
+            status == -1 ? "none" : status == 0 ? "complete" : "" + status,
+            errorCode,
+            threadId,
+            utils.getSlotWithImsi(subId)
+        );
+    }
+
+    /** A cursor over generated rows with the columns of SmsRecordCodec.COLUMNS. */
+    static class SyntheticCursor implements Cursor {
+        final long[] dates;
+        final int rows;
+        int position = -1;
+
+        SyntheticCursor(int rows) {
+            this.rows = rows;
+            dates = new long[rows];
+            for (int i = 0; i < rows; i++) dates[i] = T0 + i * 37000L;
+        }
+
+        void rewind() {
+            position = -1;
+        }
+
+        @Override public int getColumnIndex(String columnName) {
+            for (int i = 0; i < SmsRecordCodec.COLUMNS.length; i++) {
+                if (SmsRecordCodec.COLUMNS[i].equals(columnName)) return i;
+            }
+            return -1;
+        }
+
+        @Override public boolean moveToNext() {
+            return ++position < rows;
+        }
+
+        @Override public boolean isNull(int columnIndex) {
+            return false;
+        }
+
+        @Override public int getInt(int columnIndex) {
+            switch (columnIndex) {
+                case 2: return 1 + position % 2;  // type: inbox or sent
+                case 4: return position % 5 == 0 ? 0 : -1;  // status: complete or none
+                case 5: return 0;  // error_code
+                case 6: return position % 7;  // thread_id
+                case 7: return 1 + position % 2;  // sub_id
+            }
+            throw new IllegalArgumentException("Not an int column: " + columnIndex);
+        }
+
+        @Override public long getLong(int columnIndex) {
+            return columnIndex == 0 ? dates[position] : getInt(columnIndex);
+        }
+
+        @Override public String getString(int columnIndex) {
+            switch (columnIndex) {
+                case 1: return ADDRESSES[position % ADDRESSES.length];
+                case 3: return BODIES[position % BODIES.length];
+            }
+            return String.valueOf(getLong(columnIndex));
+        }
+
+        @Override public void close() { }
+    }
+}
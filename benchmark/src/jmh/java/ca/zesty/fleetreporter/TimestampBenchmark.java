@@ -0,0 +1,67 @@
+package ca.zesty.fleetreporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Compares UTC timestamp formatting and parsing with the SimpleDateFormat
+    and Calendar implementation that Utils used before UtcTimestamp.
+ */
+@State(Scope.Thread)
+public class TimestampBenchmark {
+    static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    static final Pattern PATTERN_TIMESTAMP = Pattern.compile(
+        "(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2}):(\\d{2})Z");
+
+    SimpleDateFormat legacyFormat;
+    long timeMillis;
+    String timestamp;
+
+    @Setup public void setUp() {
+        legacyFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        legacyFormat.setTimeZone(UTC);
+        timeMillis = 1533125696789L;  // 2018-08-01T12:14:56.789Z
+        timestamp = Utils.formatUtcTimeSeconds(timeMillis);
+    }
+
+    @Benchmark public String formatUtcTimeSeconds() {
+        return Utils.formatUtcTimeSeconds(timeMillis++);
+    }
+
+    @Benchmark public String formatUtcTimeMillis() {
+        return Utils.formatUtcTimeMillis(timeMillis++);
+    }
+
+    @Benchmark public String legacyFormatUtcTimeSeconds() {
+        return legacyFormat.format(new Date(timeMillis++));
+    }
+
+    @Benchmark public Long parseTimestamp() {
+        return Utils.parseTimestamp(timestamp);
+    }
+
+    @Benchmark public Long legacyParseTimestamp() {
+        Matcher matcher = PATTERN_TIMESTAMP.matcher(timestamp);
+        if (!matcher.matches()) return null;
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(
+            Integer.parseInt(matcher.group(1)),
+            Integer.parseInt(matcher.group(2)) - 1,
+            Integer.parseInt(matcher.group(3)),
+            Integer.parseInt(matcher.group(4)),
+            Integer.parseInt(matcher.group(5)),
+            Integer.parseInt(matcher.group(6))
+        );
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,44 @@
+package ca.zesty.fleetreporter;
+
+import java.util.Random;
+
+/** Generates repeatable GPS traces for the benchmarks. */
+public class Traces {
+    static final long SECOND = 1000;
+    static final long T0 = 1533081600_000L;  // 2018-08-01 00:00:00 UTC
+    static final double METERS_PER_DEGREE = 111320;
+
+    /**
+     * Generates one fix per second for a vehicle that alternates between
+     * resting for restSeconds and driving for driveSeconds at about 50 km/h,
+     * with realistic position noise and accuracy values.
+     */
+    public static LocationFix[] generateStopAndGo(int numFixes, int restSeconds, int driveSeconds, long seed) {
+        Random random = new Random(seed);
+        LocationFix[] fixes = new LocationFix[numFixes];
+        double lat = 4.36123;
+        double lon = 18.55541;
+        double bearing = 45;
+        int period = restSeconds + driveSeconds;
+        for (int i = 0; i < numFixes; i++) {
+            boolean driving = i % period >= restSeconds;
+            double speedKmh = 0;
+            if (driving) {
+                speedKmh = Math.max(0, 50 + 10 * random.nextGaussian());
+                bearing = (bearing + 5 * random.nextGaussian() + 360) % 360;
+                double meters = speedKmh / 3.6;
+                lat += meters * Math.cos(Math.toRadians(bearing)) / METERS_PER_DEGREE;
+                lon += meters * Math.sin(Math.toRadians(bearing)) /
+                    (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            }
+            double accuracy = 5 + Math.abs(15 * random.nextGaussian());
+            double noiseLat = accuracy * random.nextGaussian() / 2 / METERS_PER_DEGREE;
+            double noiseLon = accuracy * random.nextGaussian() / 2 / METERS_PER_DEGREE;
+            fixes[i] = new LocationFix(
+                T0 + i * SECOND, lat + noiseLat, lon + noiseLon, 380 + 3 * random.nextGaussian(),
+                driving ? speedKmh : Math.abs(random.nextGaussian()), bearing, accuracy
+            );
+        }
+        return fixes;
+    }
+}
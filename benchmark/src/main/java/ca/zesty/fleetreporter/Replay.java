@@ -0,0 +1,84 @@
+package ca.zesty.fleetreporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Command-line entry point for replaying traces (see TraceReplay).
+
+    Usage: Replay [--compact] [--unfiltered] [--sms-latency=SECONDS] [--sampling=POLICY] TRACE_FILE...
+
+    POLICY is "full" (use every fix; the default), "resting" (the policy for
+    devices without a significant-motion sensor), or "duty" (the policy for
+    devices with one).  With a policy other than "full", each trace is also
+    replayed with every fix, and the GO detection delay is compared.
+    With --unfiltered, fixes go straight to the MotionListener without
+    passing through the KalmanFilter, as they did before it was added.
+
+    Preferences can be overridden with system properties named by their
+    keys, e.g. -Dpref_resting_radius=30 (see the benchmark Utils stub).
+ */
+public class Replay {
+    public static void main(String[] args) throws IOException {
+        boolean compact = false;
+        boolean unfiltered = false;
+        long smsLatencyMillis = 5000;
+        String sampling = "full";
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--compact")) compact = true;
+            else if (arg.equals("--unfiltered")) unfiltered = true;
+            else if (arg.startsWith("--sms-latency=")) {
+                smsLatencyMillis = Math.round(Double.parseDouble(arg.substring(14)) * 1000);
+            } else if (arg.startsWith("--sampling=")) {
+                sampling = arg.substring(11);
+            } else files.add(new File(arg));
+        }
+        if (files.isEmpty() || !sampling.matches("full|resting|duty")) {
+            System.err.println("Usage: Replay [--compact] [--unfiltered] [--sms-latency=SECONDS] [--sampling=POLICY] TRACE_FILE...");
+            System.exit(1);
+        }
+        Utils.setLoggingEnabled(false);
+        for (File file : files) {
+            List<LocationFix> fixes = TraceReader.read(file);
+            SamplingPolicy policy = sampling.equals("full") ? null : new SamplingPolicy(sampling.equals("duty"));
+            TraceReplay.Results results = new TraceReplay(new Utils(), compact, smsLatencyMillis, policy, unfiltered).replay(fixes);
+            System.out.println("== " + file);
+            System.out.println(results);
+            if (policy != null) {
+                TraceReplay.Results full = new TraceReplay(new Utils(), compact, smsLatencyMillis, null, unfiltered).replay(fixes);
+                System.out.println(compareGoDetection(full, results));
+            }
+        }
+    }
+
+    /**
+     * Compares when GO transitions were detected in a sampled replay and in a
+     * replay with every fix.  Each sampled GO is matched with the latest GO at
+     * or before it with every fix; some GOs with every fix are noise that the
+     * sampled replay never sees, so only their number is reported.
+     */
+    static String compareGoDetection(TraceReplay.Results full, TraceReplay.Results sampled) {
+        List<Long> delays = new ArrayList<>();
+        int i = 0;
+        for (long goMillis : sampled.goDetectionMillis) {
+            while (i + 1 < full.goDetectionMillis.size() && full.goDetectionMillis.get(i + 1) <= goMillis) i++;
+            if (i < full.goDetectionMillis.size() && full.goDetectionMillis.get(i) <= goMillis) {
+                delays.add(goMillis - full.goDetectionMillis.get(i));
+            }
+        }
+        int unmatched = Math.max(0, full.goDetectionMillis.size() - delays.size());
+        Collections.sort(delays);
+        return Utils.format(
+            "GO detection vs. every fix: %d GOs, delay median %.0f s, max %.0f s " +
+            "(%d GOs only with every fix); GPS on %.1f%% vs. %.1f%% of the time",
+            delays.size(),
+            delays.isEmpty() ? 0 : delays.get(delays.size() / 2) / 1000.0,
+            delays.isEmpty() ? 0 : delays.get(delays.size() - 1) / 1000.0, unmatched,
+            sampled.traceMillis > 0 ? 100.0 * sampled.gpsOnMillis / sampled.traceMillis : 0,
+            full.traceMillis > 0 ? 100.0 * full.gpsOnMillis / full.traceMillis : 0
+        );
+    }
+}
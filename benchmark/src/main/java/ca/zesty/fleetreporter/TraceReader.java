@@ -0,0 +1,207 @@
+package ca.zesty.fleetreporter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/** Reads recorded GPS traces into LocationFixes, from CSV, NMEA, or GPX files.
+
+    CSV files have one fix per line, with the columns
+        time,latitude,longitude,altitude,speed_kmh,bearing,accuracy
+    where time is an RFC3339 timestamp or milliseconds since the epoch, and
+    any columns after longitude may be empty.  Lines that don't start with
+    a digit (such as a header line) are skipped.
+
+    NMEA files are read for their RMC sentences (time, position, speed, and
+    course), using the altitude and HDOP from the latest GGA sentence.
+
+    GPX files are read for their <trkpt> elements, using <ele>, <time>,
+    <speed> and <hdop> where present.
+
+    Accuracy is estimated as HDOP * UERE_METERS when only HDOP is available,
+    and speed and bearing are computed from consecutive positions when they
+    are missing.
+ */
+public class TraceReader {
+    static final double UERE_METERS = 5;  // typical user equivalent range error
+    static final double DEFAULT_ACCURACY = 10;  // meters
+    static final double KNOTS_TO_KMH = 1.852;
+
+    /** Reads a trace file, choosing the format by its extension. */
+    public static List<LocationFix> read(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        InputStream input = new FileInputStream(file);
+        try {
+            if (name.endsWith(".gpx")) return readGpx(input);
+            if (name.endsWith(".nmea") || name.endsWith(".log")) return readNmea(input);
+            return readCsv(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    public static List<LocationFix> readCsv(InputStream input) throws IOException {
+        List<LocationFix> fixes = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+            String[] fields = line.split(",", -1);
+            Long timeMillis = Utils.parseTimestamp(fields[0]);
+            if (timeMillis == null) timeMillis = Long.parseLong(fields[0]);
+            fixes.add(new LocationFix(
+                timeMillis,
+                Double.parseDouble(fields[1]),
+                Double.parseDouble(fields[2]),
+                parseDouble(fields, 3, 0),
+                parseDouble(fields, 4, Double.NaN),
+                parseDouble(fields, 5, Double.NaN),
+                parseDouble(fields, 6, DEFAULT_ACCURACY)
+            ));
+        }
+        return fillInVelocities(fixes);
+    }
+
+    public static List<LocationFix> readNmea(InputStream input) throws IOException {
+        List<LocationFix> fixes = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "US-ASCII"));
+        double altitude = 0;
+        double accuracy = DEFAULT_ACCURACY;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int star = line.indexOf('*');
+            String[] fields = (star >= 0 ? line.substring(0, star) : line).trim().split(",", -1);
+            String type = fields[0];
+            try {
+                if (type.endsWith("GGA") && fields.length > 9 && !fields[6].equals("0")) {
+                    accuracy = parseDouble(fields, 8, DEFAULT_ACCURACY / UERE_METERS) * UERE_METERS;
+                    altitude = parseDouble(fields, 9, altitude);
+                } else if (type.endsWith("RMC") && fields.length > 9 && fields[2].equals("A")) {
+                    fixes.add(new LocationFix(
+                        parseNmeaTime(fields[1], fields[9]),
+                        parseNmeaCoordinate(fields[3], fields[4]),
+                        parseNmeaCoordinate(fields[5], fields[6]),
+                        altitude,
+                        parseDouble(fields, 7, Double.NaN) * KNOTS_TO_KMH,
+                        parseDouble(fields, 8, Double.NaN),
+                        accuracy
+                    ));
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                // Skip corrupted sentences.
+            }
+        }
+        return fillInVelocities(fixes);
+    }
+
+    public static List<LocationFix> readGpx(InputStream input) throws IOException {
+        List<LocationFix> fixes = new ArrayList<>();
+        try {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+            double lat = 0, lon = 0, altitude = 0, speedKmh = Double.NaN, accuracy = DEFAULT_ACCURACY;
+            Long timeMillis = null;
+            String element = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamReader.START_ELEMENT:
+                        element = reader.getLocalName();
+                        if (element.equals("trkpt")) {
+                            lat = Double.parseDouble(reader.getAttributeValue(null, "lat"));
+                            lon = Double.parseDouble(reader.getAttributeValue(null, "lon"));
+                            altitude = 0;
+                            speedKmh = Double.NaN;
+                            accuracy = DEFAULT_ACCURACY;
+                            timeMillis = null;
+                        }
+                        break;
+                    case XMLStreamReader.CHARACTERS:
+                        String text = reader.getText().trim();
+                        if (text.isEmpty() || element == null) break;
+                        if (element.equals("ele")) altitude = Double.parseDouble(text);
+                        if (element.equals("time")) timeMillis = parseGpxTime(text);
+                        if (element.equals("speed")) speedKmh = Double.parseDouble(text) * 3.6;
+                        if (element.equals("hdop")) accuracy = Double.parseDouble(text) * UERE_METERS;
+                        break;
+                    case XMLStreamReader.END_ELEMENT:
+                        element = null;
+                        if (reader.getLocalName().equals("trkpt") && timeMillis != null) {
+                            fixes.add(new LocationFix(
+                                timeMillis, lat, lon, altitude, speedKmh, Double.NaN, accuracy));
+                        }
+                        break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        return fillInVelocities(fixes);
+    }
+
+    /** Computes any missing speeds and bearings from consecutive fixes. */
+    static List<LocationFix> fillInVelocities(List<LocationFix> fixes) {
+        List<LocationFix> results = new ArrayList<>();
+        for (int i = 0; i < fixes.size(); i++) {
+            LocationFix fix = fixes.get(i);
+            if (Double.isNaN(fix.speedKmh) || Double.isNaN(fix.bearing)) {
+                double speedKmh = 0;
+                double bearing = 0;
+                if (i > 0) {
+                    LocationFix previous = fixes.get(i - 1);
+                    long millis = fix.timeMillis - previous.timeMillis;
+                    if (millis > 0) speedKmh = previous.distanceTo(fix) / millis * 3600;
+                    bearing = previous.bearingTo(fix);
+                }
+                fix = fix.withSpeedAndBearing(
+                    Double.isNaN(fix.speedKmh) ? speedKmh : fix.speedKmh,
+                    Double.isNaN(fix.bearing) ? bearing : fix.bearing);
+            }
+            results.add(fix);
+        }
+        return results;
+    }
+
+    private static double parseDouble(String[] fields, int index, double defaultValue) {
+        if (index >= fields.length || fields[index].trim().isEmpty()) return defaultValue;
+        return Double.parseDouble(fields[index].trim());
+    }
+
+    /** Parses an NMEA time (hhmmss.ss) and date (ddmmyy) into milliseconds. */
+    private static long parseNmeaTime(String time, String date) {
+        long millis = UtcTimestamp.daysFromCivil(
+            2000 + Integer.parseInt(date.substring(4, 6)),
+            Integer.parseInt(date.substring(2, 4)),
+            Integer.parseInt(date.substring(0, 2))
+        ) * UtcTimestamp.DAY;
+        millis += Integer.parseInt(time.substring(0, 2)) * 3600000L;
+        millis += Integer.parseInt(time.substring(2, 4)) * 60000L;
+        millis += Math.round(Double.parseDouble(time.substring(4)) * 1000);
+        return millis;
+    }
+
+    /** Parses an NMEA coordinate (dddmm.mmmm) and hemisphere into degrees. */
+    private static double parseNmeaCoordinate(String value, String hemisphere) {
+        int dot = value.indexOf('.');
+        int degreeDigits = (dot < 0 ? value.length() : dot) - 2;
+        double degrees = Integer.parseInt(value.substring(0, degreeDigits)) +
+            Double.parseDouble(value.substring(degreeDigits)) / 60;
+        return hemisphere.equals("S") || hemisphere.equals("W") ? -degrees : degrees;
+    }
+
+    /** Parses a GPX timestamp, ignoring any fractional seconds. */
+    private static long parseGpxTime(String text) {
+        int dot = text.indexOf('.');
+        Long millis = Utils.parseTimestamp(dot < 0 ? text : text.substring(0, dot) + "Z");
+        if (millis == null) throw new NumberFormatException("Bad GPX time: " + text);
+        return millis;
+    }
+}
@@ -0,0 +1,388 @@
+package ca.zesty.fleetreporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/** Replays a recorded trace through the app's location pipeline on a simulated clock.
+
+    Each fix is fed through a KalmanFilter (unless unfiltered is set) to a
+    MotionListener; the Points it emits are recorded
+    into an outbox according to a RecordingSchedule, and the outbox is sent
+    according to a TransmissionScheduler, in the same way as LocationService
+    does, with every SMS assumed to be delivered after smsLatencyMillis.  A
+    gap of more than GPS_GAP_MILLIS between fixes is treated as a GPS outage.
+    If a SamplingPolicy is given, fixes are dropped from the trace to match
+    the rate it asks for, and a fix faster than pref_stable_max_speed while
+    the GPS is off stands in for the significant-motion sensor.  The GPS
+    starts cold for each burst, so the trace's fixes can't be used as they
+    are: none arrive for the first WARMUP_NO_FIX_MILLIS, and those in the
+    rest of WARMUP_MILLIS are displaced by a random error of about
+    WARMUP_ERROR_METERS, with an accuracy to match and a spurious speed.
+    The loop is woken up by a VirtualScheduler, which also drives
+    Utils.getTime() during the replay, so a day of 1 Hz fixes replays in a
+    few seconds or less.  The wakeups are scheduled by the same
+    WakeupSchedule as LocationService uses, including its credit checks,
+    sleep period, daily relaunch, and GPS outage reports, and are counted
+    by the event they were scheduled for.
+ */
+public class TraceReplay implements PointListener {
+    static final long SECOND = 1000;
+    static final long MINUTE = 60 * SECOND;
+    static final long GPS_GAP_MILLIS = 30 * SECOND;
+    static final long WARMUP_NO_FIX_MILLIS = 5 * SECOND;
+    static final long WARMUP_MILLIS = 15 * SECOND;
+    static final double WARMUP_ERROR_METERS = 100;
+    static final double WARMUP_MAX_SPEED_KMH = 10;
+    static final double METERS_PER_DEGREE = 111320;
+    static final int POINTS_PER_SMS_MESSAGE = 2;  // as in LocationService
+    static final int MAX_POINTS_PER_COMPACT_SMS_MESSAGE = 10;
+    static final int SMS_MESSAGE_MAX_LENGTH = 160;
+    static final int MULTIPART_PART_MAX_LENGTH = 153;
+    static final int DAILY_SMS_BUDGET = 48;  // default pref_daily_point_sms_limit
+
+    private final Utils mUtils;
+    private final Prefs mPrefs;
+    private final boolean mCompact;
+    private final long mSmsLatencyMillis;
+    private final MotionListener mMotionListener;
+    private final LocationFixListener mFixListener;  // the KalmanFilter or the MotionListener
+    private final RecordingSchedule mRecordingSchedule;
+    private final TransmissionScheduler mTransmissionScheduler;
+    private final SamplingPolicy mSamplingPolicy;  // null to use every fix
+    private final SortedMap<Long, Point> mOutbox = new TreeMap<>(new Comparator<Long>() {
+        @Override public int compare(Long a, Long b) {
+            return Long.compare(b, a);  // newest first, as in LocationService
+        }
+    });
+
+    private VirtualScheduler mScheduler = null;
+    private WakeupSchedule mWakeupSchedule = null;
+    private WakeupSchedule.Reason mNextReason = WakeupSchedule.Reason.MAX_INTERVAL;
+    private long mNow = 0;
+    private final Runnable mRunnable = new Runnable() {
+        public void run() {
+            mNow = mScheduler.getTime();
+            mResults.countWakeup(mNextReason);
+            checkWhetherToSleep();
+            checkWhetherToRecordPoint();
+            checkWhetherToTransmitPoints();
+            if (!mSleeping && mWakeupSchedule.isCreditCheckDue()) {
+                mWakeupSchedule.onCreditCheck();
+                mResults.numCreditChecks++;
+            }
+            String relaunchDate = mWakeupSchedule.checkRelaunch(mLastRelaunchDate);
+            if (relaunchDate != null) {
+                mLastRelaunchDate = relaunchDate;
+                mResults.numRelaunches++;
+            }
+            updateGpsState();
+            scheduleNextWakeup();
+        }
+    };
+    private final Runnable mDeliveryRunnable = new Runnable() {
+        public void run() {
+            mNow = mScheduler.getTime();
+            mResults.numStatusWakeups++;
+            checkDelivery();
+            scheduleNextWakeup();
+        }
+    };
+    private boolean mSleeping = false;
+    private boolean mGpsOn = false;
+    private Long mGpsColdStartMillis = null;  // when the GPS was last switched on for a burst
+    private final Random mWarmUpRandom = new Random(0);
+    private String mLastRelaunchDate = null;
+    private Point mPoint = null;  // latest non-provisional point not yet recorded
+    private Long mNoGpsSinceMillis = null;
+    private long mLastOutageReportMillis = 0;
+    private LocationFix mLastUsedFix = null;
+    private List<Long> mInFlightKeys = new ArrayList<>();
+    private long mInFlightDeliveryMillis = 0;
+    private final Results mResults = new Results();
+
+    public TraceReplay(Utils utils, boolean compact, long smsLatencyMillis,
+                       SamplingPolicy samplingPolicy, boolean unfiltered) {
+        mUtils = utils;
+        mPrefs = new Prefs(utils);
+        mSamplingPolicy = samplingPolicy;
+        mCompact = compact;
+        mSmsLatencyMillis = smsLatencyMillis;
+        mMotionListener = new MotionListener(utils, this);
+        mFixListener = unfiltered ? mMotionListener : new KalmanFilter(mMotionListener);
+        mRecordingSchedule = new RecordingSchedule(mPrefs);
+        mTransmissionScheduler = new TransmissionScheduler(1, new Random(0));
+    }
+
+    /** Replays a trace, returning statistics on what would have been recorded and sent. */
+    public Results replay(List<LocationFix> fixes) {
+        if (fixes.isEmpty()) return mResults;
+        long startNanos = System.nanoTime();
+        mNow = fixes.get(0).timeMillis;
+        mScheduler = new VirtualScheduler(mNow);
+        mWakeupSchedule = new WakeupSchedule(
+            mScheduler, TimeZone.getDefault(), mRecordingSchedule, mSamplingPolicy);
+        mWakeupSchedule.setTimesOfDay(mUtils.getPref(Prefs.SLEEP_START),
+            mUtils.getPref(Prefs.SLEEP_END), mUtils.getPref(Prefs.DAILY_RELAUNCH_TIME));
+        mSleeping = mWakeupSchedule.isSleepPeriod();
+        mScheduler.scheduleAt(mRunnable, mNow);
+        Utils.setClock(mScheduler);
+        try {
+            LocationFix lastFix = null;
+            for (LocationFix fix : fixes) {
+                if (isGpsOn()) mResults.gpsOnMillis += fix.timeMillis - mNow;
+                if (lastFix != null && fix.timeMillis - lastFix.timeMillis > GPS_GAP_MILLIS) {
+                    advanceTo(lastFix.timeMillis + GPS_GAP_MILLIS);
+                    if (isGpsOn()) {
+                        mFixListener.onFix(null);
+                        mResults.numGpsOutages++;
+                    }
+                }
+                advanceTo(fix.timeMillis);
+                lastFix = fix;
+                if (!shouldUseFix(fix)) continue;
+                LocationFix usedFix = getWarmUpFix(fix);
+                if (usedFix == null) continue;
+                mFixListener.onFix(usedFix);
+                if (mSamplingPolicy != null && mSamplingPolicy.onFix(usedFix, mPrefs.stableMaxAccuracy)) {
+                    updateGpsState();
+                    scheduleNextWakeup();
+                }
+                mResults.numFixes++;
+                mLastUsedFix = fix;
+            }
+            // Let the outbox drain.
+            advanceTo(mNow + WakeupSchedule.MAX_WAKEUP_INTERVAL_MILLIS);
+            mResults.traceMillis = lastFix.timeMillis - fixes.get(0).timeMillis;
+        } finally {
+            Utils.setClock(null);
+        }
+        mResults.replayNanos = System.nanoTime() - startNanos;
+        mResults.numUnsentPoints = mOutbox.size();
+        mResults.numWakeups = mScheduler.getNumTasksRun();
+        return mResults;
+    }
+
+    private boolean isGpsOn() {
+        return !mSleeping && (mSamplingPolicy == null || mSamplingPolicy.getIntervalMillis(mNow) != null);
+    }
+
+    /**
+     * Notes when the GPS is switched on for a burst, re-anchoring the
+     * MotionListener as LocationService.updateLocationRequest() does.
+     */
+    private void updateGpsState() {
+        boolean gpsOn = isGpsOn();
+        if (gpsOn && !mGpsOn && mSamplingPolicy != null && mSamplingPolicy.isDutyCycling()) {
+            mMotionListener.reanchor(mNow, SamplingPolicy.MAX_BURST_LENGTH_MILLIS);
+            mGpsColdStartMillis = mNow;
+        }
+        mGpsOn = gpsOn;
+    }
+
+    /** Decides whether the GPS would have delivered a fix, at the rate set by the policy. */
+    private boolean shouldUseFix(LocationFix fix) {
+        if (mSleeping) return false;
+        if (mSamplingPolicy == null || mLastUsedFix == null) return true;
+        updateGpsState();
+        if (!isGpsOn()) {
+            if (!(fix.speedKmh > mPrefs.stableMaxSpeed)) return false;
+            mSamplingPolicy.onMotionDetected(mNow);
+            mResults.numMotionTriggers++;
+            updateGpsState();
+        }
+        long intervalMillis = mSamplingPolicy.getIntervalMillis(mNow);
+        return fix.timeMillis - mLastUsedFix.timeMillis >= intervalMillis - intervalMillis / 10;
+    }
+
+    /** Degrades a fix as a cold GPS would; returns null if there would be no fix yet. */
+    private LocationFix getWarmUpFix(LocationFix fix) {
+        if (mGpsColdStartMillis == null || mNow - mGpsColdStartMillis >= WARMUP_MILLIS) return fix;
+        if (mNow - mGpsColdStartMillis < WARMUP_NO_FIX_MILLIS) return null;
+        mResults.numWarmUpFixes++;
+        double errorMeters = WARMUP_ERROR_METERS * mWarmUpRandom.nextGaussian();
+        double direction = mWarmUpRandom.nextDouble() * 2 * Math.PI;
+        return new LocationFix(fix.timeMillis,
+            fix.latitude + errorMeters * Math.cos(direction) / METERS_PER_DEGREE,
+            fix.longitude + errorMeters * Math.sin(direction) /
+                (METERS_PER_DEGREE * Math.cos(Math.toRadians(fix.latitude))),
+            fix.altitude, mWarmUpRandom.nextDouble() * WARMUP_MAX_SPEED_KMH, fix.bearing,
+            WARMUP_ERROR_METERS);
+    }
+
+    @Override public void onPoint(Point point, boolean isProvisional) {
+        if (point == null) {
+            if (mNoGpsSinceMillis == null) {
+                mNoGpsSinceMillis = mNow;
+                scheduleNextWakeup();
+            }
+            return;
+        }
+        mNoGpsSinceMillis = null;
+        if (isProvisional) return;
+        if (mSamplingPolicy != null) {
+            mSamplingPolicy.onPoint(point, mNow);
+            updateGpsState();
+        }
+        if (point.type == Point.Type.GO) mResults.goDetectionMillis.add(mNow);
+        mPoint = point;
+        checkWhetherToRecordPoint();
+        scheduleNextWakeup();
+    }
+
+    /** Advances the clock, running the scheduled wakeups along the way. */
+    private void advanceTo(long timeMillis) {
+        mScheduler.advanceTo(timeMillis);
+        mNow = mScheduler.getTime();
+    }
+
+    /** Schedules the next wakeup in the same way as LocationService.scheduleNextWakeup(). */
+    private void scheduleNextWakeup() {
+        Long outageReportMillis = mNoGpsSinceMillis == null ? null :
+            mLastOutageReportMillis + mPrefs.reportingIntervalGpsOutageMillis;
+        long transmissionMillis = !mOutbox.isEmpty() && mInFlightKeys.isEmpty() ?
+            mTransmissionScheduler.getNextAttemptMillis(0) : Long.MAX_VALUE;
+        mScheduler.scheduleAt(mRunnable, mWakeupSchedule.getNextWakeupMillis(
+            mSleeping, mPoint, outageReportMillis, transmissionMillis));
+        mNextReason = mWakeupSchedule.getNextReason();
+    }
+
+    /** Turns the GPS off during the sleep period, as LocationService.checkWhetherToSleep() does. */
+    private void checkWhetherToSleep() {
+        boolean sleepPeriod = mWakeupSchedule.isSleepPeriod();
+        if (sleepPeriod && !mSleeping) {
+            mSleeping = true;
+            mPoint = null;
+            mNoGpsSinceMillis = null;
+        } else if (!sleepPeriod && mSleeping) {
+            mSleeping = false;
+            mNoGpsSinceMillis = mNow;
+            if (mSamplingPolicy != null) mSamplingPolicy.reset();
+        }
+    }
+
+    private void checkWhetherToRecordPoint() {
+        if (mNoGpsSinceMillis != null && mNow >= mRecordingSchedule.getNextRecordingMillis(mNow) &&
+            mNow >= mLastOutageReportMillis + mPrefs.reportingIntervalGpsOutageMillis) {
+            mResults.numOutageReports++;
+            mLastOutageReportMillis = mNow;
+        }
+        if (mPoint != null && mRecordingSchedule.isDue(mPoint, mNow)) {
+            mOutbox.put(mPoint.getSeconds(), mPoint);
+            mRecordingSchedule.onRecord(mPoint);
+            mResults.numPointsRecorded++;
+            if (mPoint.isTransition()) mResults.numTransitionsRecorded++;
+            mPoint = null;
+            checkWhetherToTransmitPoints();
+        }
+    }
+
+    private void checkWhetherToTransmitPoints() {
+        checkDelivery();
+        if (mOutbox.isEmpty() || !mInFlightKeys.isEmpty() ||
+            !mTransmissionScheduler.isDue(0, mNow)) return;
+        mTransmissionScheduler.onAttempt(mNow, DAILY_SMS_BUDGET);
+
+        int maxParts = mTransmissionScheduler.getMaxParts(mOutbox.size(), DAILY_SMS_BUDGET, true);
+        int maxLength = maxParts > 1 ? maxParts * MULTIPART_PART_MAX_LENGTH : SMS_MESSAGE_MAX_LENGTH;
+        int maxPoints = maxParts > 1 ? mOutbox.size() :
+            mCompact ? MAX_POINTS_PER_COMPACT_SMS_MESSAGE : POINTS_PER_SMS_MESSAGE;
+        List<Point> points = new ArrayList<>();
+        String message = "";
+        for (Long key : mOutbox.keySet()) {
+            Point point = mOutbox.get(key);
+            points.add(point);
+            String extended = mCompact ? PointCodec.encode(points) :
+                message + (message.isEmpty() ? "" : "\n") + point.format();
+            if (extended.length() > maxLength && !mInFlightKeys.isEmpty()) break;
+            message = extended;
+            mInFlightKeys.add(key);
+            if (mInFlightKeys.size() >= maxPoints) break;
+        }
+        int numParts = message.length() <= SMS_MESSAGE_MAX_LENGTH ? 1 :
+            (message.length() + MULTIPART_PART_MAX_LENGTH - 1) / MULTIPART_PART_MAX_LENGTH;
+        mResults.numMessages++;
+        mResults.numSmsParts += numParts;
+        mInFlightDeliveryMillis = mNow + mSmsLatencyMillis;
+        mScheduler.scheduleAt(mDeliveryRunnable, mInFlightDeliveryMillis);
+    }
+
+    private void checkDelivery() {
+        if (mInFlightKeys.isEmpty() || mNow < mInFlightDeliveryMillis) return;
+        for (Long key : mInFlightKeys) {
+            Point point = mOutbox.remove(key);
+            mResults.latenciesMillis.add(mInFlightDeliveryMillis - point.fix.timeMillis);
+        }
+        mInFlightKeys.clear();
+        mTransmissionScheduler.onSuccess(0, mInFlightDeliveryMillis, mOutbox.size(), DAILY_SMS_BUDGET);
+    }
+
+    /** Statistics from a replay. */
+    public static class Results {
+        public int numFixes = 0;  // fixes used, after any dropped by the SamplingPolicy
+        public int numWarmUpFixes = 0;  // fixes degraded as if from a cold GPS
+        public long gpsOnMillis = 0;
+        public int numMotionTriggers = 0;
+        public int numGpsOutages = 0;
+        public int numPointsRecorded = 0;
+        public int numTransitionsRecorded = 0;
+        public int numMessages = 0;
+        public int numSmsParts = 0;
+        public int numUnsentPoints = 0;
+        public int numWakeups = 0;
+        public int numStatusWakeups = 0;  // for SMS sent statuses, which aren't scheduled
+        public final Map<WakeupSchedule.Reason, Integer> wakeupsByReason =
+            new EnumMap<>(WakeupSchedule.Reason.class);
+        public int numCreditChecks = 0;
+        public int numRelaunches = 0;
+        public int numOutageReports = 0;
+        public long traceMillis = 0;
+        public long replayNanos = 0;
+        public final List<Long> latenciesMillis = new ArrayList<>();
+        public final List<Long> goDetectionMillis = new ArrayList<>();  // when each GO was emitted
+
+        void countWakeup(WakeupSchedule.Reason reason) {
+            Integer count = wakeupsByReason.get(reason);
+            wakeupsByReason.put(reason, count == null ? 1 : count + 1);
+        }
+
+        /** Gets a percentile (0 to 100) of the latency from fix to delivery, in seconds. */
+        public double getLatencyPercentileSeconds(double percentile) {
+            if (latenciesMillis.isEmpty()) return 0;
+            List<Long> sorted = new ArrayList<>(latenciesMillis);
+            Collections.sort(sorted);
+            int index = (int) Math.min(sorted.size() - 1, Math.floor(percentile / 100 * sorted.size()));
+            return sorted.get(index) / 1000.0;
+        }
+
+        @Override public String toString() {
+            double days = traceMillis / 86400000.0;
+            return Utils.format(
+                "%d fixes over %.2f days (%d GPS outages, %d warm-up fixes)\n" +
+                "GPS on for %.1f%% of the time (%d motion triggers)\n" +
+                "%d points recorded (%d transitions), %d unsent at end\n" +
+                "%d messages, %d SMS parts (%.1f SMS/day)\n" +
+                "latency from fix to delivery: median %.0f s, p95 %.0f s, max %.0f s\n" +
+                "%d wakeups (%.1f per hour): %s, %d for SMS statuses\n" +
+                "%d credit checks, %d relaunches, %d GPS outage reports\n" +
+                "replayed in %.3f s (%.0f trace days per second)",
+                numFixes, days, numGpsOutages, numWarmUpFixes,
+                traceMillis > 0 ? 100.0 * gpsOnMillis / traceMillis : 0, numMotionTriggers,
+                numPointsRecorded, numTransitionsRecorded, numUnsentPoints,
+                numMessages, numSmsParts, days > 0 ? numSmsParts / days : 0,
+                getLatencyPercentileSeconds(50), getLatencyPercentileSeconds(95),
+                getLatencyPercentileSeconds(100),
+                numWakeups, days > 0 ? numWakeups / (days * 24) : 0, wakeupsByReason, numStatusWakeups,
+                numCreditChecks, numRelaunches, numOutageReports,
+                replayNanos / 1e9, days / (replayNanos / 1e9)
+            );
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package android.content;
+
+/** Stub of android.content.Context that counts the broadcasts it is asked to send. */
+public class Context {
+    public int numBroadcastsSent = 0;
+
+    public void sendBroadcast(Intent intent) {
+        numBroadcastsSent++;
+    }
+}
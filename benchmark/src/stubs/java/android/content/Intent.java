@@ -0,0 +1,33 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Stub of android.content.Intent that just holds an action and extras. */
+public class Intent {
+    public final String action;
+    public final Map<String, Object> extras = new HashMap<>();
+
+    public Intent() {
+        this(null);
+    }
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public Intent putExtra(String name, String value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, int value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, Object value) {
+        extras.put(name, value);
+        return this;
+    }
+}
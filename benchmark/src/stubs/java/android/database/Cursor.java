@@ -0,0 +1,12 @@
+package android.database;
+
+/** Stub of android.database.Cursor with only the methods that app classes use on the JVM. */
+public interface Cursor {
+    int getColumnIndex(String columnName);
+    boolean moveToNext();
+    boolean isNull(int columnIndex);
+    int getInt(int columnIndex);
+    long getLong(int columnIndex);
+    String getString(int columnIndex);
+    void close();
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+/** Stub of android.os.Parcel; the benchmarks never parcel anything. */
+public final class Parcel {
+    public long readLong() { throw new UnsupportedOperationException(); }
+    public double readDouble() { throw new UnsupportedOperationException(); }
+    public String readString() { throw new UnsupportedOperationException(); }
+    public Object readValue(ClassLoader loader) { throw new UnsupportedOperationException(); }
+    public <T extends Parcelable> T readParcelable(ClassLoader loader) { throw new UnsupportedOperationException(); }
+    public void writeLong(long value) { throw new UnsupportedOperationException(); }
+    public void writeDouble(double value) { throw new UnsupportedOperationException(); }
+    public void writeString(String value) { throw new UnsupportedOperationException(); }
+    public void writeValue(Object value) { throw new UnsupportedOperationException(); }
+    public void writeParcelable(Parcelable value, int flags) { throw new UnsupportedOperationException(); }
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+/** Stub of android.os.Parcelable, so that app classes compile on the JVM. */
+public interface Parcelable {
+    int describeContents();
+    void writeToParcel(Parcel out, int flags);
+
+    interface Creator<T> {
+        T createFromParcel(Parcel parcel);
+        T[] newArray(int size);
+    }
+}
@@ -0,0 +1,17 @@
+package android.provider;
+
+/** Stub of android.provider.Telephony with the SMS type and status constants. */
+public final class Telephony {
+    public interface TextBasedSmsColumns {
+        int MESSAGE_TYPE_INBOX = 1;
+        int MESSAGE_TYPE_SENT = 2;
+        int MESSAGE_TYPE_DRAFT = 3;
+        int MESSAGE_TYPE_OUTBOX = 4;
+        int MESSAGE_TYPE_FAILED = 5;
+        int MESSAGE_TYPE_QUEUED = 6;
+        int STATUS_NONE = -1;
+        int STATUS_COMPLETE = 0;
+        int STATUS_PENDING = 32;
+        int STATUS_FAILED = 64;
+    }
+}
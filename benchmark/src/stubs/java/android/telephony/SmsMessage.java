@@ -0,0 +1,20 @@
+package android.telephony;
+
+/** Stub of android.telephony.SmsMessage with a fixed sender and body. */
+public class SmsMessage {
+    private final String mSender;
+    private final String mBody;
+
+    public SmsMessage(String sender, String body) {
+        mSender = sender;
+        mBody = body;
+    }
+
+    public String getDisplayOriginatingAddress() {
+        return mSender;
+    }
+
+    public String getMessageBody() {
+        return mBody;
+    }
+}
@@ -0,0 +1,172 @@
+package ca.zesty.fleetreporter;
+
+import android.content.Intent;
+import android.telephony.SmsMessage;
+
+import java.util.Locale;
+
+/** Stand-in for the app's Utils class, for running app classes on the JVM.
+
+    The static helpers match the app's implementations.  log() and
+    logRemote() do the same formatting work as the app's, but discard the
+    result instead of writing it out, so that the benchmarks measure the
+    cost of logging on the caller's thread without any I/O; setLoggingEnabled
+    turns even that off, for replaying traces quickly.  SIM slot lookups
+    scan a fixed table of IMSIs and subscription IDs, with none of the
+    subscription service calls that the app's lookups can make.  Preference
+    getters return the system property named by the preference key if it is
+    set (e.g. -Dpref_resting_radius=30), or else their default values.
+ */
+public class Utils {
+    static long sTimeOffsetMillis = 0;
+    static volatile String sLastLogLine = null;
+    static boolean sLoggingEnabled = true;
+    static volatile boolean sVerboseLogEnabled = false;
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override public long getTime() {
+            return System.currentTimeMillis() + sTimeOffsetMillis;
+        }
+    };
+    static Clock sClock = SYSTEM_CLOCK;
+
+    public Utils() { }
+
+    public static void setTimeOffset(long offsetMillis) {
+        sTimeOffsetMillis = offsetMillis;
+    }
+
+    public static void setClock(Clock clock) {
+        sClock = clock == null ? SYSTEM_CLOCK : clock;
+    }
+
+    public static long getTime() {
+        return sClock.getTime();
+    }
+
+    public static String format(String template, Object... args) {
+        return String.format(Locale.US, template, args);
+    }
+
+    public static String escapeString(String str) {
+        return str.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    public static String quoteString(String str) {
+        return "\"" + escapeString(str).replace("\"", "\\\"") + "\"";
+    }
+
+    public static long clamp(long min, long max, long value) {
+        return (value < min) ? min : (value > max) ? max : value;
+    }
+
+    public static double clamp(double min, double max, double value) {
+        return (value < min) ? min : (value > max) ? max : value;
+    }
+
+    public static int countMinutesSinceMidnight(String hourMinute) {
+        try {
+            String[] parts = hourMinute.split(":");
+            int hours = Integer.parseInt(parts[0]);
+            int minutes = Integer.parseInt(parts[1]);
+            return hours*60 + minutes;
+        } catch (NullPointerException | IndexOutOfBoundsException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static String formatUtcTimeSeconds(long timeMillis) {
+        return UtcTimestamp.formatSeconds(timeMillis);
+    }
+
+    public static String formatUtcTimeMillis(long timeMillis) {
+        return UtcTimestamp.formatMillis(timeMillis);
+    }
+
+    public static Long parseTimestamp(String timestamp) {
+        return UtcTimestamp.parse(timestamp);
+    }
+
+    public static SmsMessage getSmsFromIntent(Intent intent) {
+        return (SmsMessage) intent.extras.get("sms");
+    }
+
+    public static void setLoggingEnabled(boolean enabled) {
+        sLoggingEnabled = enabled;
+    }
+
+    public static void setVerboseLogEnabled(boolean enabled) {
+        sVerboseLogEnabled = enabled;
+    }
+
+    public static boolean isVerboseLogEnabled() {
+        return sVerboseLogEnabled;
+    }
+
+    public static void log(String tag, String message, Object... args) {
+        logHelper(tag, args.length > 0 ? Utils.format(message, args) : message);
+    }
+
+    public static void logRemote(String tag, String message, Object... args) {
+        logHelper(tag, args.length > 0 ? Utils.format(message, args) : message);
+    }
+
+    private static void logHelper(String tag, String message) {
+        if (!sLoggingEnabled) return;
+        String timestamp = Utils.formatUtcTimeSeconds(Utils.getTime());
+        sLastLogLine = Utils.escapeString(Utils.format("%s - %s: %s", timestamp, tag, message));
+    }
+
+    static final String[] SLOT_IMSIS = {"623030000000001", "623020000000002"};
+    static final int[] SLOT_SUBSCRIPTION_IDS = {1, 2};
+
+    public int getSlotWithImsi(String imsi) {
+        for (int slot = 0; slot < SLOT_IMSIS.length; slot++) {
+            if (SLOT_IMSIS[slot].equals(imsi)) return slot;
+        }
+        return -1;
+    }
+
+    public int getSlotWithSubscriptionId(int subscriptionId) {
+        for (int slot = 0; slot < SLOT_SUBSCRIPTION_IDS.length; slot++) {
+            if (SLOT_SUBSCRIPTION_IDS[slot] == subscriptionId) return slot;
+        }
+        return -1;
+    }
+
+    public String getPref(String key) {
+        return getPref(key, "");
+    }
+
+    public String getPref(String key, String defaultValue) {
+        return System.getProperty(key, defaultValue);
+    }
+
+    public boolean getBooleanPref(String key) {
+        return getBooleanPref(key, false);
+    }
+
+    public boolean getBooleanPref(String key, boolean defaultValue) {
+        String value = System.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public int getIntPref(String key, int defaultValue) {
+        String value = System.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public long getLongPref(String key, long defaultValue) {
+        String value = System.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public float getFloatPref(String key, double defaultValue) {
+        String value = System.getProperty(key);
+        return value == null ? (float) defaultValue : Float.parseFloat(value);
+    }
+
+    public long getMinutePrefInMillis(String key, double defaultMinutes) {
+        return Math.round(getFloatPref(key, defaultMinutes) * 60 * 1000);
+    }
+}